@@ -1,9 +1,26 @@
 import gui.LoginScreen;
+import utils.DemandForecaster;
+import utils.ExpiryMonitor;
+import utils.InventoryStore;
+import utils.NameSearch;
+import utils.ReorderEngine;
+import utils.SalesAggregates;
+import utils.SalesQuery;
+import utils.SupplierStore;
 import utils.UserManager;
 
 public class Main {
     public static void main(String[] args) {
         UserManager.bootstrap();
+        InventoryStore.load();
+        SupplierStore.load();
+        SalesAggregates.load();
+        SalesQuery.load();
+        DemandForecaster.load();
+        ExpiryMonitor.start();
+        ReorderEngine.start();
+        NameSearch.prepare();
+        Runtime.getRuntime().addShutdownHook(new Thread(InventoryStore::flush));
         new LoginScreen().setVisible(true);
     }
 }
\ No newline at end of file
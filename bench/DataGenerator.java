@@ -0,0 +1,116 @@
+package bench;
+
+import models.Account;
+import models.Medicine;
+import models.Purchase;
+import models.Supplier;
+import utils.PasswordHasher;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Writes a complete data set (medicines.txt, purchases.txt, users.txt, suppliers.txt) in the
+ * formats the app reads, so the app or a benchmark can be started in that directory.
+ * Medicine i is named "Med-i", user i is "user-i" with password {@link #password(int)}; the ledger sells
+ * random medicines in baskets of one to four lines, 40 seconds apart, ending today.
+ * Usage: java bench.DataGenerator dir purchases [medicines [users [suppliers]]]
+ */
+public class DataGenerator {
+    private static final String[] ROLES = {"Pharmacist", "Customer"};
+    // Hashing is slow on purpose, so users share this many passwords (and hashes)
+    private static final int PASSWORDS = 16;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args[0]);
+        int purchases = Integer.parseInt(args[1]);
+        int medicines = args.length > 2 ? Integer.parseInt(args[2]) : Math.min(purchases, 100_000);
+        int users = args.length > 3 ? Integer.parseInt(args[3]) : Math.min(purchases, 100_000);
+        int suppliers = args.length > 4 ? Integer.parseInt(args[4]) : Math.min(purchases, 10_000);
+        long t0 = System.nanoTime();
+        generate(dir, medicines, purchases, users, suppliers);
+        System.out.printf("%s: %,d medicines, %,d purchases, %,d users, %,d suppliers in %,d ms%n",
+                dir, medicines, purchases, users, suppliers, (System.nanoTime() - t0) / 1_000_000);
+    }
+
+    public static String medicineName(int i) {
+        return "Med-" + i;
+    }
+
+    public static String username(int i) {
+        return "user-" + i;
+    }
+
+    public static String password(int i) {
+        return "pass-" + (i % PASSWORDS);
+    }
+
+    public static void generate(Path dir, int medicines, int purchases, int users, int suppliers) throws IOException {
+        // Plenty of stock, so a benchmark can keep selling
+        generate(dir, medicines, purchases, users, suppliers, 1_000_000_000);
+    }
+
+    /**
+     * @param stock units in stock of every medicine
+     */
+    public static void generate(Path dir, int medicines, int purchases, int users, int suppliers, int stock) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(42);
+        long expiry = LocalDate.now().plusYears(2).toEpochDay();
+
+        try (BufferedWriter w = writer(dir, "medicines.txt")) {
+            for (int i = 0; i < medicines; i++) {
+                w.write(new Medicine(i + 1, medicineName(i), stock, 1 + random.nextInt(200) / 4.0, expiry).toString());
+                w.newLine();
+            }
+        }
+
+        LocalDateTime time = LocalDateTime.now().withNano(0).minusSeconds(40L * purchases);
+        try (BufferedWriter w = writer(dir, "purchases.txt")) {
+            int written = 0;
+            while (written < purchases) {
+                int lines = Math.min(1 + random.nextInt(4), purchases - written);
+                for (int l = 0; l < lines; l++) {
+                    w.write(new Purchase(medicineName(random.nextInt(Math.max(1, medicines))), 1 + random.nextInt(5),
+                            1 + random.nextInt(200) / 4.0, time).toString());
+                    w.newLine();
+                }
+                written += lines;
+                time = time.plusSeconds(40L * lines);
+            }
+        }
+
+        String[] hashes = new String[Math.min(users, PASSWORDS)];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = PasswordHasher.hash(password(i));
+        }
+        try (BufferedWriter w = writer(dir, "users.txt")) {
+            w.write(new Account(1, "admin", PasswordHasher.hash("admin"), "Admin").toString());
+            w.newLine();
+            for (int i = 0; i < users; i++) {
+                w.write(new Account(i + 2, username(i), hashes[i % hashes.length], ROLES[i % ROLES.length]).toString());
+                w.newLine();
+            }
+        }
+
+        try (BufferedWriter w = writer(dir, "suppliers.txt")) {
+            for (int i = 0; i < suppliers; i++) {
+                StringBuilder supplied = new StringBuilder();
+                for (int m = 0; m < 5 && medicines > 0; m++) {
+                    supplied.append(m == 0 ? "" : ", ").append(medicineName(random.nextInt(medicines)));
+                }
+                w.write(new Supplier(i + 1, "Supplier " + i, "555-" + (1000 + i % 9000), "Street " + i, supplied.toString()).toString());
+                w.newLine();
+            }
+        }
+    }
+
+    private static BufferedWriter writer(Path dir, String name) throws IOException {
+        return Files.newBufferedWriter(dir.resolve(name), StandardCharsets.UTF_8);
+    }
+}
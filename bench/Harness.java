@@ -0,0 +1,154 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.LongSupplier;
+
+/**
+ * A small stand-in for JMH: warmup iterations, then measured iterations of a fixed length,
+ * reported as operations per second with a 99.9% confidence error. Every result of the
+ * operation is folded into {@link #sink} so the JIT cannot drop the work.
+ * Benchmarks that need a data set run in a fresh JVM started in its directory, see {@link #fork}.
+ */
+public final class Harness {
+    // Student's t for a two-sided 99.9% interval, by degrees of freedom 1..30 (3.29 beyond)
+    private static final double[] T = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59,
+            4.44, 4.32, 4.22, 4.14, 4.07, 4.01, 3.97, 3.92, 3.88, 3.85,
+            3.82, 3.79, 3.77, 3.75, 3.73, 3.71, 3.69, 3.67, 3.66, 3.65};
+
+    public static volatile long sink;
+
+    /**
+     * Throughput of one benchmark on one data set
+     */
+    public static final class Result {
+        final String name;
+        final long size;
+        final double score;
+        final double error;
+
+        Result(String name, long size, double score, double error) {
+            this.name = name;
+            this.size = size;
+            this.score = score;
+            this.error = error;
+        }
+
+        /**
+         * Tab-separated: name, size, ops/s, error
+         */
+        String format() {
+            return name + "\t" + size + "\t" + String.format("%.3f", score) + "\t" + String.format("%.3f", error);
+        }
+
+        static Result parse(String line) {
+            String[] f = line.split("\t");
+            return new Result(f[0], Long.parseLong(f[1]), Double.parseDouble(f[2]), Double.parseDouble(f[3]));
+        }
+    }
+
+    private Harness() {
+    }
+
+    public static Result throughput(String name, long size, int warmups, int iterations, long iterationMillis, LongSupplier op) {
+        return throughput(name, size, warmups, iterations, iterationMillis, () -> {}, op);
+    }
+
+    /**
+     * @param setup runs before every iteration, untimed, e.g. to put back a file the operation grows;
+     *              a full GC follows it, so one iteration's garbage is not collected in the next one
+     */
+    public static Result throughput(String name, long size, int warmups, int iterations, long iterationMillis,
+                                    Runnable setup, LongSupplier op) {
+        for (int i = 0; i < warmups; i++) {
+            prepare(setup);
+            iteration(iterationMillis, op);
+        }
+        double[] scores = new double[iterations];
+        double mean = 0;
+        for (int i = 0; i < iterations; i++) {
+            prepare(setup);
+            scores[i] = iteration(iterationMillis, op);
+            mean += scores[i];
+        }
+        mean /= iterations;
+        double variance = 0;
+        for (double s : scores) {
+            variance += (s - mean) * (s - mean);
+        }
+        double error = 0;
+        if (iterations > 1) {
+            double t = iterations - 1 <= T.length ? T[iterations - 2] : 3.29;
+            error = t * Math.sqrt(variance / (iterations - 1)) / Math.sqrt(iterations);
+        }
+        return new Result(name, size, mean, error);
+    }
+
+    private static void prepare(Runnable setup) {
+        setup.run();
+        System.gc();
+    }
+
+    // Calls the operation in growing batches until the time is up, so reading the clock costs next to nothing
+    private static double iteration(long millis, LongSupplier op) {
+        long deadline = millis * 1_000_000;
+        long start = System.nanoTime();
+        long ops = 0;
+        long batch = 1;
+        long sum = 0;
+        long elapsed;
+        do {
+            for (long i = 0; i < batch; i++) {
+                sum += op.getAsLong();
+            }
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+            if (elapsed < deadline / 100) {
+                batch *= 2;
+            }
+        } while (elapsed < deadline);
+        sink += sum;
+        return ops * 1e9 / elapsed;
+    }
+
+    /**
+     * A JVM running {@code main} with these arguments in {@code dir}, with the same class path,
+     * a heap of -Dbench.heap (default 3g) and this JVM's -Dpharmacy.* settings
+     */
+    public static ProcessBuilder fork(Path dir, Class<?> main, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + System.getProperty("bench.heap", "3g"));
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("pharmacy.")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        // The child runs in another directory, so relative class path entries are resolved here
+        StringJoiner classPath = new StringJoiner(File.pathSeparator);
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(Paths.get(entry).toAbsolutePath().toString());
+        }
+        command.add("-cp");
+        command.add(classPath.toString());
+        command.add(main.getName());
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).directory(dir.toFile());
+    }
+
+    /**
+     * Delete a directory and everything in it
+     */
+    public static void deleteAll(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import utils.InventoryStore;
+import utils.MedicineImporter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Bulk CSV import throughput for files of growing size. Each file has about one row in ten
+ * repeating an earlier name, and one in a hundred invalid.
+ * The import writes to the catalog in the working directory, so run it from an empty one.
+ * Usage: java bench.ImportBenchmark [rows...]
+ */
+public class ImportBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 100_000, 1_000_000};
+
+        Path file = Files.createTempFile("import", ".csv");
+        file.toFile().deleteOnExit();
+        InventoryStore.load();
+        for (int round = 0; round < sizes.length; round++) {
+            generate(file, sizes[round], "m" + round + "-");
+            MedicineImporter.Report report = MedicineImporter.importCsv(file);
+            System.out.printf("%,10d rows: %,7d ms  %,10.0f rows/s  added %,d  merged %,d  rejected %,d  catalog %,d%n",
+                    report.getRows(), report.getElapsedMillis(), report.getRowsPerSecond(),
+                    report.getAdded(), report.getMerged(), report.getRejected(), InventoryStore.size());
+        }
+        InventoryStore.flush();
+    }
+
+    private static void generate(Path file, int rows, String prefix) throws IOException {
+        Random random = new Random(rows);
+        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            bw.write("name,quantity,price,expiry\n");
+            for (int i = 0; i < rows; i++) {
+                String name = prefix + (i % 10 == 9 ? random.nextInt(i) : i);
+                if (i % 100 == 42) {
+                    bw.write(name + ",lots,1.0,2027-01-01\n");
+                    continue;
+                }
+                bw.write(String.format(Locale.ROOT, "%s,%d,%.2f,2027-%02d-%02d%n",
+                        name, random.nextInt(500), 1 + random.nextDouble() * 99, 1 + random.nextInt(12), 1 + random.nextInt(28)));
+            }
+        }
+    }
+}
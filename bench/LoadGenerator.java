@@ -0,0 +1,281 @@
+package bench;
+
+import models.Medicine;
+import models.SaleResult;
+import utils.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulated pharmacy terminals selling and logging in at the same time, through the same calls
+ * the dashboards make (PurchaseManager.recordPurchase, UserManager.checkCredentials).
+ * Each stage runs a number of terminals for a while; every terminal thinks for a random time
+ * (exponential around the mean), then sells 1 to 3 units of a medicine picked with Zipf skew
+ * (medicine 0 sells most), or now and then logs in again. A stage is marked SATURATED when the
+ * sale p99 passes the limit or anything failed.
+ * At the end the stock is checked twice: in the running process, and after a restart from the
+ * files. Both times every medicine must hold exactly its initial stock minus what the ledger says
+ * was sold, and the ledger must hold exactly the sales that were confirmed. The exit code is 1 if not.
+ *
+ * Usage: java [-Dpharmacy.hash.iterations=N] bench.LoadGenerator [terminals] [options]
+ *   terminals       terminals per stage, e.g. 50,100,200,400 (the default)
+ *   --seconds N     length of each stage (default 20)
+ *   --think N       mean think time between actions in ms (default 50)
+ *   --zipf S        skew of medicine popularity, 0 for uniform (default 1.0)
+ *   --medicines N   catalog size (default 2000)
+ *   --stock N       initial units of every medicine (default 5000)
+ *   --logins P      percent of actions that are logins (default 2)
+ *   --p99 N         sale p99 in ms above which a stage is saturated (default 250)
+ * Runs on platform threads, one per terminal.
+ */
+public class LoadGenerator {
+    private static final String INITIAL_STOCK = "initial-stock.txt";
+
+    private static class Options {
+        int[] terminals = {50, 100, 200, 400};
+        int seconds = 20;
+        double think = 50;
+        double zipf = 1.0;
+        int medicines = 2000;
+        int stock = 5000;
+        double logins = 2;
+        double p99 = 250;
+
+        Options(String[] args) {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                    case "--think": think = Double.parseDouble(args[++i]); break;
+                    case "--zipf": zipf = Double.parseDouble(args[++i]); break;
+                    case "--medicines": medicines = Integer.parseInt(args[++i]); break;
+                    case "--stock": stock = Integer.parseInt(args[++i]); break;
+                    case "--logins": logins = Double.parseDouble(args[++i]); break;
+                    case "--p99": p99 = Double.parseDouble(args[++i]); break;
+                    default: terminals = Arrays.stream(args[i].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+                }
+            }
+        }
+
+        int maxTerminals() {
+            return Arrays.stream(terminals).max().orElse(1);
+        }
+    }
+
+    /**
+     * What happened during one stage
+     */
+    private static class Stage {
+        final Metrics.Timer sales = new Metrics.Timer();
+        final Metrics.Timer logins = new Metrics.Timer();
+        final LongAdder outOfStock = new LongAdder();
+        final LongAdder loginFailures = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    // Every confirmed sale, over all stages
+    private static final LongAdder confirmedLines = new LongAdder();
+    private static final LongAdder confirmedUnits = new LongAdder();
+    private static final AtomicBoolean errorShown = new AtomicBoolean();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--run")) {
+            System.exit(run(new Options(Arrays.copyOfRange(args, 1, args.length))) ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--verify")) {
+            System.exit(verify() ? 0 : 1);
+        }
+
+        // Both steps run in a fresh directory, and the second one starts from the files like a restart
+        Path dir = Files.createTempDirectory("pharmacy-load-");
+        try {
+            String[] runArgs = new String[args.length + 1];
+            runArgs[0] = "--run";
+            System.arraycopy(args, 0, runArgs, 1, args.length);
+            int ran = Harness.fork(dir, LoadGenerator.class, runArgs).inheritIO().start().waitFor();
+            int verified = Harness.fork(dir, LoadGenerator.class, "--verify").inheritIO().start().waitFor();
+            System.exit(ran == 0 && verified == 0 ? 0 : 1);
+        } finally {
+            Harness.deleteAll(dir);
+        }
+    }
+
+    private static boolean run(Options o) throws Exception {
+        DataGenerator.generate(Paths.get("."), o.medicines, 0, o.maxTerminals(), 0, o.stock);
+        UserManager.bootstrap();
+        InventoryStore.load();
+        SupplierStore.load();
+        SalesAggregates.load();
+        SalesQuery.load();
+        DemandForecaster.load();
+        ExpiryMonitor.start();
+        ReorderEngine.start();
+
+        Map<String, Integer> initial = new HashMap<>();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(INITIAL_STOCK), StandardCharsets.UTF_8))) {
+            for (Medicine m : InventoryStore.getAll()) {
+                initial.put(m.getName(), m.getQuantity());
+                out.println(m.getName() + "," + m.getQuantity());
+            }
+        }
+
+        // Medicine i has popularity 1 / (i + 1)^s
+        String[] names = new String[o.medicines];
+        double[] prices = new double[o.medicines];
+        double[] cumulative = new double[o.medicines];
+        double sum = 0;
+        for (int i = 0; i < o.medicines; i++) {
+            Medicine m = InventoryStore.find(DataGenerator.medicineName(i));
+            names[i] = m.getName();
+            prices[i] = m.getPrice();
+            sum += 1 / Math.pow(i + 1, o.zipf);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < o.medicines; i++) {
+            cumulative[i] /= sum;
+        }
+
+        System.out.printf("%,d medicines x %,d units, Zipf s=%.2f (top medicine %.1f%% of sales), think %.0f ms, %.0f%% logins, %d s per stage, PBKDF2 %,d iterations%n",
+                o.medicines, o.stock, o.zipf, cumulative[0] * 100, o.think, o.logins, o.seconds, PasswordHasher.ITERATIONS);
+        System.out.printf("%9s %10s %10s %9s %9s %9s %9s %9s %9s %12s %7s%n", "terminals", "actions/s", "sales/s",
+                "sale p50", "p99", "p99.9", "max", "login p50", "p99", "out of stock", "errors");
+
+        for (int terminals : o.terminals) {
+            Stage stage = new Stage();
+            ExecutorService pool = Executors.newFixedThreadPool(terminals);
+            long start = System.nanoTime();
+            long deadline = start + o.seconds * 1_000_000_000L;
+            for (int t = 0; t < terminals; t++) {
+                int terminal = t;
+                pool.execute(() -> terminal(terminal, o, stage, deadline, names, prices, cumulative));
+            }
+            pool.shutdown();
+            pool.awaitTermination(o.seconds + 600L, TimeUnit.SECONDS);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long actions = stage.sales.getCount() + stage.logins.getCount();
+            boolean saturated = stage.sales.percentileNanos(0.99) / 1e6 > o.p99 || stage.errors.sum() > 0 || stage.loginFailures.sum() > 0;
+            System.out.printf("%9d %10.0f %10.0f %9.2f %9.2f %9.2f %9.2f %9.1f %9.1f %12d %7d%s%n", terminals,
+                    actions / seconds, stage.sales.getCount() / seconds, ms(stage.sales.percentileNanos(0.5)),
+                    ms(stage.sales.percentileNanos(0.99)), ms(stage.sales.percentileNanos(0.999)), ms(stage.sales.getMaxNanos()),
+                    ms(stage.logins.percentileNanos(0.5)), ms(stage.logins.percentileNanos(0.99)),
+                    stage.outOfStock.sum(), stage.errors.sum() + stage.loginFailures.sum(), saturated ? "  SATURATED" : "");
+        }
+        InventoryStore.flush();
+
+        Map<String, Integer> current = new HashMap<>();
+        for (Medicine m : InventoryStore.getAll()) {
+            current.put(m.getName(), m.getQuantity());
+        }
+        return check("in memory", initial, current);
+    }
+
+    private static void terminal(int id, Options o, Stage stage, long deadline, String[] names, double[] prices, double[] cumulative) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            try {
+                if (o.think > 0) {
+                    Thread.sleep((long) (-o.think * Math.log(1 - random.nextDouble())));
+                }
+                if (random.nextDouble() * 100 < o.logins) {
+                    long start = System.nanoTime();
+                    String role = UserManager.checkCredentials(DataGenerator.username(id), DataGenerator.password(id));
+                    stage.logins.recordSince(start);
+                    if (role == null) {
+                        stage.loginFailures.increment();
+                    }
+                } else {
+                    int i = Arrays.binarySearch(cumulative, random.nextDouble());
+                    i = Math.min(i < 0 ? -i - 1 : i, names.length - 1);
+                    int quantity = 1 + random.nextInt(3);
+                    long start = System.nanoTime();
+                    SaleResult result = PurchaseManager.recordPurchase(names[i], quantity, prices[i]);
+                    stage.sales.recordSince(start);
+                    if (result.isSuccess()) {
+                        confirmedLines.increment();
+                        confirmedUnits.add(quantity);
+                    } else if (result.getStatus() == SaleResult.Status.INSUFFICIENT_STOCK) {
+                        stage.outOfStock.increment();
+                    } else {
+                        stage.errors.increment();
+                        showError(result.getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                stage.errors.increment();
+                showError(e.toString());
+            }
+        }
+    }
+
+    // After a restart: the stock read back from the files must match the ledger too
+    private static boolean verify() throws IOException {
+        Map<String, Integer> initial = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get(INITIAL_STOCK), StandardCharsets.UTF_8)) {
+            int comma = line.lastIndexOf(',');
+            initial.put(line.substring(0, comma), Integer.parseInt(line.substring(comma + 1)));
+        }
+        InventoryStore.load();
+        Map<String, Integer> current = new HashMap<>();
+        for (Medicine m : InventoryStore.getAll()) {
+            current.put(m.getName(), m.getQuantity());
+        }
+        return check("after restart", initial, current);
+    }
+
+    private static boolean check(String when, Map<String, Integer> initial, Map<String, Integer> current) {
+        Map<String, Long> sold = new HashMap<>();
+        long[] ledger = new long[2]; // lines, units
+        LedgerScanner.scan(PurchaseManager.getLedgerFile(), row -> {
+            sold.merge(row.getMedicineName(), (long) row.getQuantity(), Long::sum);
+            ledger[0]++;
+            ledger[1] += row.getQuantity();
+            return true;
+        });
+
+        List<String> problems = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : initial.entrySet()) {
+            long expected = e.getValue() - sold.getOrDefault(e.getKey(), 0L);
+            Integer actual = current.get(e.getKey());
+            if (actual == null || actual != expected || actual < 0) {
+                problems.add(e.getKey() + ": stock " + actual + ", expected " + expected);
+            }
+        }
+        for (String name : sold.keySet()) {
+            if (!initial.containsKey(name)) {
+                problems.add(name + ": sold but never in stock");
+            }
+        }
+        // Only the running process knows which sales were confirmed
+        if (when.equals("in memory") && (ledger[0] != confirmedLines.sum() || ledger[1] != confirmedUnits.sum())) {
+            problems.add("ledger has " + ledger[0] + " sales of " + ledger[1] + " units, confirmed were "
+                    + confirmedLines.sum() + " sales of " + confirmedUnits.sum() + " units");
+        }
+
+        if (problems.isEmpty()) {
+            System.out.printf("Stock check %s: OK (%,d medicines, %,d sales, %,d units sold)%n", when, initial.size(), ledger[0], ledger[1]);
+            return true;
+        }
+        System.out.printf("Stock check %s: FAILED, %,d problems%n", when, problems.size());
+        problems.stream().limit(20).forEach(p -> System.out.println("  " + p));
+        return false;
+    }
+
+    private static void showError(String message) {
+        if (errorShown.compareAndSet(false, true)) {
+            System.out.println("First error: " + message);
+        }
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
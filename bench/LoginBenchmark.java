@@ -0,0 +1,87 @@
+package bench;
+
+import utils.PasswordHasher;
+import utils.UserManager;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Login latency against user directories of growing size.
+ * Every generated account shares one precomputed hash (hashing a million passwords would
+ * take hours), which does not change the cost of a lookup or of a verification.
+ * Usage: java [-Dpharmacy.hash.iterations=N] bench.LoginBenchmark [logins] [users...]
+ */
+public class LoginBenchmark {
+    private static final String PASSWORD = "secret";
+
+    public static void main(String[] args) throws IOException {
+        int logins = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int[] sizes = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 100_000, 1_000_000};
+
+        Path file = Files.createTempFile("users", ".txt");
+        file.toFile().deleteOnExit();
+        System.setProperty("pharmacy.users.file", file.toString());
+
+        String hash = PasswordHasher.hash(PASSWORD);
+        long[] verify = new long[logins];
+        for (int i = 0; i < logins; i++) {
+            long t0 = System.nanoTime();
+            PasswordHasher.verify(PASSWORD, hash);
+            verify[i] = System.nanoTime() - t0;
+        }
+        System.out.printf("PBKDF2 %,d iterations: verify p50 %s%n", PasswordHasher.ITERATIONS, ms(percentile(verify, 50)));
+
+        Random random = new Random(42);
+        for (int users : sizes) {
+            generate(file, users, hash);
+
+            // The first call notices the new file and loads it
+            long t0 = System.nanoTime();
+            UserManager.checkCredentials("user0", PASSWORD);
+            long load = System.nanoTime() - t0;
+
+            long[] ok = new long[logins];
+            long[] unknown = new long[logins];
+            for (int i = 0; i < logins; i++) {
+                String user = "user" + random.nextInt(users);
+                long t1 = System.nanoTime();
+                if (UserManager.checkCredentials(user, PASSWORD) == null) {
+                    throw new IllegalStateException("Login failed for " + user);
+                }
+                long t2 = System.nanoTime();
+                UserManager.checkCredentials("nobody" + i, PASSWORD);
+                long t3 = System.nanoTime();
+                ok[i] = t2 - t1;
+                unknown[i] = t3 - t2;
+            }
+            System.out.printf("%,9d users: load %s | login p50 %s p99 %s | unknown user p50 %s p99 %s%n",
+                    users, ms(load), ms(percentile(ok, 50)), ms(percentile(ok, 99)),
+                    ms(percentile(unknown, 50)), ms(percentile(unknown, 99)));
+        }
+    }
+
+    private static void generate(Path file, int users, String hash) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("1,admin," + hash + ",Admin");
+            writer.newLine();
+            for (int i = 0; i < users; i++) {
+                writer.write((i + 2) + ",user" + i + "," + hash + ",Customer");
+                writer.newLine();
+            }
+        }
+    }
+
+    private static long percentile(long[] samples, int p) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)];
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,286 @@
+package bench;
+
+import models.Medicine;
+import models.Purchase;
+import utils.*;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Throughput of the persistence and reporting paths the dashboards use, on generated data sets
+ * (see {@link DataGenerator}) with 1k to 10M ledger rows. Every benchmark runs in a fresh JVM started
+ * in the data set's directory, so the stores load exactly as the app loads them and no benchmark
+ * inherits the garbage or background work of another. Every iteration starts from the generated
+ * ledger: recordPurchase cuts it back to its generated length before each one. A benchmark whose
+ * error comes out above 10% of its score is run again in a new JVM, up to twice, and the tightest
+ * run is kept. With --save the results are written to a baseline file, leaving out any still that
+ * noisy (too noisy to compare against); with --compare they are checked against one and
+ * the exit code is 1 if any benchmark got more than 25% slower even at the top of its error bound.
+ * Usage: java [-Dbench.heap=3g] bench.PersistenceBenchmark [sizes] [--save file | --compare file]
+ * e.g. java -cp out bench.PersistenceBenchmark 1000,100000,1000000 --compare bench/baselines.txt
+ */
+public class PersistenceBenchmark {
+    private static final int WARMUPS = 5;
+    private static final int ITERATIONS = 30;
+    // Run in this order; recordPurchase changes the data set, so it goes last
+    private static final List<String> BENCHMARKS = List.of("Purchase.fromString", "FileManager.loadMedicines",
+            "MedicineManager.medicineExists", "SupplierManager.loadSuppliers", "PurchaseManager.getTotalRevenue",
+            "PurchaseManager.loadAllPurchases", "UserManager.checkCredentials", "PurchaseManager.recordPurchase");
+    private static final long ITERATION_MILLIS = 1000;
+    private static final double TOLERANCE = 0.25;
+    private static final double MAX_BASELINE_ERROR = 0.10;
+    private static final int ATTEMPTS = 3;
+
+    // Startup load times reported by the child JVMs, kept in the baseline file as comments
+    private static final List<String> loadTimes = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--fork")) {
+            runForked(Integer.parseInt(args[1]), args[2]);
+            return;
+        }
+        String sizes = "1000,100000,1000000";
+        String save = null;
+        String compare = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--save")) {
+                save = args[++i];
+            } else if (args[i].equals("--compare")) {
+                compare = args[++i];
+            } else {
+                sizes = args[i];
+            }
+        }
+
+        List<Harness.Result> results = new ArrayList<>();
+        for (String size : sizes.split(",")) {
+            results.addAll(fork(Integer.parseInt(size.trim())));
+        }
+
+        if (save != null) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(save), StandardCharsets.UTF_8))) {
+                out.println("# name\tsize\tops/s\terror (99.9%)");
+                out.println("# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version")
+                        + ", " + Runtime.getRuntime().availableProcessors() + " cores, -Xmx" + System.getProperty("bench.heap", "3g"));
+                for (String times : loadTimes) {
+                    out.println("# " + times);
+                }
+                for (Harness.Result r : results) {
+                    if (r.error > r.score * MAX_BASELINE_ERROR) {
+                        System.out.printf("%-36s %,10d  not saved, error is %.0f%% of the score%n",
+                                r.name, r.size, r.error * 100 / r.score);
+                        out.println("# too noisy: " + r.format());
+                    } else {
+                        out.println(r.format());
+                    }
+                }
+            }
+            System.out.println("Baseline saved to " + save);
+        }
+        if (compare != null && !compare(results, Paths.get(compare))) {
+            System.exit(1);
+        }
+    }
+
+    // Generate the data set and run each benchmark on it in a child JVM of its own
+    private static List<Harness.Result> fork(int size) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("pharmacy-bench-" + size + "-");
+        try {
+            long t0 = System.nanoTime();
+            DataGenerator.generate(dir, Math.min(size, 100_000), size, Math.min(size, 100_000), Math.min(size, 10_000));
+            System.out.printf("%n=== %,d rows (generated in %,d ms) ===%n", size, (System.nanoTime() - t0) / 1_000_000);
+
+            List<Harness.Result> results = new ArrayList<>();
+            for (String benchmark : BENCHMARKS) {
+                Harness.Result best = null;
+                for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+                    // The first start loads the generated files as they are, later ones are alike
+                    Harness.Result r = runChild(dir, size, benchmark, attempt == 0 && benchmark.equals(BENCHMARKS.get(0)));
+                    if (r == null) {
+                        break;
+                    }
+                    if (best == null || r.error / r.score < best.error / best.score) {
+                        best = r;
+                    }
+                    if (best.error <= best.score * MAX_BASELINE_ERROR) {
+                        break;
+                    }
+                    if (attempt + 1 < ATTEMPTS) {
+                        System.out.printf("%s: error is %.0f%% of the score, running it again%n", benchmark, 100 * r.error / r.score);
+                    }
+                }
+                if (best != null) {
+                    results.add(best);
+                }
+            }
+            return results;
+        } finally {
+            Harness.deleteAll(dir);
+        }
+    }
+
+    /**
+     * Run one benchmark in a child JVM started in the data set's directory
+     * @return its result, or null if it gave none
+     */
+    private static Harness.Result runChild(Path dir, int size, String benchmark, boolean recordLoad)
+            throws IOException, InterruptedException {
+        Process child = Harness.fork(dir, PersistenceBenchmark.class, "--fork", String.valueOf(size), benchmark)
+                .redirectErrorStream(true).start();
+        Harness.Result result = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("RESULT\t")) {
+                    result = Harness.Result.parse(line.substring(7));
+                    System.out.printf("%-36s %,16.1f ops/s  +- %,.1f%n", result.name, result.score, result.error);
+                } else if (line.startsWith("load: ")) {
+                    if (recordLoad) {
+                        loadTimes.add(String.format("%,d rows ", size) + line);
+                        System.out.println(line);
+                    }
+                } else {
+                    System.out.println(line);
+                }
+            }
+        }
+        if (child.waitFor() != 0) {
+            System.out.println("Error: the " + benchmark + " JVM for " + size + " rows exited with " + child.exitValue());
+        }
+        return result;
+    }
+
+    private static void runForked(int size, String benchmark) throws IOException {
+        long t0 = System.nanoTime();
+        InventoryStore.load();
+        long t1 = System.nanoTime();
+        SupplierStore.load();
+        long t2 = System.nanoTime();
+        SalesAggregates.load();
+        long t3 = System.nanoTime();
+        System.out.printf("load: inventory %,d ms, suppliers %,d ms, sales aggregates %,d ms%n",
+                (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000, (t3 - t2) / 1_000_000);
+
+        int medicines = InventoryStore.getAll().size();
+        String[] lines = sampleLedgerLines(4096);
+        String[] names = new String[4096];
+        Random random = new Random(42);
+        for (int i = 0; i < names.length; i++) {
+            // Half of the lookups hit, half miss
+            names[i] = i % 2 == 0 ? DataGenerator.medicineName(random.nextInt(medicines)) : "Missing-" + i;
+        }
+        int users = Math.min(size, 100_000);
+        int[] next = new int[1];
+        // Loading may leave compactions behind, which must not run during the measurement
+        Journal.awaitBackground();
+        Path ledger = Paths.get(PurchaseManager.getLedgerFile());
+        long ledgerLength = Files.size(ledger);
+
+        switch (benchmark) {
+            case "Purchase.fromString" -> run(benchmark, size, () -> {
+                Purchase p = Purchase.fromString(lines[next[0]++ & (lines.length - 1)]);
+                return p == null ? 0 : p.getQuantity();
+            });
+            case "FileManager.loadMedicines" -> run(benchmark, size, () -> FileManager.loadMedicines().size());
+            case "MedicineManager.medicineExists" -> run(benchmark, size,
+                    () -> MedicineManager.medicineExists(names[next[0]++ & (names.length - 1)]) ? 1 : 0);
+            case "SupplierManager.loadSuppliers" -> run(benchmark, size, () -> SupplierManager.loadSuppliers().size());
+            case "PurchaseManager.getTotalRevenue" -> run(benchmark, size, () -> (long) PurchaseManager.getTotalRevenue());
+            case "PurchaseManager.loadAllPurchases" -> run(benchmark, size, () -> PurchaseManager.loadAllPurchases().size());
+            case "UserManager.checkCredentials" -> run(benchmark, size, () -> {
+                int i = next[0]++ % users;
+                if (UserManager.checkCredentials(DataGenerator.username(i), DataGenerator.password(i)) == null) {
+                    throw new IllegalStateException("Login failed for " + DataGenerator.username(i));
+                }
+                return 1;
+            });
+            case "PurchaseManager.recordPurchase" -> {
+                // Every iteration appends to the generated ledger, not to what the previous ones added
+                Runnable resetLedger = () -> {
+                    InventoryStore.flush();
+                    try (FileChannel channel = FileChannel.open(ledger, StandardOpenOption.WRITE)) {
+                        channel.truncate(ledgerLength);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    Journal.awaitBackground();
+                };
+                run(benchmark, size, resetLedger, () -> {
+                    Medicine m = InventoryStore.find(DataGenerator.medicineName(next[0]++ % medicines));
+                    if (!PurchaseManager.recordPurchase(m.getName(), 1, m.getPrice()).isSuccess()) {
+                        throw new IllegalStateException("Sale of " + m.getName() + " was rejected");
+                    }
+                    return 1;
+                });
+                resetLedger.run();
+            }
+            default -> throw new IllegalArgumentException("Unknown benchmark " + benchmark);
+        }
+        InventoryStore.flush();
+    }
+
+    private static void run(String name, int size, LongSupplier op) {
+        run(name, size, () -> {}, op);
+    }
+
+    private static void run(String name, int size, Runnable setup, LongSupplier op) {
+        Harness.Result result;
+        try {
+            result = Harness.throughput(name, size, WARMUPS, ITERATIONS, ITERATION_MILLIS, setup, op);
+        } catch (OutOfMemoryError e) {
+            System.out.println(name + ": out of memory at " + size + " rows, skipped");
+            return;
+        }
+        System.out.println("RESULT\t" + result.format());
+    }
+
+    // The first lines of the ledger, repeated if it is short; a power of two in length
+    private static String[] sampleLedgerLines(int count) {
+        List<String> read = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(PurchaseManager.getLedgerFile()), StandardCharsets.UTF_8)) {
+            String line;
+            while (read.size() < count && (line = in.readLine()) != null) {
+                read.add(line);
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading ledger: " + e.getMessage());
+        }
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = read.get(i % read.size());
+        }
+        return lines;
+    }
+
+    private static boolean compare(List<Harness.Result> results, Path baselineFile) throws IOException {
+        Map<String, Harness.Result> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(baselineFile, StandardCharsets.UTF_8)) {
+            if (!line.isBlank() && !line.startsWith("#")) {
+                Harness.Result r = Harness.Result.parse(line);
+                baseline.put(r.name + "@" + r.size, r);
+            }
+        }
+        System.out.printf("%n=== Compared with %s ===%n", baselineFile);
+        boolean ok = true;
+        for (Harness.Result r : results) {
+            Harness.Result base = baseline.get(r.name + "@" + r.size);
+            if (base == null) {
+                System.out.printf("%-36s %,10d  no baseline%n", r.name, r.size);
+                continue;
+            }
+            double change = (r.score - base.score) / base.score;
+            // Baselines are kept only when their error is small, so the baseline score is taken as it is;
+            // the run still counts as slower at the top of its own error bar, so its noise does not fail it
+            boolean regressed = r.score + r.error < base.score * (1 - TOLERANCE);
+            System.out.printf("%-36s %,10d  %+7.1f%%%s%n", r.name, r.size, change * 100, regressed ? "  REGRESSION" : "");
+            ok &= !regressed;
+        }
+        System.out.println(ok ? "No regressions" : "Regressions found");
+        return ok;
+    }
+}
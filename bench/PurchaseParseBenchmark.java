@@ -0,0 +1,89 @@
+package bench;
+
+import models.Purchase;
+import utils.LedgerScanner;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+
+/**
+ * Compares the BufferedReader + Purchase.fromString path with the memory-mapped
+ * LedgerScanner on a generated ledger.
+ * Usage: java bench.PurchaseParseBenchmark [rows]
+ */
+public class PurchaseParseBenchmark {
+    private static final String[] NAMES = {"Panadol", "Betadin", "Augmentin", "Brufen", "Cataflam", "Zyrtec", "Nexium", "Concor"};
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path file = Files.createTempFile("purchases", ".txt");
+        file.toFile().deleteOnExit();
+        generate(file, rows);
+        System.out.printf("Ledger: %,d rows, %,d bytes%n", rows, Files.size(file));
+
+        for (int round = 1; round <= 5; round++) {
+            long t0 = System.nanoTime();
+            double readerSum = readerPath(file);
+            long t1 = System.nanoTime();
+            double mappedSum = mappedPath(file.toString());
+            long t2 = System.nanoTime();
+            double mappedMaterialized = mappedMaterializedPath(file.toString());
+            long t3 = System.nanoTime();
+            if (Math.abs(readerSum - mappedSum) > 1e-6 * Math.abs(readerSum) || Math.abs(readerSum - mappedMaterialized) > 1e-6 * Math.abs(readerSum)) {
+                throw new IllegalStateException("Paths disagree: " + readerSum + " vs " + mappedSum + " vs " + mappedMaterialized);
+            }
+            System.out.printf("round %d: reader+fromString %,8.0f rows/ms | mapped views %,8.0f rows/ms | mapped+toPurchase %,8.0f rows/ms%n",
+                    round, rate(rows, t1 - t0), rate(rows, t2 - t1), rate(rows, t3 - t2));
+        }
+    }
+
+    static void generate(Path file, int rows) throws IOException {
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 8, 0);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < rows; i++) {
+                String name = NAMES[i % NAMES.length];
+                int qty = 1 + i % 7;
+                double price = 5 + (i % 40) * 2.5;
+                writer.write(new Purchase(name, qty, price, time).toString());
+                writer.newLine();
+                time = time.plusSeconds(37);
+            }
+        }
+    }
+
+    private static double readerPath(Path file) throws IOException {
+        double sum = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Purchase p = Purchase.fromString(line);
+                sum += p.getTotal() + p.getPurchaseTime().getSecond();
+            }
+        }
+        return sum;
+    }
+
+    private static double mappedPath(String file) {
+        double[] sum = {0};
+        LedgerScanner.scan(file, row -> {
+            sum[0] += row.getTotal() + row.getEpochSecond() % 60;
+            return true;
+        });
+        return sum[0];
+    }
+
+    private static double mappedMaterializedPath(String file) {
+        double[] sum = {0};
+        LedgerScanner.scan(file, row -> {
+            Purchase p = row.toPurchase();
+            sum[0] += p.getTotal() + p.getPurchaseTime().getSecond();
+            return true;
+        });
+        return sum[0];
+    }
+
+    private static double rate(int rows, long nanos) {
+        return rows / (nanos / 1e6);
+    }
+}
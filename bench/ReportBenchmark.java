@@ -0,0 +1,85 @@
+package bench;
+
+import utils.LedgerScanner;
+import utils.SalesReport;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Sales report time on a generated ledger with 1, 2, 4, ... worker threads, checked against
+ * a plain sequential scan. Lines come in baskets of one to six lines sharing a timestamp.
+ * Usage: java bench.ReportBenchmark [rows]
+ */
+public class ReportBenchmark {
+    private static final String[] NAMES = {"Panadol", "Betadin", "Augmentin", "Brufen", "Cataflam", "Zyrtec", "Nexium", "Concor"};
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Path file = Files.createTempFile("purchases", ".txt");
+        file.toFile().deleteOnExit();
+        long baskets = generate(file, rows);
+        System.out.printf("Ledger: %,d rows, %,d baskets, %,d bytes%n", rows, baskets, Files.size(file));
+
+        long t0 = System.nanoTime();
+        double[] revenue = new double[1];
+        long[] units = new long[1];
+        LedgerScanner.scan(file.toString(), row -> {
+            revenue[0] += row.getTotal();
+            units[0] += row.getQuantity();
+            return true;
+        });
+        System.out.printf("sequential scan (totals only): %,d ms%n", (System.nanoTime() - t0) / 1_000_000);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            SalesReport report = null;
+            for (int round = 0; round < 3; round++) {
+                report = SalesReport.build(file.toString(), 0, Long.MAX_VALUE, null, null, pool);
+                best = Math.min(best, report.getElapsedMillis());
+            }
+            pool.shutdown();
+            if (report.getTotals().getSales() != rows || report.getTotals().getUnits() != units[0]
+                    || Math.abs(report.getTotals().getRevenue() - revenue[0]) > 1e-6 * revenue[0]
+                    || report.getBasketCount() != baskets
+                    || Arrays.stream(report.getBasketSizeCounts()).sum() != baskets) {
+                throw new IllegalStateException("Report disagrees with the sequential scan");
+            }
+            System.out.printf("%2d threads: %,6d ms  %,12.0f rows/s%n", threads, best, rows * 1000.0 / Math.max(1, best));
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    // Returns the number of baskets written
+    private static long generate(Path file, int rows) throws IOException {
+        Random random = new Random(7);
+        LocalDateTime time = LocalDateTime.of(2024, 1, 1, 8, 0);
+        long baskets = 0;
+        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            int written = 0;
+            while (written < rows) {
+                time = time.plusSeconds(1 + random.nextInt(120));
+                String stamp = time.format(FORMAT);
+                int lines = Math.min(1 + random.nextInt(6), rows - written);
+                for (int i = 0; i < lines; i++) {
+                    int qty = 1 + random.nextInt(5);
+                    double price = 10 + random.nextInt(200);
+                    bw.write(NAMES[random.nextInt(NAMES.length)] + "," + qty + "," + price + "," + (price * qty) + "," + stamp + "\n");
+                }
+                written += lines;
+                baskets++;
+            }
+        }
+        return baskets;
+    }
+}
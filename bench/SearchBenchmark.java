@@ -0,0 +1,73 @@
+package bench;
+
+import utils.NameIndex;
+
+import java.util.*;
+
+/**
+ * Type-ahead search time on a generated catalog: prefix queries of every length and
+ * misspelled queries (one letter changed), checked to find the name they came from.
+ * Usage: java bench.SearchBenchmark [names] [k]
+ */
+public class SearchBenchmark {
+    private static final String[] STEMS = {"Panadol", "Betadin", "Augmentin", "Brufen", "Cataflam", "Zyrtec", "Nexium",
+            "Concor", "Voltaren", "Amoxil", "Ciprobay", "Flagyl", "Lipitor", "Glucophage", "Ventolin", "Zantac"};
+    private static final String[] FORMS = {"", " Extra", " Forte", " Syrup", " Cream", " Drops", " Plus", " Junior"};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; names.size() < count; i++) {
+            names.add(STEMS[i % STEMS.length] + FORMS[(i / STEMS.length) % FORMS.length] + " " + (100 + i));
+        }
+
+        long t0 = System.nanoTime();
+        NameIndex index = new NameIndex(names);
+        System.out.printf("Index of %,d names built in %,d ms%n", index.size(), (System.nanoTime() - t0) / 1_000_000);
+
+        String[] prefixes = new String[10_000];
+        String[] typos = new String[10_000];
+        String[] typoSources = new String[typos.length];
+        for (int i = 0; i < prefixes.length; i++) {
+            String name = names.get(random.nextInt(names.size()));
+            prefixes[i] = name.substring(0, 1 + random.nextInt(name.length()));
+            // Change one letter of the first word
+            char[] chars = name.toCharArray();
+            int at = random.nextInt(name.indexOf(' ') > 0 ? name.indexOf(' ') : name.length());
+            chars[at] = (char) ('a' + random.nextInt(26));
+            typos[i] = new String(chars);
+            typoSources[i] = name;
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long found = 0;
+            long start = System.nanoTime();
+            for (String prefix : prefixes) {
+                found += index.search(prefix, k).size();
+            }
+            long prefixNanos = System.nanoTime() - start;
+
+            int hits = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < typos.length; i++) {
+                if (index.search(typos[i], k).contains(typoSources[i])) {
+                    hits++;
+                }
+            }
+            long typoNanos = System.nanoTime() - start;
+            System.out.printf("prefix: %6.1f us/query (%,d results)   typo: %6.1f us/query, %.1f%% found%n",
+                    prefixNanos / 1000.0 / prefixes.length, found, typoNanos / 1000.0 / typos.length, hits * 100.0 / typos.length);
+        }
+        System.out.println("Banadol -> " + index.search("Banadol", 3) + ", panadl -> " + index.search("panadl", 3)
+                + ", extra -> " + index.search("extra", 3));
+
+        // A name repeating a trigram of the query must not count it more than once
+        List<String> repeated = new NameIndex(List.of("Xanananana", "Panadol")).search("ana", 5);
+        if (!repeated.contains("Xanananana")) {
+            throw new IllegalStateException("Repeated trigrams: ana -> " + repeated);
+        }
+        System.out.println("Repeated trigrams: ana -> " + repeated);
+    }
+}
@@ -2,25 +2,95 @@
 package gui;
 
 import models.Supplier;
+import utils.ExpiryMonitor;
+import utils.InventoryStore;
+import utils.MedicineImporter;
 import utils.MedicineManager;
+import utils.Metrics;
+import utils.ReorderEngine;
+import utils.SalesQuery;
+import utils.SalesReport;
 import utils.SupplierManager;
 import utils.UserManager;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.DateTimeException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class AdminDashboard extends JFrame {
+    // Keeps the Expiring Soon tab up to date, removed on logout
+    private Consumer<List<InventoryStore.ExpiringLot>> expiryListener;
+    // Keeps the Reorder tab up to date, removed on logout
+    private Runnable reorderListener;
+    // Set while the medicine table is refilled, so selecting the same medicine again leaves the form alone
+    private boolean refillingMedicines = false;
 
     private void loadUsersTable(DefaultTableModel model) {
-        model.setRowCount(0);
-        String[][] users = UserManager.getAllUsers();
-        for (String[] user : users) {
-            model.addRow(user);
+        UiTask.run(this, UiTask.controls(), UserManager::getAllUsers, users -> {
+            model.setRowCount(0);
+            for (String[] user : users) {
+                model.addRow(user);
+            }
+        });
+    }
+
+    // Model row of the record with this ID (tables keep the ID in a hidden first column), or -1
+    private static int rowOf(DefaultTableModel model, long id) {
+        String key = String.valueOf(id);
+        for (int row = 0; row < model.getRowCount(); row++) {
+            if (key.equals(model.getValueAt(row, 0))) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private static long idAt(DefaultTableModel model, int row) {
+        return Long.parseLong(model.getValueAt(row, 0).toString());
+    }
+
+    // Show a medicine row from MedicineManager in place of the one with its ID, or add it
+    private static void showMedicine(DefaultTableModel model, String[] medicine) {
+        int row = rowOf(model, Long.parseLong(medicine[0]));
+        if (row == -1) {
+            model.addRow(medicine);
+            return;
+        }
+        for (int column = 1; column < medicine.length; column++) {
+            model.setValueAt(medicine[column], row, column);
+        }
+    }
+
+    // Refill the medicine table in one pass, keeping the selected medicine (if still there) selected
+    private void showMedicines(JTable table, DefaultTableModel model, List<String[]> medicines) {
+        int selected = table.getSelectedRow();
+        String selectedId = selected == -1 ? null : model.getValueAt(table.convertRowIndexToModel(selected), 0).toString();
+        int reselect = -1;
+        refillingMedicines = true;
+        try {
+            model.setRowCount(0);
+            for (String[] medicine : medicines) {
+                if (medicine[0].equals(selectedId)) {
+                    reselect = model.getRowCount();
+                }
+                model.addRow(medicine);
+            }
+            if (reselect != -1) {
+                int row = table.convertRowIndexToView(reselect);
+                table.getSelectionModel().setSelectionInterval(row, row);
+            }
+        } finally {
+            refillingMedicines = false;
         }
     }
 
@@ -37,6 +107,8 @@ public class AdminDashboard extends JFrame {
 
         JButton logoutButton = new JButton("Logout");
         logoutButton.addActionListener(e -> {
+            ExpiryMonitor.removeListener(expiryListener);
+            ReorderEngine.removeListener(reorderListener);
             dispose();
             new LoginScreen().setVisible(true);
         });
@@ -54,9 +126,10 @@ public class AdminDashboard extends JFrame {
         // ===== Inventory Tab =====
         JPanel inventoryPanel = new JPanel(new BorderLayout());
 
-        String[] medColumns = {"Name", "Quantity", "Price", "Expiry"};
+        String[] medColumns = {"ID", "Name", "Quantity", "Price", "Expiry", "Lots", "Days to Stock-out"};
         DefaultTableModel medModel = new DefaultTableModel(medColumns, 0);
         JTable medTable = new JTable(medModel);
+        medTable.removeColumn(medTable.getColumnModel().getColumn(0)); // ID stays in the model only
         JScrollPane medScroll = new JScrollPane(medTable);
 
         JPanel formPanel = new JPanel(new GridLayout(5, 2));
@@ -66,7 +139,7 @@ public class AdminDashboard extends JFrame {
         JTextField expiryField = new JTextField();
 
         formPanel.add(new JLabel("Name:")); formPanel.add(nameField);
-        formPanel.add(new JLabel("Quantity:")); formPanel.add(quantityField);
+        formPanel.add(new JLabel("Lot Quantity:")); formPanel.add(quantityField);
         formPanel.add(new JLabel("Price:")); formPanel.add(priceField);
         formPanel.add(new JLabel("Expiry Date (yyyy-mm-dd):")); formPanel.add(expiryField);
 
@@ -74,11 +147,14 @@ public class AdminDashboard extends JFrame {
         JButton editBtn = new JButton("Edit");
         JButton delBtn = new JButton("Delete");
         JButton clearBtn = new JButton("Clear Form");
+        JButton importBtn = new JButton("Import CSV");
+        JButton reorderPointBtn = new JButton("Reorder Point");
         JPanel medicineButtonPanel = new JPanel();
         medicineButtonPanel.add(addBtn); medicineButtonPanel.add(editBtn); medicineButtonPanel.add(delBtn); medicineButtonPanel.add(clearBtn);
+        medicineButtonPanel.add(importBtn); medicineButtonPanel.add(reorderPointBtn);
 
-        List<String[]> allMeds = MedicineManager.loadAll();
-        for (String[] med : allMeds) medModel.addRow(med);
+        JComponent[] medicineControls = UiTask.controls(addBtn, editBtn, delBtn, importBtn);
+        UiTask.run(this, medicineControls, MedicineManager::loadAll, allMeds -> showMedicines(medTable, medModel, allMeds));
 
         addBtn.addActionListener(e -> {
             try {
@@ -92,22 +168,45 @@ public class AdminDashboard extends JFrame {
                     return;
                 }
 
-                if (MedicineManager.medicineExists(name)) {
-                    JOptionPane.showMessageDialog(this,
-                            "❌ A medicine named '" + name + "' already exists.\nPlease use a unique name.",
-                            "Duplicate Medicine",
-                            JOptionPane.WARNING_MESSAGE);
-                    return;
-                }
-
-                MedicineManager.addMedicine(name, qty, price, exp);
-                medModel.addRow(new String[]{name, String.valueOf(qty), String.valueOf(price), exp.toString()});
-
-                JOptionPane.showMessageDialog(this, "✅ Medicine added successfully.");
-                nameField.setText("");
-                quantityField.setText("");
-                priceField.setText("");
-                expiryField.setText("");
+                Runnable clearForm = () -> {
+                    nameField.setText("");
+                    quantityField.setText("");
+                    priceField.setText("");
+                    expiryField.setText("");
+                };
+                UiTask.run(this, medicineControls, () -> MedicineManager.medicineExists(name), exists -> {
+                    if (!exists) {
+                        UiTask.run(this, medicineControls, () -> MedicineManager.addMedicine(name, qty, price, exp), id -> {
+                            if (id == 0) {
+                                JOptionPane.showMessageDialog(this, "❌ The medicine could not be saved.");
+                                return;
+                            }
+                            medModel.addRow(MedicineManager.get(id));
+                            JOptionPane.showMessageDialog(this, "✅ Medicine added successfully.");
+                            clearForm.run();
+                        });
+                        return;
+                    }
+                    // Same name: the stock is a new lot of the existing medicine
+                    int confirm = JOptionPane.showConfirmDialog(this,
+                            "'" + name + "' is already in the inventory.\nAdd " + qty + " units expiring " + exp + " as a lot of it?",
+                            "Add Lot", JOptionPane.YES_NO_OPTION);
+                    if (confirm != JOptionPane.YES_OPTION) {
+                        return;
+                    }
+                    UiTask.run(this, medicineControls, () -> {
+                        long id = MedicineManager.addLot(name, qty, exp);
+                        return id == 0 ? null : MedicineManager.get(id);
+                    }, updated -> {
+                        if (updated == null) {
+                            JOptionPane.showMessageDialog(this, "❌ The lot could not be saved.");
+                            return;
+                        }
+                        showMedicine(medModel, updated);
+                        JOptionPane.showMessageDialog(this, "✅ Lot added.");
+                        clearForm.run();
+                    });
+                });
 
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "❌ Invalid quantity or price. Please enter numbers only.");
@@ -119,32 +218,44 @@ public class AdminDashboard extends JFrame {
         });
 
         editBtn.addActionListener(e -> {
-            int row = medTable.getSelectedRow();
-            if (row == -1) return;
+            int selected = medTable.getSelectedRow();
+            if (selected == -1) return;
+            int selectedRow = medTable.convertRowIndexToModel(selected);
+            long id = idAt(medModel, selectedRow);
 
             try {
                 String name = nameField.getText().trim();
                 int qty = Integer.parseInt(quantityField.getText().trim());
                 double price = Double.parseDouble(priceField.getText().trim());
                 LocalDate exp = LocalDate.parse(expiryField.getText().trim());
-
-                MedicineManager.updateMedicine(row, name, qty, price, exp);
-                medModel.setValueAt(name, row, 0);
-                medModel.setValueAt(String.valueOf(qty), row, 1);
-                medModel.setValueAt(String.valueOf(price), row, 2);
-                medModel.setValueAt(exp.toString(), row, 3);
-                JOptionPane.showMessageDialog(this, "✅ Updated.");
+                // The form was filled from the lot that expires first, that is the lot being edited
+                LocalDate lotExpiry = LocalDate.parse(medModel.getValueAt(selectedRow, 4).toString());
+
+                UiTask.run(this, medicineControls,
+                        () -> MedicineManager.updateMedicine(id, name, qty, price, lotExpiry, exp) ? MedicineManager.get(id) : null, updated -> {
+                    if (updated == null) {
+                        int row = rowOf(medModel, id);
+                        if (row != -1) medModel.removeRow(row);
+                        JOptionPane.showMessageDialog(this, "❌ This medicine no longer exists.");
+                        return;
+                    }
+                    showMedicine(medModel, updated);
+                    JOptionPane.showMessageDialog(this, "✅ Updated.");
+                });
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this, "❌ Invalid input.");
             }
         });
 
         delBtn.addActionListener(e -> {
-            int row = medTable.getSelectedRow();
-            if (row == -1) return;
-            MedicineManager.deleteMedicine(row);
-            medModel.removeRow(row);
-            JOptionPane.showMessageDialog(this, "🗑️ Deleted.");
+            int selected = medTable.getSelectedRow();
+            if (selected == -1) return;
+            long id = idAt(medModel, medTable.convertRowIndexToModel(selected));
+            UiTask.run(this, medicineControls, () -> MedicineManager.deleteMedicine(id), deleted -> {
+                int row = rowOf(medModel, id);
+                if (row != -1) medModel.removeRow(row);
+                JOptionPane.showMessageDialog(this, deleted ? "🗑️ Deleted." : "❌ This medicine no longer exists.");
+            });
         });
 
         clearBtn.addActionListener(e -> {
@@ -155,13 +266,42 @@ public class AdminDashboard extends JFrame {
             medTable.clearSelection();
         });
 
+        importBtn.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser(".");
+            chooser.setDialogTitle("Import medicines (name,quantity,price,expiry)");
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path file = chooser.getSelectedFile().toPath();
+            UiTask.run(this, medicineControls, () -> {
+                try {
+                    return MedicineImporter.importCsv(file);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, report -> UiTask.run(this, medicineControls, MedicineManager::loadAll, allMeds -> {
+                showMedicines(medTable, medModel, allMeds);
+                JTextArea text = new JTextArea(report.toString(), Math.min(20, 3 + report.getRejects().size()), 60);
+                text.setEditable(false);
+                JOptionPane.showMessageDialog(this, new JScrollPane(text),
+                        report.isSaved() ? "✅ Import finished" : "❌ Import failed",
+                        report.isSaved() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.ERROR_MESSAGE);
+            }));
+        });
+
         medTable.getSelectionModel().addListSelectionListener(e -> {
-            int row = medTable.getSelectedRow();
-            if (row != -1) {
-                nameField.setText(medModel.getValueAt(row, 0).toString());
-                quantityField.setText(medModel.getValueAt(row, 1).toString());
-                priceField.setText(medModel.getValueAt(row, 2).toString());
-                expiryField.setText(medModel.getValueAt(row, 3).toString());
+            int selected = medTable.getSelectedRow();
+            if (selected != -1 && !refillingMedicines) {
+                int row = medTable.convertRowIndexToModel(selected);
+                nameField.setText(medModel.getValueAt(row, 1).toString());
+                // The form edits one lot, starting with the one that expires first
+                String lots = medModel.getValueAt(row, 5).toString();
+                int colon = lots.indexOf(':');
+                int end = lots.indexOf(';');
+                quantityField.setText(colon < 0 ? medModel.getValueAt(row, 2).toString()
+                        : lots.substring(colon + 1, end < 0 ? lots.length() : end));
+                priceField.setText(medModel.getValueAt(row, 3).toString());
+                expiryField.setText(medModel.getValueAt(row, 4).toString());
             }
         });
         
@@ -170,6 +310,132 @@ public class AdminDashboard extends JFrame {
         inventoryPanel.add(medicineButtonPanel, BorderLayout.SOUTH);
         tabs.addTab("Inventory", inventoryPanel);
 
+        reorderPointBtn.addActionListener(e -> {
+            int selected = medTable.getSelectedRow();
+            if (selected == -1) {
+                JOptionPane.showMessageDialog(this, "❌ Select a medicine first.");
+                return;
+            }
+            int row = medTable.convertRowIndexToModel(selected);
+            long id = idAt(medModel, row);
+            String input = JOptionPane.showInputDialog(this,
+                    "Suggest a reorder when the stock of " + medModel.getValueAt(row, 1) + " falls to:",
+                    ReorderEngine.getReorderPoint(id));
+            if (input == null) {
+                return;
+            }
+            int point;
+            try {
+                point = Integer.parseInt(input.trim());
+                if (point < 0) throw new NumberFormatException();
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "❌ Enter a whole number of 0 or more.");
+                return;
+            }
+            UiTask.run(this, medicineControls, () -> ReorderEngine.setReorderPoint(id, point), saved ->
+                    JOptionPane.showMessageDialog(this, saved ? "✅ Reorder point set to " + point + "."
+                            : "❌ The reorder point could not be saved."));
+        });
+
+        // ===== Reorder Tab =====
+        // Suggestions are raised by the ReorderEngine as sales take stock below a reorder point
+        JPanel reorderPanel = new JPanel(new BorderLayout());
+        DefaultTableModel reorderModel = new DefaultTableModel(
+                new String[]{"ID", "Medicine", "Stock", "Reorder Point", "Order Qty", "Suppliers", "Since"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable reorderTable = new JTable(reorderModel);
+        reorderTable.removeColumn(reorderTable.getColumnModel().getColumn(0));
+        JButton dismissButton = new JButton("Dismiss (ordered)");
+        JPanel reorderButtons = new JPanel();
+        reorderButtons.add(dismissButton);
+        reorderPanel.add(new JScrollPane(reorderTable), BorderLayout.CENTER);
+        reorderPanel.add(reorderButtons, BorderLayout.SOUTH);
+        tabs.addTab("Reorder", reorderPanel);
+        int reorderTab = tabs.indexOfComponent(reorderPanel);
+
+        Runnable showSuggestions = () -> {
+            List<ReorderEngine.Suggestion> suggestions = ReorderEngine.getSuggestions();
+            reorderModel.setRowCount(0);
+            for (ReorderEngine.Suggestion suggestion : suggestions) {
+                StringBuilder supplierNames = new StringBuilder();
+                for (Supplier supplier : suggestion.getSuppliers()) {
+                    if (supplierNames.length() > 0) supplierNames.append(", ");
+                    supplierNames.append(supplier.getName()).append(" (").append(supplier.getPhone()).append(")");
+                }
+                reorderModel.addRow(new String[]{String.valueOf(suggestion.getMedicineId()), suggestion.getMedicineName(),
+                        String.valueOf(suggestion.getQuantity()), String.valueOf(suggestion.getReorderPoint()),
+                        String.valueOf(suggestion.getOrderQuantity()),
+                        supplierNames.length() == 0 ? "No supplier lists it" : supplierNames.toString(),
+                        suggestion.getRaised().withNano(0).toString().replace('T', ' ')});
+            }
+            tabs.setTitleAt(reorderTab, suggestions.isEmpty() ? "Reorder" : "Reorder (" + suggestions.size() + ")");
+        };
+        reorderListener = () -> SwingUtilities.invokeLater(showSuggestions);
+        ReorderEngine.addListener(reorderListener);
+        showSuggestions.run();
+
+        dismissButton.addActionListener(e -> {
+            int selected = reorderTable.getSelectedRow();
+            if (selected == -1) return;
+            ReorderEngine.dismiss(idAt(reorderModel, reorderTable.convertRowIndexToModel(selected)));
+        });
+
+        // ===== Expiring Soon Tab =====
+        // Filled by the background ExpiryMonitor, and checked again whenever the tab is opened
+        JPanel expiryPanel = new JPanel(new BorderLayout());
+        DefaultTableModel expiryModel = new DefaultTableModel(new String[]{"Name", "Lot Quantity", "Expiry", "Days Left"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable expiryTable = new JTable(expiryModel);
+        JSpinner expiryDaysSpinner = new JSpinner(new SpinnerNumberModel(ExpiryMonitor.getDays(), 1, 3650, 1));
+        JButton expiryCheckButton = new JButton("Check Now");
+        JLabel expiryStatusLabel = new JLabel(" ");
+        JPanel expiryControls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        expiryControls.add(new JLabel("Expired or expiring within")); expiryControls.add(expiryDaysSpinner);
+        expiryControls.add(new JLabel("days")); expiryControls.add(expiryCheckButton);
+        expiryPanel.add(expiryControls, BorderLayout.NORTH);
+        expiryPanel.add(new JScrollPane(expiryTable), BorderLayout.CENTER);
+        expiryPanel.add(expiryStatusLabel, BorderLayout.SOUTH);
+        tabs.addTab("Expiring Soon", expiryPanel);
+        int expiryTab = tabs.indexOfComponent(expiryPanel);
+
+        Consumer<List<InventoryStore.ExpiringLot>> showExpiring = expiring -> {
+            long today = LocalDate.now().toEpochDay();
+            expiryModel.setRowCount(0);
+            int expired = 0;
+            for (InventoryStore.ExpiringLot lot : expiring) {
+                long daysLeft = lot.getExpiryDay() - today;
+                if (daysLeft < 0) expired++;
+                expiryModel.addRow(new String[]{lot.getMedicine().getName(), String.valueOf(lot.getQuantity()), lot.getExpiry().toString(),
+                        daysLeft < 0 ? "EXPIRED" : String.valueOf(daysLeft)});
+            }
+            tabs.setTitleAt(expiryTab, expiring.isEmpty() ? "Expiring Soon" : "Expiring Soon (" + expiring.size() + ")");
+            expiryStatusLabel.setText(expiring.isEmpty() ? "✅ Nothing expires within " + ExpiryMonitor.getDays() + " days."
+                    : "⚠️ " + expired + " lots expired, " + (expiring.size() - expired) + " expiring within " + ExpiryMonitor.getDays() + " days.");
+        };
+        expiryListener = expiring -> SwingUtilities.invokeLater(() -> showExpiring.accept(expiring));
+        ExpiryMonitor.addListener(expiryListener);
+        showExpiring.accept(ExpiryMonitor.getLatest());
+        ExpiryMonitor.refresh();
+
+        expiryDaysSpinner.addChangeListener(e -> ExpiryMonitor.setDays((Integer) expiryDaysSpinner.getValue()));
+        expiryCheckButton.addActionListener(e -> ExpiryMonitor.refresh());
+        tabs.addChangeListener(e -> {
+            if (tabs.getSelectedIndex() == expiryTab) {
+                ExpiryMonitor.refresh();
+            } else if (tabs.getSelectedIndex() == 0) {
+                // Stock and forecasts move with every sale, and medicines may have been deleted elsewhere
+                UiTask.run(this, medicineControls, MedicineManager::loadAll, allMeds -> showMedicines(medTable, medModel, allMeds));
+            }
+        });
+
         // ===== Users Tab =====
         JPanel userPanel = new JPanel(new BorderLayout());
         JPanel userFormPanel = new JPanel(new GridLayout(4, 2, 5, 5));
@@ -183,13 +449,14 @@ public class AdminDashboard extends JFrame {
         userFormPanel.add(new JLabel("Password:")); userFormPanel.add(passwordField);
         userFormPanel.add(new JLabel("Role:"));     userFormPanel.add(roleBox);
 
-        String[] userColumns = {"Username", "Password", "Role"};
+        String[] userColumns = {"ID", "Username", "Password", "Role"};
         DefaultTableModel userModel = new DefaultTableModel(userColumns, 0) {
             public boolean isCellEditable(int row, int column) {
                 return false;
             }
         };
         JTable userTable = new JTable(userModel);
+        userTable.removeColumn(userTable.getColumnModel().getColumn(0)); // ID stays in the model only
         JScrollPane userScroll = new JScrollPane(userTable);
         loadUsersTable(userModel);
 
@@ -207,11 +474,12 @@ public class AdminDashboard extends JFrame {
         userButtonPanel.add(userFeedback);
 
         userTable.getSelectionModel().addListSelectionListener(e -> {
-            int row = userTable.getSelectedRow();
-            if (row != -1) {
-                usernameField.setText(userModel.getValueAt(row, 0).toString());
-                passwordField.setText(userModel.getValueAt(row, 1).toString());
-                String role = userModel.getValueAt(row, 2).toString();
+            int selected = userTable.getSelectedRow();
+            if (selected != -1) {
+                int row = userTable.convertRowIndexToModel(selected);
+                usernameField.setText(userModel.getValueAt(row, 1).toString());
+                passwordField.setText(userModel.getValueAt(row, 2).toString());
+                String role = userModel.getValueAt(row, 3).toString();
                 roleBox.setSelectedItem(role.equals("Admin") ? "Admin" : role);
                 roleBox.setEnabled(!role.equals("Admin"));
             }
@@ -226,6 +494,7 @@ public class AdminDashboard extends JFrame {
             userFeedback.setText("");
         });
 
+        JComponent[] userControls = UiTask.controls(addUserBtn, editUserBtn, deleteUserBtn);
         addUserBtn.addActionListener(e -> {
             String user = usernameField.getText().trim();
             String pw = new String(passwordField.getPassword());
@@ -235,22 +504,24 @@ public class AdminDashboard extends JFrame {
                 return;
             }
 
-            boolean success = UserManager.createUser(user, pw, role);
-            if (success) {
-                userFeedback.setText("✅ User created.");
-                loadUsersTable(userModel);
-                clearFormBtn.doClick();
-            } else {
-                userFeedback.setText("❌ Username already exists.");
-            }
+            UiTask.run(this, userControls, () -> UserManager.createUser(user, pw, role), success -> {
+                if (success) {
+                    userFeedback.setText("✅ User created.");
+                    loadUsersTable(userModel);
+                    clearFormBtn.doClick();
+                } else {
+                    userFeedback.setText("❌ Username already exists.");
+                }
+            });
         });
 
         editUserBtn.addActionListener(e -> {
-            int row = userTable.getSelectedRow();
-            if (row == -1) {
+            int selected = userTable.getSelectedRow();
+            if (selected == -1) {
                 userFeedback.setText("❌ Select a user to edit.");
                 return;
             }
+            long id = idAt(userModel, userTable.convertRowIndexToModel(selected));
 
             String user = usernameField.getText().trim();
             String pw = new String(passwordField.getPassword());
@@ -261,37 +532,41 @@ public class AdminDashboard extends JFrame {
                 return;
             }
 
-            boolean success = UserManager.updateUser(row, user, pw, role);
-            if (success) {
-                userFeedback.setText("✅ User updated.");
-                loadUsersTable(userModel);
-                clearFormBtn.doClick();
-            } else {
-                userFeedback.setText("❌ Update failed.");
-            }
+            UiTask.run(this, userControls, () -> UserManager.updateUser(id, user, pw, role), success -> {
+                if (success) {
+                    userFeedback.setText("✅ User updated.");
+                    loadUsersTable(userModel);
+                    clearFormBtn.doClick();
+                } else {
+                    userFeedback.setText("❌ Update failed.");
+                }
+            });
         });
 
         deleteUserBtn.addActionListener(e -> {
-            int row = userTable.getSelectedRow();
-            if (row == -1) {
+            int selected = userTable.getSelectedRow();
+            if (selected == -1) {
                 userFeedback.setText("❌ Select a user to delete.");
                 return;
             }
 
-            String username = userModel.getValueAt(row, 0).toString();
+            int row = userTable.convertRowIndexToModel(selected);
+            long id = idAt(userModel, row);
+            String username = userModel.getValueAt(row, 1).toString();
             int confirm = JOptionPane.showConfirmDialog(this,
                     "Are you sure you want to delete user '" + username + "'?",
                     "Confirm Delete", JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
-                boolean success = UserManager.deleteUser(row);
-                if (success) {
-                    userFeedback.setText("✅ User deleted.");
-                    loadUsersTable(userModel);
-                    clearFormBtn.doClick();
-                } else {
-                    userFeedback.setText("❌ Cannot delete Admin user.");
-                }
+                UiTask.run(this, userControls, () -> UserManager.deleteUser(id), success -> {
+                    if (success) {
+                        userFeedback.setText("✅ User deleted.");
+                        loadUsersTable(userModel);
+                        clearFormBtn.doClick();
+                    } else {
+                        userFeedback.setText("❌ Cannot delete Admin user.");
+                    }
+                });
             }
         });
 
@@ -334,9 +609,10 @@ public class AdminDashboard extends JFrame {
         JButton addButton = new JButton("Add Supplier");
         JButton deleteButton = new JButton("Delete Selected");
         JButton saveButton = new JButton("Save All");
+        JButton findButton = new JButton("Find by Medicine");
         
-        // Load supplier data
-        ArrayList<Supplier> suppliers = SupplierManager.loadSuppliers();
+        ArrayList<Supplier> suppliers = new ArrayList<>();
+        JComponent[] supplierControls = UiTask.controls(addButton, deleteButton, saveButton);
         
         // Refresh table helper method (as local function)
         Runnable refreshSupplierTable = () -> {
@@ -348,8 +624,11 @@ public class AdminDashboard extends JFrame {
             }
         };
         
-        // Initial table population
-        refreshSupplierTable.run();
+        // Load supplier data, then populate the table
+        UiTask.run(this, supplierControls, SupplierManager::loadSuppliers, loaded -> {
+            suppliers.addAll(loaded);
+            refreshSupplierTable.run();
+        });
         
         // Clear fields helper method
         Runnable clearFields = () -> {
@@ -403,13 +682,33 @@ public class AdminDashboard extends JFrame {
         
         // Save button action
         saveButton.addActionListener(e -> {
-            SupplierManager.saveSuppliers(suppliers);
-            JOptionPane.showMessageDialog(this, "✅ Suppliers saved successfully.");
+            ArrayList<Supplier> snapshot = new ArrayList<>(suppliers);
+            UiTask.run(this, supplierControls, () -> SupplierManager.saveSuppliers(snapshot),
+                    () -> JOptionPane.showMessageDialog(this, "✅ Suppliers saved successfully."));
         });
         
+        // Looks in the saved suppliers, through the medicine index
+        findButton.addActionListener(e -> {
+            String medicine = JOptionPane.showInputDialog(this, "Medicine name:", "Find Suppliers", JOptionPane.QUESTION_MESSAGE);
+            if (medicine == null || medicine.trim().isEmpty()) {
+                return;
+            }
+            List<Supplier> found = SupplierManager.findByMedicine(medicine);
+            if (found.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "❌ No saved supplier lists " + medicine.trim() + ".");
+                return;
+            }
+            StringBuilder sb = new StringBuilder("Suppliers of " + medicine.trim() + ":\n");
+            for (Supplier s : found) {
+                sb.append("\n").append(s.getName()).append(" | ").append(s.getPhone()).append(" | ").append(s.getAddress());
+            }
+            JOptionPane.showMessageDialog(this, sb.toString(), "Find Suppliers", JOptionPane.INFORMATION_MESSAGE);
+        });
+
         supplierButtonPanel.add(addButton);
         supplierButtonPanel.add(deleteButton);
         supplierButtonPanel.add(saveButton);
+        supplierButtonPanel.add(findButton);
         
         JPanel bottomPanel = new JPanel(new BorderLayout());
         bottomPanel.add(supplierFormPanel, BorderLayout.CENTER);
@@ -422,10 +721,26 @@ public class AdminDashboard extends JFrame {
 
         // ===== Sales History Tab =====
         JPanel salesPanel = new JPanel(new BorderLayout());
-        JTextArea salesTextArea = new JTextArea();
-        salesTextArea.setEditable(false);
-        salesTextArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
-        JScrollPane salesScrollPane = new JScrollPane(salesTextArea);
+        // Rows are read from the ledger only when they scroll into view
+        SalesTableModel salesModel = new SalesTableModel();
+        JTable salesTable = new JTable(salesModel);
+        salesTable.setFont(new Font("Monospaced", Font.PLAIN, 14));
+        salesTable.setRowHeight(20);
+        JScrollPane salesScrollPane = new JScrollPane(salesTable);
+        JLabel salesTotalsLabel = new JLabel(" ");
+        salesTotalsLabel.setFont(new Font("Monospaced", Font.BOLD, 14));
+
+        // Click a column header to sort, click again to reverse
+        salesTable.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent e) {
+                int column = salesTable.convertColumnIndexToModel(salesTable.columnAtPoint(e.getPoint()));
+                if (column >= 0) {
+                    SalesTableModel.Sort sort = salesModel.prepareSort(column);
+                    UiTask.run(AdminDashboard.this, UiTask.controls(salesTable.getTableHeader()), sort::run, salesModel::apply);
+                }
+            }
+        });
 
         JButton refreshButton = new JButton("Refresh Sales Data");
         JButton resetButton = new JButton("Reset Sales History");
@@ -437,12 +752,55 @@ public class AdminDashboard extends JFrame {
         confirmationLabel.setHorizontalAlignment(SwingConstants.CENTER);
         confirmationLabel.setForeground(new Color(0, 128, 0));
         JPanel confirmPanel = new JPanel(new BorderLayout());
+        confirmPanel.add(salesTotalsLabel, BorderLayout.NORTH);
         confirmPanel.add(confirmationLabel, BorderLayout.CENTER);
         confirmPanel.add(buttonsPanel, BorderLayout.EAST);
 
+        // Filters: date range, medicine and best sellers
+        JTextField fromField = new JTextField(8);
+        JTextField toField = new JTextField(8);
+        JTextField salesMedicineField = new JTextField(10);
+        JButton applyFilterButton = new JButton("Apply Filter");
+        JButton lastWeekButton = new JButton("Last 7 Days");
+        JButton clearFilterButton = new JButton("Clear Filter");
+        JSpinner topCountSpinner = new JSpinner(new SpinnerNumberModel(5, 1, 100, 1));
+        JComboBox<String> topByBox = new JComboBox<>(new String[]{"Revenue", "Units"});
+        JButton topButton = new JButton("Show Top");
+        JButton reportButton = new JButton("Report");
+
+        JPanel filterPanel = new JPanel(new GridLayout(2, 1));
+        JPanel rangeRow = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        rangeRow.add(new JLabel("From (yyyy-mm-dd):")); rangeRow.add(fromField);
+        rangeRow.add(new JLabel("To:")); rangeRow.add(toField);
+        rangeRow.add(new JLabel("Medicine:")); rangeRow.add(salesMedicineField);
+        JPanel actionRow = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        actionRow.add(applyFilterButton); actionRow.add(lastWeekButton); actionRow.add(clearFilterButton);
+        actionRow.add(new JLabel("  Top")); actionRow.add(topCountSpinner);
+        actionRow.add(new JLabel("by")); actionRow.add(topByBox); actionRow.add(topButton);
+        actionRow.add(reportButton);
+        filterPanel.add(rangeRow);
+        filterPanel.add(actionRow);
+
+        JComponent[] salesControls = UiTask.controls(refreshButton, resetButton, applyFilterButton,
+                lastWeekButton, clearFilterButton, topButton, reportButton);
         Runnable loadSalesData = () -> {
-            String salesData = utils.PurchaseManager.getPurchasesAsString();
-            salesTextArea.setText(salesData.trim().isEmpty() ? "No sales recorded yet." : "SALES HISTORY\n\n" + salesData);
+            String from = fromField.getText().trim();
+            String to = toField.getText().trim();
+            String medicine = salesMedicineField.getText().trim();
+            LocalDate fromDate, toDate;
+            try {
+                fromDate = from.isEmpty() ? null : LocalDate.parse(from);
+                toDate = to.isEmpty() ? null : LocalDate.parse(to);
+            } catch (DateTimeException ex) {
+                JOptionPane.showMessageDialog(this, "❌ Invalid date format. Use yyyy-mm-dd format.");
+                return;
+            }
+            UiTask.run(this, salesControls, () -> SalesQuery.select(fromDate, toDate, medicine), selection -> {
+                salesModel.setSelection(selection);
+                salesTotalsLabel.setText(selection.size() == 0 ? "No sales recorded yet."
+                        : "SALES: " + selection.size() + " | UNITS SOLD: " + selection.getUnits()
+                        + " | REVENUE: $" + String.format("%.2f", selection.getRevenue()));
+            });
         };
         loadSalesData.run();
 
@@ -451,6 +809,67 @@ public class AdminDashboard extends JFrame {
             confirmationLabel.setText("");
         });
 
+        applyFilterButton.addActionListener(e -> loadSalesData.run());
+
+        lastWeekButton.addActionListener(e -> {
+            fromField.setText(LocalDate.now().minusDays(6).toString());
+            toField.setText(LocalDate.now().toString());
+            loadSalesData.run();
+        });
+
+        clearFilterButton.addActionListener(e -> {
+            fromField.setText("");
+            toField.setText("");
+            salesMedicineField.setText("");
+            loadSalesData.run();
+        });
+
+        topButton.addActionListener(e -> {
+            String from = fromField.getText().trim();
+            String to = toField.getText().trim();
+            int n = (Integer) topCountSpinner.getValue();
+            boolean byRevenue = "Revenue".equals(topByBox.getSelectedItem());
+            LocalDate fromDate, toDate;
+            try {
+                fromDate = from.isEmpty() ? null : LocalDate.parse(from);
+                toDate = to.isEmpty() ? null : LocalDate.parse(to);
+            } catch (DateTimeException ex) {
+                JOptionPane.showMessageDialog(this, "❌ Invalid date format. Use yyyy-mm-dd format.");
+                return;
+            }
+            UiTask.run(this, salesControls, () -> utils.PurchaseManager.getTopSellersAsString(fromDate, toDate, n, byRevenue), ranking -> {
+                JTextArea rankingArea = new JTextArea(ranking.isEmpty() ? "No sales in this period." : ranking);
+                rankingArea.setEditable(false);
+                rankingArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
+                JOptionPane.showMessageDialog(this, new JScrollPane(rankingArea),
+                        "Top " + n + " by " + (byRevenue ? "Revenue" : "Units"), JOptionPane.PLAIN_MESSAGE);
+            });
+        });
+
+        reportButton.addActionListener(e -> {
+            String from = fromField.getText().trim();
+            String to = toField.getText().trim();
+            LocalDate fromDate, toDate;
+            try {
+                fromDate = from.isEmpty() ? null : LocalDate.parse(from);
+                toDate = to.isEmpty() ? null : LocalDate.parse(to);
+            } catch (DateTimeException ex) {
+                JOptionPane.showMessageDialog(this, "❌ Invalid date format. Use yyyy-mm-dd format.");
+                return;
+            }
+            UiTask.run(this, salesControls, () -> SalesReport.build(fromDate, toDate), report -> {
+                JTextArea reportArea = new JTextArea(report.getTotals().getSales() == 0
+                        ? "No sales in this period." : report.toString(), 25, 80);
+                reportArea.setEditable(false);
+                reportArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
+                reportArea.setCaretPosition(0);
+                JOptionPane.showMessageDialog(this, new JScrollPane(reportArea),
+                        "Sales Report" + (fromDate == null && toDate == null ? "" :
+                                " (" + (fromDate == null ? "start" : fromDate) + " to " + (toDate == null ? "today" : toDate) + ")"),
+                        JOptionPane.PLAIN_MESSAGE);
+            });
+        });
+
         resetButton.addActionListener(e -> {
             int confirm = JOptionPane.showConfirmDialog(
                     this,
@@ -461,20 +880,77 @@ public class AdminDashboard extends JFrame {
             );
 
             if (confirm == JOptionPane.YES_OPTION) {
-                boolean success = utils.PurchaseManager.resetPurchaseHistory();
-                if (success) {
-                    confirmationLabel.setText("✅ Sales history has been reset successfully");
-                    salesTextArea.setText("No sales recorded yet.");
-                } else {
-                    confirmationLabel.setText("❌ Failed to reset sales history");
-                }
+                UiTask.run(this, salesControls, utils.PurchaseManager::resetPurchaseHistory, success -> {
+                    if (success) {
+                        confirmationLabel.setText("✅ Sales history has been reset successfully");
+                        salesModel.clear();
+                        salesTotalsLabel.setText("No sales recorded yet.");
+                    } else {
+                        confirmationLabel.setText("❌ Failed to reset sales history");
+                    }
+                });
             }
         });
 
+        salesPanel.add(filterPanel, BorderLayout.NORTH);
         salesPanel.add(salesScrollPane, BorderLayout.CENTER);
         salesPanel.add(confirmPanel, BorderLayout.SOUTH);
         tabs.addTab("Sales History", salesPanel);
 
+        // ===== Diagnostics Tab =====
+        JPanel diagnosticsPanel = new JPanel(new BorderLayout());
+        JTextArea metricsArea = new JTextArea();
+        metricsArea.setEditable(false);
+        metricsArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        JButton metricsRefreshButton = new JButton("Refresh");
+        JButton metricsResetButton = new JButton("Reset");
+        JButton metricsExportButton = new JButton("Export JSON");
+        JPanel metricsButtonPanel = new JPanel();
+        metricsButtonPanel.add(metricsRefreshButton);
+        metricsButtonPanel.add(metricsResetButton);
+        metricsButtonPanel.add(metricsExportButton);
+        diagnosticsPanel.add(new JScrollPane(metricsArea), BorderLayout.CENTER);
+        diagnosticsPanel.add(metricsButtonPanel, BorderLayout.SOUTH);
+        tabs.addTab("Diagnostics", diagnosticsPanel);
+        int diagnosticsTab = tabs.indexOfComponent(diagnosticsPanel);
+
+        // A snapshot only reads counters, cheap enough for the event thread
+        Runnable showMetrics = () -> {
+            StringBuilder text = new StringBuilder();
+            for (String problem : InventoryStore.getProblems()) {
+                text.append("⚠ Inventory needs checking: ").append(problem).append("\n");
+            }
+            metricsArea.setText(text.length() == 0 ? Metrics.toText() : text + "\n" + Metrics.toText());
+            metricsArea.setCaretPosition(0);
+        };
+        metricsRefreshButton.addActionListener(e -> showMetrics.run());
+        metricsResetButton.addActionListener(e -> {
+            Metrics.reset();
+            showMetrics.run();
+        });
+        metricsExportButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser(".");
+            chooser.setDialogTitle("Export metrics");
+            chooser.setSelectedFile(new java.io.File("metrics.json"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path file = chooser.getSelectedFile().toPath();
+            String json = Metrics.toJson();
+            UiTask.run(this, UiTask.controls(metricsExportButton), () -> {
+                try {
+                    Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, () -> JOptionPane.showMessageDialog(this, "✅ Metrics written to " + file));
+        });
+        tabs.addChangeListener(e -> {
+            if (tabs.getSelectedIndex() == diagnosticsTab) {
+                showMetrics.run();
+            }
+        });
+
         add(tabs, BorderLayout.CENTER);
     }
 }
\ No newline at end of file
@@ -2,9 +2,13 @@ package gui;
 
 import javax.swing.*;
 import java.awt.*;
+import models.CartItem;
 import models.Medicine;
+import models.SaleResult;
 import utils.FileManager;
+import utils.NameSearch;
 import utils.PurchaseManager;
+import java.util.Collections;
 import java.util.List;
 
 public class CustomerDashboard extends JFrame {
@@ -44,7 +48,7 @@ public class CustomerDashboard extends JFrame {
 
         // Bottom: buy medicine button
         JButton buyButton = new JButton("Buy Medicine");
-        buyButton.addActionListener(e -> showBuyDialog(textArea));
+        buyButton.addActionListener(e -> showBuyDialog(textArea, buyButton));
         JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         bottomPanel.add(buyButton);
 
@@ -54,57 +58,92 @@ public class CustomerDashboard extends JFrame {
         add(bottomPanel, BorderLayout.SOUTH);
     }
 
-    // Refresh the medicine list in the text area
+    // Refresh the medicine list in the text area (read in the background)
     private void refreshMedicineList(JTextArea textArea) {
-        textArea.setText("  Available Medicines to Buy:\n\n" + FileManager.getMedicineListAsString());
+        UiTask.run(this, UiTask.controls(), FileManager::getMedicineListAsString,
+                list -> textArea.setText("  Available Medicines to Buy:\n\n" + list));
     }
 
-    // Show the buy dialog
-    private void showBuyDialog(JTextArea textArea) {
-        List<Medicine> medicines = FileManager.loadMedicines();
-
-        if (medicines.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "No medicines available.");
-            return;
-        }
+    // Show the buy dialog; medicines are picked by typing, not from a list of the whole catalog
+    private void showBuyDialog(JTextArea textArea, JButton buyButton) {
+        TypeAheadField medicineBox = new TypeAheadField(NameSearch::medicines, 8);
+        medicineBox.setColumns(20);
+        JTextField quantityField = new JTextField();
+        medicineBox.addChoiceListener(name -> quantityField.requestFocusInWindow());
+
+        // Several medicines can be bought in one checkout
+        DefaultListModel<CartItem> cartModel = new DefaultListModel<>();
+        JList<CartItem> cartList = new JList<>(cartModel);
+        cartList.setVisibleRowCount(5);
+        JButton addToCartButton = new JButton("Add to Cart");
+        JLabel cartStatus = new JLabel(" ");
+
+        addToCartButton.addActionListener(e -> {
+            CartItem item = toCartItem(medicineBox, quantityField);
+            if (item == null) {
+                cartStatus.setText("Please pick a medicine and enter a valid quantity.");
+                return;
+            }
+            cartModel.addElement(item);
+            cartStatus.setText("Added " + item);
+            quantityField.setText("");
+        });
 
-        String[] medicineNames = medicines.stream().map(Medicine::getName).toArray(String[]::new);
+        JPanel formPanel = new JPanel(new GridLayout(3, 2, 5, 5));
+        formPanel.add(new JLabel("Medicine (type to search):"));
+        formPanel.add(medicineBox);
+        formPanel.add(new JLabel("Enter Quantity:"));
+        formPanel.add(quantityField);
+        formPanel.add(cartStatus);
+        formPanel.add(addToCartButton);
 
-        JComboBox<String> medicineBox = new JComboBox<>(medicineNames);
-        JTextField quantityField = new JTextField();
+        JScrollPane cartScroll = new JScrollPane(cartList);
+        cartScroll.setBorder(BorderFactory.createTitledBorder("Cart"));
 
-        JPanel panel = new JPanel(new GridLayout(2, 2, 5, 5));
-        panel.add(new JLabel("Select Medicine:"));
-        panel.add(medicineBox);
-        panel.add(new JLabel("Enter Quantity:"));
-        panel.add(quantityField);
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.add(formPanel, BorderLayout.NORTH);
+        panel.add(cartScroll, BorderLayout.CENTER);
 
         int result = JOptionPane.showConfirmDialog(this, panel, "Buy Medicine", JOptionPane.OK_CANCEL_OPTION);
         if (result == JOptionPane.OK_OPTION) {
-            String selectedMedicine = medicineBox.getSelectedItem().toString();
-            int quantity;
-
-            try {
-                quantity = Integer.parseInt(quantityField.getText());
-                if (quantity <= 0) throw new NumberFormatException();
-            } catch (NumberFormatException e) {
-                JOptionPane.showMessageDialog(this, "Please enter a valid quantity.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
-                return;
+            List<CartItem> items = Collections.list(cartModel.elements());
+
+            // A quantity typed but not added yet counts as one more item
+            if (!quantityField.getText().isBlank() || items.isEmpty()) {
+                CartItem item = toCartItem(medicineBox, quantityField);
+                if (item == null) {
+                    JOptionPane.showMessageDialog(this, "Please pick a medicine and enter a valid quantity.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                items.add(item);
             }
 
-            Medicine selected = medicines.stream().filter(m -> m.getName().equals(selectedMedicine)).findFirst().orElse(null);
-
-            if (selected != null && quantity <= selected.getQuantity()) {
-                boolean success = PurchaseManager.recordPurchase(selected.getName(), quantity, selected.getPrice());
-                if (success) {
-                    JOptionPane.showMessageDialog(this, "Purchase successful!");
-                    refreshMedicineList(textArea);
+            // Stock is checked against the live inventory when the sale is recorded
+            UiTask.run(this, UiTask.controls(buyButton), () -> PurchaseManager.checkout(items), sale -> {
+                if (sale.isSuccess()) {
+                    JOptionPane.showMessageDialog(this, "Purchase successful! Total: $" + String.format("%.2f", sale.getTotal()));
+                } else if (sale.getStatus() == SaleResult.Status.INSUFFICIENT_STOCK) {
+                    JOptionPane.showMessageDialog(this, sale.getMessage(), "Out of Stock", JOptionPane.WARNING_MESSAGE);
                 } else {
-                    JOptionPane.showMessageDialog(this, "Error processing purchase.", "Error", JOptionPane.ERROR_MESSAGE);
+                    JOptionPane.showMessageDialog(this, "Error processing purchase: " + sale.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
-            } else {
-                JOptionPane.showMessageDialog(this, "Not enough stock available.", "Out of Stock", JOptionPane.WARNING_MESSAGE);
-            }
+                refreshMedicineList(textArea);
+            });
         }
     }
+
+    // Build a cart line from the dialog fields, null if the medicine is unknown or the quantity is not valid
+    private CartItem toCartItem(JTextField medicineBox, JTextField quantityField) {
+        int quantity;
+        try {
+            quantity = Integer.parseInt(quantityField.getText().trim());
+            if (quantity <= 0) return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        Medicine selected = FileManager.findMedicine(medicineBox.getText());
+        if (selected == null) return null;
+        return new CartItem(selected.getName(), quantity, selected.getPrice());
+    }
 }
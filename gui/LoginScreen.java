@@ -1,5 +1,6 @@
 package gui;
 
+import utils.LoginThrottle;
 import utils.UserManager;
 import javax.swing.*;
 import java.awt.*;
@@ -20,18 +21,28 @@ public class LoginScreen extends JFrame {
             String user = userField.getText().trim();
             String pw = new String(passField.getPassword());
 
-            String role = UserManager.checkCredentials(user, pw);
-            if (role == null) {
-                JOptionPane.showMessageDialog(this, "❌ Invalid credentials.");
-                return;
-            }
+            // Checked in the background, the screen stays responsive meanwhile
+            UiTask.run(this, UiTask.controls(loginBtn, userField, passField),
+                    () -> UserManager.checkCredentials(user, pw),
+                    role -> {
+                        if (role == null) {
+                            long wait = LoginThrottle.retryAfterMillis(user);
+                            if (wait > 0) {
+                                JOptionPane.showMessageDialog(this, "⏳ Too many failed attempts. Try again in "
+                                        + (wait + 999) / 1000 + " seconds.");
+                            } else {
+                                JOptionPane.showMessageDialog(this, "❌ Invalid credentials.");
+                            }
+                            return;
+                        }
 
-            switch (role) {
-                case "Admin" -> new AdminDashboard().setVisible(true);
-                case "Pharmacist" -> new PharmacistDashboard().setVisible(true);
-                case "Customer" -> new CustomerDashboard().setVisible(true);
-            }
-            dispose();
+                        switch (role) {
+                            case "Admin" -> new AdminDashboard().setVisible(true);
+                            case "Pharmacist" -> new PharmacistDashboard().setVisible(true);
+                            case "Customer" -> new CustomerDashboard().setVisible(true);
+                        }
+                        dispose();
+                    });
         });
 
         add(new JLabel("Username:")); add(userField);
@@ -4,10 +4,13 @@ import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.util.Collections;
 import java.util.List;
 
+import models.CartItem;
 import models.Medicine;
 import utils.FileManager;
+import utils.NameSearch;
 import utils.PurchaseManager;
 
 public class PharmacistDashboard extends JFrame {
@@ -15,10 +18,13 @@ public class PharmacistDashboard extends JFrame {
     private DefaultTableModel tableModel;
     private JTextField quantityField;
     private JLabel statusLabel;
+    private JButton sellButton;
+    private DefaultListModel<CartItem> cartModel;
+    private JLabel cartTotalLabel;
     
     public PharmacistDashboard() {
         setTitle("Pharmacist Dashboard");
-        setSize(800, 600);
+        setSize(800, 700);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
         
@@ -54,7 +60,18 @@ public class PharmacistDashboard extends JFrame {
         
         medicineTable = new JTable(tableModel);
         JScrollPane scrollPane = new JScrollPane(medicineTable);
-        scrollPane.setBorder(BorderFactory.createTitledBorder("Available Medicines"));
+        
+        // Type part of a name (typos are fine) and pick it to select its row
+        TypeAheadField searchField = new TypeAheadField(NameSearch::medicines, 8);
+        searchField.addChoiceListener(this::selectMedicine);
+        JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
+        searchPanel.add(new JLabel("Find Medicine:"), BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        
+        JPanel tablePanel = new JPanel(new BorderLayout(5, 5));
+        tablePanel.setBorder(BorderFactory.createTitledBorder("Available Medicines"));
+        tablePanel.add(searchPanel, BorderLayout.NORTH);
+        tablePanel.add(scrollPane, BorderLayout.CENTER);
         
         // Load medicines into the table
         loadMedicineTable();
@@ -66,17 +83,52 @@ public class PharmacistDashboard extends JFrame {
         JPanel formPanel = new JPanel(new GridLayout(1, 4, 10, 0));
         JLabel qtyLabel = new JLabel("Quantity to Sell:", SwingConstants.CENTER);
         quantityField = new JTextField("1");
-        JButton sellButton = new JButton("Record Sale");
+        JButton addToCartButton = new JButton("Add to Cart");
+        sellButton = new JButton("Record Sale");
         statusLabel = new JLabel("", SwingConstants.CENTER);
         
         formPanel.add(qtyLabel);
         formPanel.add(quantityField);
+        formPanel.add(addToCartButton);
         formPanel.add(sellButton);
         
+        addToCartButton.addActionListener(this::addToCart);
         sellButton.addActionListener(this::sellMedicine);
         
+        // Cart of the current customer, sold in one checkout
+        cartModel = new DefaultListModel<>();
+        JList<CartItem> cartList = new JList<>(cartModel);
+        cartList.setVisibleRowCount(4);
+        JScrollPane cartScroll = new JScrollPane(cartList);
+        cartScroll.setBorder(BorderFactory.createTitledBorder("Cart"));
+        
+        JButton removeItemButton = new JButton("Remove Item");
+        JButton clearCartButton = new JButton("Clear Cart");
+        cartTotalLabel = new JLabel("Cart Total: $0.00");
+        removeItemButton.addActionListener(e -> {
+            int index = cartList.getSelectedIndex();
+            if (index != -1) {
+                cartModel.remove(index);
+                updateCartTotal();
+            }
+        });
+        clearCartButton.addActionListener(e -> {
+            cartModel.clear();
+            updateCartTotal();
+        });
+        
+        JPanel cartButtonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        cartButtonPanel.add(cartTotalLabel);
+        cartButtonPanel.add(removeItemButton);
+        cartButtonPanel.add(clearCartButton);
+        
+        JPanel cartPanel = new JPanel(new BorderLayout());
+        cartPanel.add(cartScroll, BorderLayout.CENTER);
+        cartPanel.add(cartButtonPanel, BorderLayout.SOUTH);
+        
         salePanel.add(formPanel, BorderLayout.NORTH);
-        salePanel.add(statusLabel, BorderLayout.CENTER);
+        salePanel.add(cartPanel, BorderLayout.CENTER);
+        salePanel.add(statusLabel, BorderLayout.SOUTH);
         
         
         JTextArea instructionsArea = new JTextArea();
@@ -84,10 +136,11 @@ public class PharmacistDashboard extends JFrame {
         instructionsArea.setLineWrap(true);
         instructionsArea.setWrapStyleWord(true);
         instructionsArea.setText("Instructions:\n" +
-                "1. Select a medicine from the table above\n" +
-                "2. Enter the quantity to sell\n" +
-                "3. Click 'Record Sale' to process the transaction\n\n" +
-                "Note: The system will verify if enough stock is available.");
+                "1. Select a medicine from the table above, or find it by typing its name\n" +
+                "2. Enter the quantity to sell and click 'Add to Cart'\n" +
+                "3. Repeat for every item on the prescription\n" +
+                "4. Click 'Record Sale' to process the whole cart\n\n" +
+                "Note: The system will verify if enough stock is available for every item.");
         instructionsArea.setBackground(new Color(240, 240, 240));
         instructionsArea.setBorder(BorderFactory.createCompoundBorder(
                 BorderFactory.createTitledBorder("How to Use"),
@@ -99,32 +152,49 @@ public class PharmacistDashboard extends JFrame {
         
         
         add(topPanel, BorderLayout.NORTH);
-        add(scrollPane, BorderLayout.CENTER);
+        add(tablePanel, BorderLayout.CENTER);
         add(bottomPanel, BorderLayout.SOUTH);
     }
     
     /**
-     * Load medicines from file into the table
+     * Load medicines into the table (read in the background)
      */
     private void loadMedicineTable() {
-        tableModel.setRowCount(0); // Clear existing data
-        
-        List<Medicine> medicines = FileManager.loadMedicines();
-        for (Medicine med : medicines) {
-            Object[] row = {
-                med.getName(),
-                med.getQuantity(),
-                med.getPrice(),
-                med.getExpiryDate()
-            };
-            tableModel.addRow(row);
+        UiTask.run(this, UiTask.controls(medicineTable), FileManager::loadMedicines, medicines -> {
+            tableModel.setRowCount(0); // Clear existing data
+            
+            for (Medicine med : medicines) {
+                Object[] row = {
+                    med.getName(),
+                    med.getQuantity(),
+                    med.getPrice(),
+                    med.getExpiryDate()
+                };
+                tableModel.addRow(row);
+            }
+        });
+    }
+    
+    /**
+     * Select the table row of a medicine and scroll to it
+     */
+    private void selectMedicine(String name) {
+        for (int row = 0; row < tableModel.getRowCount(); row++) {
+            if (name.equalsIgnoreCase(tableModel.getValueAt(row, 0).toString())) {
+                medicineTable.setRowSelectionInterval(row, row);
+                medicineTable.scrollRectToVisible(medicineTable.getCellRect(row, 0, true));
+                quantityField.requestFocusInWindow();
+                quantityField.selectAll();
+                return;
+            }
         }
+        statusLabel.setText("❌ " + name + " is not in the table, it may have just been added");
     }
     
     /**
-     * Process a medicine sale
+     * Add the selected medicine to the cart
      */
-    private void sellMedicine(ActionEvent e) {
+    private void addToCart(ActionEvent e) {
         int selectedRow = medicineTable.getSelectedRow();
         if (selectedRow == -1) {
             statusLabel.setText("❌ Please select a medicine first");
@@ -139,26 +209,50 @@ public class PharmacistDashboard extends JFrame {
             }
             
             String medicineName = tableModel.getValueAt(selectedRow, 0).toString();
-            int available = Integer.parseInt(tableModel.getValueAt(selectedRow, 1).toString());
             double price = Double.parseDouble(tableModel.getValueAt(selectedRow, 2).toString());
+            cartModel.addElement(new CartItem(medicineName, quantity, price));
+            updateCartTotal();
+            statusLabel.setText("🛒 Added " + quantity + " x " + medicineName + " to the cart");
+            quantityField.setText("1"); // Reset quantity field
             
-            if (quantity > available) {
-                statusLabel.setText("❌ Not enough stock available");
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("❌ Please enter a valid quantity");
+        }
+    }
+    
+    /**
+     * Process the sale of the whole cart.
+     * With an empty cart the selected medicine is sold on its own.
+     */
+    private void sellMedicine(ActionEvent e) {
+        if (cartModel.isEmpty()) {
+            addToCart(e);
+            if (cartModel.isEmpty()) {
                 return;
             }
-            
-            boolean success = PurchaseManager.recordPurchase(medicineName, quantity, price);
-            if (success) {
+        }
+        
+        // Stock is checked against the live inventory, not the table
+        List<CartItem> items = Collections.list(cartModel.elements());
+        statusLabel.setText("⏳ Recording sale...");
+        UiTask.run(this, UiTask.controls(sellButton), () -> PurchaseManager.checkout(items), result -> {
+            if (result.isSuccess()) {
                 statusLabel.setText("✅ Sale recorded successfully! Total: $" + 
-                    String.format("%.2f", price * quantity));
-                loadMedicineTable(); // Refresh the table
-                quantityField.setText("1"); // Reset quantity field
+                    String.format("%.2f", result.getTotal()));
+                cartModel.clear();
+                updateCartTotal();
             } else {
-                statusLabel.setText("❌ Error recording sale. Please try again.");
+                statusLabel.setText("❌ " + result.getMessage());
             }
-            
-        } catch (NumberFormatException ex) {
-            statusLabel.setText("❌ Please enter a valid quantity");
+            loadMedicineTable(); // Refresh the table
+        });
+    }
+    
+    private void updateCartTotal() {
+        double total = 0;
+        for (int i = 0; i < cartModel.size(); i++) {
+            total += cartModel.get(i).getTotal();
         }
+        cartTotalLabel.setText("Cart Total: $" + String.format("%.2f", total));
     }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+package gui;
+
+import utils.LedgerScanner;
+import utils.PurchaseManager;
+import utils.SalesQuery;
+
+import javax.swing.table.AbstractTableModel;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Table model over the purchase ledger that only reads the rows being displayed.
+ * It holds one file offset per row; the cells of a row are read from the mapped ledger
+ * and formatted when the table asks for them, and a small cache keeps the rows on screen.
+ * Sorting reorders the offsets by a key computed in one pass over the rows.
+ */
+public class SalesTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Medicine", "Qty", "Price", "Total", "Time"};
+    private static final int CACHE_ROWS = 512;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private long[] offsets = new long[0];
+    private LedgerScanner.Reader reader;
+    private int sortColumn = -1;
+    private boolean ascending = true;
+
+    // Formatted rows recently shown, dropped oldest first
+    private final Map<Integer, Object[]> cache = new LinkedHashMap<>(CACHE_ROWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest) {
+            return size() > CACHE_ROWS;
+        }
+    };
+
+    /**
+     * Show the rows of a selection in ledger (time) order
+     */
+    public void setSelection(SalesQuery.Selection selection) {
+        offsets = selection.getOffsets();
+        sortColumn = -1;
+        reopen();
+        fireTableDataChanged();
+    }
+
+    public void clear() {
+        offsets = new long[0];
+        reopen();
+        fireTableDataChanged();
+    }
+
+    public int getSortColumn() { return sortColumn; }
+    public boolean isAscending() { return ascending; }
+
+    /**
+     * Sort by a column. Calling it again for the same column flips the direction.
+     * Reads every row of the selection, so prefer {@link #prepareSort} off the event thread.
+     */
+    public void sortBy(int column) {
+        apply(prepareSort(column).run());
+    }
+
+    /**
+     * Capture what a sort by this column needs; {@link Sort#run()} can then be called on any thread
+     * and the result handed back to {@link #apply} on the event thread.
+     */
+    public Sort prepareSort(int column) {
+        boolean up = column != sortColumn || !ascending;
+        return new Sort(offsets, column, up);
+    }
+
+    /**
+     * Show the outcome of a sort, unless the selection changed while it was running
+     */
+    public void apply(Sort sort) {
+        if (sort.source != offsets || sort.sorted == null) {
+            return;
+        }
+        offsets = sort.sorted;
+        sortColumn = sort.column;
+        ascending = sort.ascending;
+        cache.clear();
+        fireTableDataChanged();
+    }
+
+    /**
+     * A sort of one selection, computed with its own ledger reader
+     */
+    public static class Sort {
+        private final long[] source;
+        private final int column;
+        private final boolean ascending;
+        private long[] sorted;
+
+        private Sort(long[] source, int column, boolean ascending) {
+            this.source = source;
+            this.column = column;
+            this.ascending = ascending;
+        }
+
+        public Sort run() {
+            long[] result = source.clone();
+            long[] keys = new long[result.length];
+            try (LedgerScanner.Reader rows = new LedgerScanner.Reader(PurchaseManager.getLedgerFile())) {
+                Map<String, Integer> nameRanks = column == 0 ? rankNames(rows, result) : null;
+                for (int i = 0; i < result.length; i++) {
+                    Long key = rows.readAt(result[i], row -> row == null ? null : switch (column) {
+                        case 0 -> (long) nameRanks.get(row.getMedicineName());
+                        case 1 -> (long) row.getQuantity();
+                        case 2 -> sortable(row.getPrice());
+                        case 3 -> sortable(row.getTotal());
+                        default -> row.getEpochSecond();
+                    });
+                    if (key == null) {
+                        keys[i] = Long.MIN_VALUE;
+                    } else {
+                        keys[i] = ascending ? key : -key - 1; // reverses the order without overflow
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Error sorting purchases: " + e.getMessage());
+                return this;
+            }
+            sort(keys, result, 0, result.length - 1);
+            sorted = result;
+            return this;
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return offsets.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 1 ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        Object[] row = cache.get(rowIndex);
+        if (row == null) {
+            row = read(offsets[rowIndex]);
+            if (row == null) {
+                row = new Object[]{"?", 0, "", "", ""};
+            }
+            cache.put(rowIndex, row);
+        }
+        return row[columnIndex];
+    }
+
+    // The cells of one row, or null if it cannot be read
+    private Object[] read(long offset) {
+        try {
+            if (reader == null) {
+                reader = new LedgerScanner.Reader(PurchaseManager.getLedgerFile());
+            }
+            return reader.readAt(offset, view -> {
+                if (view == null) {
+                    return null;
+                }
+                LocalDateTime time = LocalDateTime.ofEpochSecond(view.getEpochSecond(), 0, ZoneOffset.UTC);
+                return new Object[]{
+                    view.getMedicineName(),
+                    view.getQuantity(),
+                    "$" + String.format("%.2f", view.getPrice()),
+                    "$" + String.format("%.2f", view.getTotal()),
+                    TIME_FORMAT.format(time)
+                };
+            });
+        } catch (IOException e) {
+            System.out.println("Error reading purchase: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void reopen() {
+        cache.clear();
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException ignored) {}
+            reader = null;
+        }
+    }
+
+    // Position of each distinct name in alphabetical order
+    private static Map<String, Integer> rankNames(LedgerScanner.Reader rows, long[] offsets) throws IOException {
+        TreeSet<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (long offset : offsets) {
+            String name = rows.readAt(offset, row -> row == null ? null : row.getMedicineName());
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        Map<String, Integer> ranks = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int rank = 0;
+        for (String name : names) {
+            ranks.put(name, rank++);
+        }
+        return ranks;
+    }
+
+    // Map a double to a long with the same ordering
+    private static long sortable(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+    }
+
+    // Quicksort of the offsets by key (ties keep ledger order), without boxing
+    private static void sort(long[] keys, long[] offsets, int low, int high) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long pivotKey = keys[mid];
+            long pivotOffset = offsets[mid];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivotKey || (keys[i] == pivotKey && offsets[i] < pivotOffset)) i++;
+                while (keys[j] > pivotKey || (keys[j] == pivotKey && offsets[j] > pivotOffset)) j--;
+                if (i <= j) {
+                    long k = keys[i]; keys[i] = keys[j]; keys[j] = k;
+                    long o = offsets[i]; offsets[i] = offsets[j]; offsets[j] = o;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half, loop on the larger one
+            if (j - low < high - i) {
+                sort(keys, offsets, low, j);
+                low = i;
+            } else {
+                sort(keys, offsets, i, high);
+                high = j;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package gui;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Text field that offers the best matches for what was typed so far in a popup list.
+ * Up/Down move through the list, Enter or a click takes a match, Escape closes it.
+ * The search runs on the event dispatch thread on every keystroke, so it must be an
+ * in-memory lookup such as {@link utils.NameSearch}.
+ */
+public class TypeAheadField extends JTextField {
+    private final BiFunction<String, Integer, List<String>> search;
+    private final int limit;
+    private final DefaultListModel<String> matches = new DefaultListModel<>();
+    private final JList<String> matchList = new JList<>(matches);
+    private final JPopupMenu popup = new JPopupMenu();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    // Set while a match is written into the field, so that does not search again
+    private boolean choosing = false;
+
+    /**
+     * @param search returns up to the given number of matches for a query
+     * @param limit number of matches to show
+     */
+    public TypeAheadField(BiFunction<String, Integer, List<String>> search, int limit) {
+        this.search = search;
+        this.limit = limit;
+
+        matchList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        matchList.setFocusable(false);
+        popup.setFocusable(false);
+        popup.add(new JScrollPane(matchList));
+
+        getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { changed(); }
+            @Override public void removeUpdate(DocumentEvent e) { changed(); }
+            @Override public void changedUpdate(DocumentEvent e) { changed(); }
+        });
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!popup.isVisible()) {
+                    return;
+                }
+                int selected = matchList.getSelectedIndex();
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN:
+                        select(Math.min(selected + 1, matches.size() - 1));
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_UP:
+                        select(Math.max(selected - 1, 0));
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_ENTER:
+                        choose(matches.get(Math.max(selected, 0)));
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_ESCAPE:
+                        popup.setVisible(false);
+                        e.consume();
+                        break;
+                    default:
+                }
+            }
+        });
+        matchList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = matchList.locationToIndex(e.getPoint());
+                if (index >= 0) {
+                    choose(matches.get(index));
+                }
+            }
+        });
+        addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                popup.setVisible(false);
+            }
+        });
+    }
+
+    /**
+     * The listener gets the match the user took (Enter or click)
+     */
+    public void addChoiceListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    private void changed() {
+        if (choosing) {
+            return;
+        }
+        // The document may not be read back while it is being changed
+        SwingUtilities.invokeLater(this::showMatches);
+    }
+
+    private void showMatches() {
+        matches.clear();
+        String text = getText();
+        if (!text.isBlank() && isShowing()) {
+            for (String match : search.apply(text, limit)) {
+                matches.addElement(match);
+            }
+        }
+        if (matches.isEmpty()) {
+            popup.setVisible(false);
+            return;
+        }
+        matchList.setVisibleRowCount(Math.min(matches.size(), limit));
+        select(0);
+        popup.pack();
+        popup.setPopupSize(Math.max(getWidth(), popup.getPreferredSize().width), popup.getPreferredSize().height);
+        if (!popup.isVisible()) {
+            popup.show(this, 0, getHeight());
+        }
+        requestFocusInWindow();
+    }
+
+    private void select(int index) {
+        matchList.setSelectedIndex(index);
+        matchList.ensureIndexIsVisible(index);
+    }
+
+    private void choose(String match) {
+        choosing = true;
+        try {
+            setText(match);
+        } finally {
+            choosing = false;
+        }
+        popup.setVisible(false);
+        for (Consumer<String> listener : listeners) {
+            listener.accept(match);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package gui;
+
+import utils.AsyncService;
+import utils.Metrics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs work off the event dispatch thread and hands the result back to it.
+ * While the work is in flight the given controls are disabled and the window shows a
+ * wait cursor, so a slow disk never freezes the GUI or lets a button be pressed twice.
+ */
+public class UiTask {
+    // From start until the result is back on the event thread, and the time onDone then takes there (dialogs it opens included)
+    private static final Metrics.Timer workTime = Metrics.timer("ui.task");
+    private static final Metrics.Timer updateTime = Metrics.timer("ui.update");
+    private static final Metrics.Counter failures = Metrics.counter("ui.failures");
+
+    /**
+     * @param owner window (or a component in it) that shows the busy cursor
+     * @param controls controls to disable until the work is done
+     * @param work runs in the background, must not touch Swing components
+     * @param onDone runs on the event dispatch thread with the result
+     */
+    public static <T> void run(Component owner, JComponent[] controls, Supplier<T> work, Consumer<T> onDone) {
+        boolean[] wasEnabled = new boolean[controls.length];
+        for (int i = 0; i < controls.length; i++) {
+            wasEnabled[i] = controls[i].isEnabled();
+            controls[i].setEnabled(false);
+        }
+        setBusy(owner, true);
+        long start = System.nanoTime();
+        AsyncService.supply(work).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            workTime.recordSince(start);
+            long updating = System.nanoTime();
+            for (int i = 0; i < controls.length; i++) {
+                controls[i].setEnabled(wasEnabled[i]);
+            }
+            setBusy(owner, false);
+            if (error != null) {
+                failures.increment();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                JOptionPane.showMessageDialog(owner, "❌ Error: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                onDone.accept(result);
+                updateTime.recordSince(updating);
+            }
+        }));
+    }
+
+    /**
+     * Same as {@link #run(Component, JComponent[], Supplier, Consumer)} for work without a result
+     */
+    public static void run(Component owner, JComponent[] controls, Runnable work, Runnable onDone) {
+        run(owner, controls, () -> {
+            work.run();
+            return null;
+        }, ignored -> onDone.run());
+    }
+
+    public static JComponent[] controls(JComponent... controls) {
+        return controls;
+    }
+
+    // Nested tasks on the same window keep the wait cursor until the last one finishes
+    private static void setBusy(Component owner, boolean busy) {
+        JRootPane root = SwingUtilities.getRootPane(owner);
+        if (root == null) {
+            return;
+        }
+        Integer count = (Integer) root.getClientProperty(UiTask.class);
+        int pending = (count == null ? 0 : count) + (busy ? 1 : -1);
+        root.putClientProperty(UiTask.class, pending);
+        root.setCursor(pending > 0 ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
+    }
+}
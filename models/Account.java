@@ -0,0 +1,53 @@
+package models;
+
+/**
+ * A login as stored by the user directory: {@code id,username,passwordHash,role}.
+ * The password is a PBKDF2 hash, or plaintext in files that have not been migrated yet.
+ */
+public class Account {
+    private final long id;
+    private final String username;
+    private final String password;
+    private final String role;
+
+    public Account(long id, String username, String password, String role) {
+        this.id = id;
+        this.username = username;
+        this.password = password;
+        this.role = role;
+    }
+
+    public long getId() { return id; }
+    public String getUsername() { return username; }
+    public String getPassword() { return password; }
+    public String getRole() { return role; }
+
+    @Override
+    public String toString() {
+        return id + "," + username + "," + password + "," + role;
+    }
+
+    /**
+     * Parse a line written by {@link #toString()}, or an older {@code username,password,role} one (ID 0).
+     * Split by hand, the directory can hold millions of lines.
+     * @return the account, or null if the line is not readable
+     */
+    public static Account fromString(String line) {
+        int a = line.indexOf(',');
+        int b = a < 0 ? -1 : line.indexOf(',', a + 1);
+        if (b < 0) {
+            return null;
+        }
+        int c = line.indexOf(',', b + 1);
+        if (c < 0) {
+            return new Account(0, line.substring(0, a).trim(), line.substring(a + 1, b).trim(),
+                    line.substring(b + 1).trim().intern());
+        }
+        try {
+            return new Account(Long.parseLong(line.substring(0, a).trim()), line.substring(a + 1, b).trim(),
+                    line.substring(b + 1, c).trim(), line.substring(c + 1).trim().intern());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
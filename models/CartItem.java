@@ -0,0 +1,26 @@
+package models;
+
+/**
+ * One line of a cart: a medicine, how many and the unit price shown to the buyer
+ */
+public class CartItem {
+    private final String medicineName;
+    private final int quantity;
+    private final double price;
+
+    public CartItem(String medicineName, int quantity, double price) {
+        this.medicineName = medicineName;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    public String getMedicineName() { return medicineName; }
+    public int getQuantity() { return quantity; }
+    public double getPrice() { return price; }
+    public double getTotal() { return price * quantity; }
+
+    @Override
+    public String toString() {
+        return medicineName + " x" + quantity + " @ $" + String.format("%.2f", price);
+    }
+}
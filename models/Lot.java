@@ -0,0 +1,75 @@
+package models;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A quantity of one medicine sharing an expiry date.
+ * Lots of a medicine are told apart by their expiry day.
+ */
+public class Lot {
+    private final long expiryDay; // days since 1970-01-01
+    private volatile int quantity;
+
+    public Lot(long expiryDay, int quantity) {
+        this.expiryDay = expiryDay;
+        this.quantity = quantity;
+    }
+
+    public long getExpiryDay() { return expiryDay; }
+    public LocalDate getExpiry() { return LocalDate.ofEpochDay(expiryDay); }
+    public int getQuantity() { return quantity; }
+
+    void setQuantity(int quantity) { this.quantity = quantity; }
+
+    /**
+     * @return expiry and quantity as {@code yyyy-mm-dd:quantity}
+     */
+    @Override
+    public String toString() {
+        return getExpiry() + ":" + quantity;
+    }
+
+    /**
+     * Format lots as {@code yyyy-mm-dd:quantity;yyyy-mm-dd:quantity}
+     */
+    public static String format(List<Lot> lots) {
+        StringBuilder sb = new StringBuilder();
+        for (Lot lot : lots) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(lot);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse lots written by {@link #format}
+     * @return the lots, or null if the text is not readable
+     */
+    public static List<Lot> parse(String text) {
+        List<Lot> lots = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf(';', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            int colon = text.indexOf(':', start);
+            if (colon < 0 || colon > end) {
+                return null;
+            }
+            try {
+                lots.add(new Lot(LocalDate.parse(text.substring(start, colon).trim()).toEpochDay(),
+                        Integer.parseInt(text.substring(colon + 1, end).trim())));
+            } catch (NumberFormatException | DateTimeException e) {
+                return null;
+            }
+            start = end + 1;
+        }
+        return lots;
+    }
+}
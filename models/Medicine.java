@@ -1,28 +1,242 @@
 package models;
 
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A medicine (SKU) and its stock, held as lots ordered by expiry.
+ * The quantity is the total of all lots and the expiry date is that of the first lot to
+ * expire, or the last one known when the medicine is out of stock. Sales take from the
+ * first-expiring lot first (FEFO).
+ *
+ * Changes to the lots are made by one thread at a time (the inventory holds the stock lock
+ * of the medicine), while other threads may read them at any time.
+ */
 public class Medicine {
+    // Lots field of a record whose lots are stored on their own, see toRecord()
+    private static final String LOTS_APART = "*";
+
+    private long id; // 0 until the catalog assigns one
     private String name;
-    private int quantity;
+    private volatile int quantity;
     private double price;
-    private String expiryDate;
+    private volatile long expiryDay; // days since 1970-01-01
+    // Expiry day -> lot; the first entry is the one to sell first
+    private final ConcurrentSkipListMap<Long, Lot> lots = new ConcurrentSkipListMap<>();
+    // Its lots are stored as lot records, so the stored form leaves them out (see toRecord())
+    private boolean lotsApart = false;
+
+    public Medicine(String name, int quantity, double price, long expiryDay) {
+        this(0, name, quantity, price, expiryDay);
+    }
 
-    public Medicine(String name, int quantity, double price, String expiryDate) {
+    /**
+     * A medicine with a single lot
+     */
+    public Medicine(long id, String name, int quantity, double price, long expiryDay) {
+        this(id, name, price, expiryDay, List.of(new Lot(expiryDay, quantity)));
+    }
+
+    /**
+     * A medicine with the given lots (lots with the same expiry are added together)
+     * @param expiryDay expiry to report if there are no lots in stock
+     */
+    public Medicine(long id, String name, double price, long expiryDay, Collection<Lot> lots) {
+        this.id = id;
         this.name = name;
-        this.quantity = quantity;
         this.price = price;
-        this.expiryDate = expiryDate;
+        this.expiryDay = expiryDay;
+        for (Lot lot : lots) {
+            addLot(lot.getExpiryDay(), lot.getQuantity());
+        }
     }
 
+    public long getId() { return id; }
     public String getName() { return name; }
     public int getQuantity() { return quantity; }
     public double getPrice() { return price; }
-    public String getExpiryDate() { return expiryDate; }
+    public long getExpiryDay() { return expiryDay; }
+    public LocalDate getExpiry() { return LocalDate.ofEpochDay(expiryDay); }
+    /** Expiry as yyyy-mm-dd */
+    public String getExpiryDate() { return getExpiry().toString(); }
+
+    /**
+     * @return copies of the lots in stock, first to expire first
+     */
+    public List<Lot> getLots() {
+        List<Lot> result = new ArrayList<>(lots.size());
+        for (Lot lot : lots.values()) {
+            result.add(new Lot(lot.getExpiryDay(), lot.getQuantity()));
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the lots of this medicine are stored on their own (see {@link #toRecord()})
+     */
+    public boolean hasLotsApart() {
+        return lotsApart;
+    }
+
+    public void setLotsApart(boolean lotsApart) {
+        this.lotsApart = lotsApart;
+    }
+
+    public int getLotCount() {
+        return lots.size();
+    }
+
+    /**
+     * @return the lot in stock with this expiry (the live object), or null
+     */
+    public Lot getLot(long expiryDay) {
+        return lots.get(expiryDay);
+    }
+
+    /**
+     * Copy of this medicine and its lots under another ID, name and price
+     */
+    public Medicine copy(long id, String name, double price) {
+        return new Medicine(id, name, price, expiryDay, lots.values());
+    }
+
+    public Medicine withId(long id) {
+        return copy(id, name, price);
+    }
 
-    public void setQuantity(int quantity) { this.quantity = quantity; }
+    /**
+     * Add stock to the lot with this expiry, creating it if needed. O(log lots).
+     * @return the lot, or null if the quantity is not positive
+     */
+    public Lot addLot(long expiryDay, int quantity) {
+        if (quantity <= 0) {
+            return null;
+        }
+        Lot lot = lots.get(expiryDay);
+        if (lot == null) {
+            lot = new Lot(expiryDay, quantity);
+            lots.put(expiryDay, lot);
+        } else {
+            lot.setQuantity(lot.getQuantity() + quantity);
+        }
+        this.quantity += quantity;
+        this.expiryDay = lots.firstKey();
+        return lot;
+    }
 
+    /**
+     * Set the stock of the lot with this expiry; 0 removes the lot
+     */
+    public void setLot(long expiryDay, int quantity) {
+        Lot lot = lots.remove(expiryDay);
+        if (lot != null) {
+            this.quantity -= lot.getQuantity();
+        }
+        if (quantity > 0) {
+            addLot(expiryDay, quantity);
+        } else if (!lots.isEmpty()) {
+            this.expiryDay = lots.firstKey();
+        }
+    }
 
+    /**
+     * Which lots a sale of this quantity would take from, first-expiring first.
+     * Nothing is changed. O(log lots + k) for the k lots drawn.
+     * @return the quantity to take from each lot, or null if there is not enough stock
+     */
+    public List<Lot> planDraw(int quantity) {
+        if (quantity > this.quantity) {
+            return null;
+        }
+        List<Lot> plan = new ArrayList<>();
+        int left = quantity;
+        for (Lot lot : lots.values()) {
+            if (left == 0) {
+                break;
+            }
+            int take = Math.min(left, lot.getQuantity());
+            plan.add(new Lot(lot.getExpiryDay(), take));
+            left -= take;
+        }
+        return left == 0 ? plan : null;
+    }
+
+    /**
+     * Take stock as planned by {@link #planDraw}. O(k log lots) for the k lots drawn.
+     * @return expiry days of the lots that are now empty (and removed)
+     */
+    public List<Long> draw(List<Lot> plan) {
+        List<Long> emptied = new ArrayList<>();
+        for (Lot taken : plan) {
+            Lot lot = lots.get(taken.getExpiryDay());
+            int left = lot.getQuantity() - taken.getQuantity();
+            quantity -= taken.getQuantity();
+            if (left > 0) {
+                lot.setQuantity(left);
+            } else {
+                lots.remove(taken.getExpiryDay());
+                emptied.add(taken.getExpiryDay());
+            }
+        }
+        if (!lots.isEmpty()) {
+            expiryDay = lots.firstKey();
+        }
+        return emptied;
+    }
+
+    /**
+     * @return {@code id,name,quantity,price,expiry}, followed by {@code ,lots} when there is more than one lot
+     */
     @Override
     public String toString() {
-        return name + "," + quantity + "," + price + "," + expiryDate;
+        String line = id + "," + name + "," + quantity + "," + price + "," + getExpiryDate();
+        return lots.size() > 1 ? line + "," + Lot.format(getLots()) : line;
+    }
+
+    /**
+     * The stored form. If the lots are stored apart that is {@code id,name,quantity,price,expiry,*}:
+     * the inventory keeps them as {@link StockLot} records, so a sale does not rewrite the medicine,
+     * and the quantity here is the stock when the record was written. Otherwise it is {@link #toString()}.
+     */
+    public String toRecord() {
+        if (!lotsApart) {
+            return toString();
+        }
+        return id + "," + name + "," + quantity + "," + price + "," + getExpiryDate() + "," + LOTS_APART;
+    }
+
+    /**
+     * Parse a line written by {@link #toString()} or {@link #toRecord()} (it then has no lots and
+     * {@link #hasLotsApart()}), or an older one without the ID (the ID is then 0)
+     * @return the medicine, or null if the line is not readable
+     */
+    public static Medicine fromString(String line) {
+        String[] data = line.split(",");
+        if (data.length < 4) {
+            return null;
+        }
+        try {
+            if (data.length >= 6 && data[5].trim().equals(LOTS_APART)) {
+                Medicine medicine = new Medicine(Long.parseLong(data[0].trim()), data[1], Double.parseDouble(data[3].trim()),
+                        LocalDate.parse(data[4].trim()).toEpochDay(), List.of());
+                medicine.lotsApart = true;
+                return medicine;
+            }
+            if (data.length >= 6) {
+                List<Lot> lots = Lot.parse(data[5]);
+                return lots == null ? null : new Medicine(Long.parseLong(data[0].trim()), data[1],
+                        Double.parseDouble(data[3].trim()), LocalDate.parse(data[4].trim()).toEpochDay(), lots);
+            }
+            if (data.length == 5) {
+                return new Medicine(Long.parseLong(data[0].trim()), data[1], Integer.parseInt(data[2].trim()),
+                        Double.parseDouble(data[3].trim()), LocalDate.parse(data[4].trim()).toEpochDay());
+            }
+            return new Medicine(data[0], Integer.parseInt(data[1].trim()),
+                    Double.parseDouble(data[2].trim()), LocalDate.parse(data[3].trim()).toEpochDay());
+        } catch (NumberFormatException | DateTimeException e) {
+            return null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package models;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 
 public class Purchase {
     private String medicineName;
@@ -9,9 +10,15 @@ public class Purchase {
     private double price;
     private double total;
     private LocalDateTime purchaseTime;
+    private List<Lot> lots; // lots the stock was taken from, empty if not known
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     public Purchase(String medicineName, int quantity, double price, LocalDateTime purchaseTime) {
+        this(medicineName, quantity, price, purchaseTime, List.of());
+    }
+
+    public Purchase(String medicineName, int quantity, double price, LocalDateTime purchaseTime, List<Lot> lots) {
+        this.lots = lots;
         this.medicineName = medicineName;
         this.quantity = quantity;
         this.price = price;
@@ -24,6 +31,7 @@ public class Purchase {
     public double getPrice() { return price; }
     public double getTotal() { return total; }
     public LocalDateTime getPurchaseTime() { return purchaseTime; }
+    public List<Lot> getLots() { return lots; }
     
     public String getFormattedTime() {
         return purchaseTime.format(formatter);
@@ -31,7 +39,8 @@ public class Purchase {
 
     @Override
     public String toString() {
-        return medicineName + "," + quantity + "," + price + "," + total + "," + getFormattedTime();
+        String line = medicineName + "," + quantity + "," + price + "," + total + "," + getFormattedTime();
+        return lots.isEmpty() ? line : line + "," + Lot.format(lots);
     }
     
     public static Purchase fromString(String line) {
@@ -40,7 +49,8 @@ public class Purchase {
         int qty = Integer.parseInt(parts[1]);
         double price = Double.parseDouble(parts[2]);
         LocalDateTime time = LocalDateTime.parse(parts[4], formatter);
-        
-        return new Purchase(name, qty, price, time);
+        List<Lot> lots = parts.length > 5 ? Lot.parse(parts[5]) : null;
+
+        return new Purchase(name, qty, price, time, lots == null ? List.of() : lots);
     }
 }
@@ -0,0 +1,36 @@
+package models;
+
+/**
+ * Outcome of a checkout. Rejected sales carry the reason so the dashboards can show it.
+ */
+public class SaleResult {
+    public enum Status { OK, INVALID_QUANTITY, UNKNOWN_MEDICINE, INSUFFICIENT_STOCK, STORAGE_ERROR }
+
+    private final Status status;
+    private final String message;
+    private final double total;
+
+    private SaleResult(Status status, String message, double total) {
+        this.status = status;
+        this.message = message;
+        this.total = total;
+    }
+
+    public static SaleResult ok(double total) {
+        return new SaleResult(Status.OK, "Sale recorded", total);
+    }
+
+    public static SaleResult rejected(Status status, String message) {
+        return new SaleResult(status, message, 0);
+    }
+
+    public boolean isSuccess() { return status == Status.OK; }
+    public Status getStatus() { return status; }
+    public String getMessage() { return message; }
+    public double getTotal() { return total; }
+
+    @Override
+    public String toString() {
+        return status + ": " + message;
+    }
+}
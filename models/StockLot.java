@@ -0,0 +1,84 @@
+package models;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * The stored stock of one lot of one medicine. The inventory keeps one of these per lot
+ * apart from the medicine record. A record holds the stock as of a position in the sales
+ * ledger ({@link #getLedgerOffset()}); the sales recorded from there on are not in it yet.
+ * A quantity of 0 means the lot is empty: the inventory deletes its record in the same write as
+ * the other changes. The record of medicine 0 ({@link #checkpoint}) holds no stock, it marks how
+ * far into the ledger every lot record is up to date.
+ */
+public class StockLot {
+    // Expiry days from -2^22 to 2^22 (any yyyy-mm-dd date) fit in the low bits of the ID
+    private static final int DAY_BITS = 23;
+    private static final long DAY_OFFSET = 1L << (DAY_BITS - 1);
+
+    private final long medicineId;
+    private final long expiryDay; // days since 1970-01-01
+    private final int quantity;
+    private final long ledgerOffset;
+
+    public StockLot(long medicineId, long expiryDay, int quantity, long ledgerOffset) {
+        if (expiryDay < -DAY_OFFSET || expiryDay >= DAY_OFFSET) {
+            throw new IllegalArgumentException("Expiry out of range: " + LocalDate.ofEpochDay(expiryDay));
+        }
+        this.medicineId = medicineId;
+        this.expiryDay = expiryDay;
+        this.quantity = quantity;
+        this.ledgerOffset = ledgerOffset;
+    }
+
+    /**
+     * The record that says every lot record holds the sales of the ledger up to this offset
+     */
+    public static StockLot checkpoint(long ledgerOffset) {
+        return new StockLot(0, 0, 0, ledgerOffset);
+    }
+
+    public boolean isCheckpoint() {
+        return medicineId == 0;
+    }
+
+    /**
+     * ID of the lot record, made of the medicine ID and the expiry day
+     */
+    public long getId() {
+        return (medicineId << DAY_BITS) | (expiryDay + DAY_OFFSET);
+    }
+
+    public long getMedicineId() { return medicineId; }
+    public long getExpiryDay() { return expiryDay; }
+    public int getQuantity() { return quantity; }
+    /** Length of the sales ledger when the record was written: later sales are not in the quantity */
+    public long getLedgerOffset() { return ledgerOffset; }
+
+    /**
+     * @return {@code id,medicineId,yyyy-mm-dd,quantity,ledgerOffset}
+     */
+    @Override
+    public String toString() {
+        return getId() + "," + medicineId + "," + LocalDate.ofEpochDay(expiryDay) + "," + quantity + "," + ledgerOffset;
+    }
+
+    /**
+     * Parse a line written by {@link #toString()}. Lines written before the ledger offset
+     * was stored have none and get 0.
+     * @return the lot, or null if the line is not readable
+     */
+    public static StockLot fromString(String line) {
+        String[] data = line.split(",");
+        if (data.length != 4 && data.length != 5) {
+            return null;
+        }
+        try {
+            StockLot lot = new StockLot(Long.parseLong(data[1].trim()), LocalDate.parse(data[2].trim()).toEpochDay(),
+                    Integer.parseInt(data[3].trim()), data.length == 5 ? Long.parseLong(data[4].trim()) : 0);
+            return lot.getId() == Long.parseLong(data[0].trim()) ? lot : null;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return null;
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package models;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Supplier {
+    private long id; // 0 until saved
     private String name;
     private String phone;
     private String address;
     private String suppliedMedicines;
 
     public Supplier(String name, String phone, String address, String suppliedMedicines) {
+        this(0, name, phone, address, suppliedMedicines);
+    }
+
+    public Supplier(long id, String name, String phone, String address, String suppliedMedicines) {
+        this.id = id;
         this.name = name;
         this.phone = phone;
         this.address = address;
@@ -14,6 +23,10 @@ public class Supplier {
     }
 
     // Getters
+    public long getId() {
+        return id;
+    }
+
     public String getName() {
         return name;
     }
@@ -30,7 +43,32 @@ public class Supplier {
         return suppliedMedicines;
     }
 
+    /**
+     * @return the supplied medicines as a list of names (the text is separated by commas or semicolons)
+     */
+    public List<String> getMedicineNames() {
+        List<String> names = new ArrayList<>();
+        if (suppliedMedicines == null) {
+            return names;
+        }
+        int start = 0;
+        for (int i = 0; i <= suppliedMedicines.length(); i++) {
+            if (i == suppliedMedicines.length() || suppliedMedicines.charAt(i) == ',' || suppliedMedicines.charAt(i) == ';') {
+                String name = suppliedMedicines.substring(start, i).trim();
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+                start = i + 1;
+            }
+        }
+        return names;
+    }
+
     // Setters
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
@@ -50,12 +88,35 @@ public class Supplier {
     // Safer string conversion using "||" as delimiter
     @Override
     public String toString() {
-        return name + "||" + phone + "||" + address + "||" + suppliedMedicines;
+        return id + "||" + name + "||" + phone + "||" + address + "||" + suppliedMedicines;
     }
 
+    // Lines written before suppliers had IDs have four fields, the ID is then 0.
+    // Empty fields are kept, so a supplier without medicines still has five.
     public static Supplier fromString(String line) {
-        String[] parts = line.split("\\|\\|");
-        if (parts.length == 4) {
+        String[] parts = new String[5];
+        int count = 0;
+        int start = 0;
+        while (true) {
+            if (count == parts.length) {
+                return null;
+            }
+            int separator = line.indexOf("||", start);
+            if (separator < 0) {
+                parts[count++] = line.substring(start);
+                break;
+            }
+            parts[count++] = line.substring(start, separator);
+            start = separator + 2;
+        }
+        if (count == 5) {
+            try {
+                return new Supplier(Long.parseLong(parts[0]), parts[1], parts[2], parts[3], parts[4]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (count == 4) {
             return new Supplier(parts[0], parts[1], parts[2], parts[3]);
         }
         return null;
@@ -0,0 +1,270 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * B+tree from long keys to byte values on the pages of a {@link Pager}.
+ * Leaves hold the values and are chained left to right for ordered scans; inner pages hold
+ * separator keys. Nodes are decoded from their page, changed and encoded back, and split
+ * when they no longer fit. Deletes leave pages underfull instead of merging them, which
+ * keeps the code small and costs little for catalogs that mostly grow.
+ * Changes must run inside a pager transaction.
+ */
+class BTree {
+    static final int MAX_VALUE = 1024;
+    private static final byte LEAF = 1;
+    private static final byte INNER = 2;
+    private static final int NODE_HEADER = 7; // type, entry count, next leaf or leftmost child
+
+    interface Visitor {
+        void visit(long key, byte[] value) throws IOException;
+    }
+
+    private static final class Node {
+        final boolean leaf;
+        int link; // next leaf, or the child holding keys below the first separator
+        final List<Long> keys = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();  // leaves
+        final List<Integer> children = new ArrayList<>(); // inner: child holding keys >= keys[i]
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        int size() {
+            int size = NODE_HEADER;
+            for (int i = 0; i < keys.size(); i++) {
+                size += leaf ? 8 + 2 + values.get(i).length : 8 + 4;
+            }
+            return size;
+        }
+    }
+
+    // Separator key and new right sibling produced by a split
+    private static final class Split {
+        final long key;
+        final int right;
+
+        Split(long key, int right) {
+            this.key = key;
+            this.right = right;
+        }
+    }
+
+    private final Pager pager;
+
+    /**
+     * Use the tree in this file, creating an empty one if it has none
+     */
+    BTree(Pager pager) throws IOException {
+        this.pager = pager;
+        if (pager.getRoot() == 0) {
+            pager.begin();
+            try {
+                int root = pager.allocate();
+                write(root, new Node(true));
+                pager.setRoot(root);
+                pager.commit();
+            } catch (IOException | RuntimeException e) {
+                pager.rollback();
+                throw e;
+            }
+        }
+    }
+
+    byte[] get(long key) throws IOException {
+        Node node = read(pager.getRoot());
+        while (!node.leaf) {
+            node = read(childFor(node, key));
+        }
+        int i = search(node.keys, key);
+        return i >= 0 ? node.values.get(i) : null;
+    }
+
+    void put(long key, byte[] value) throws IOException {
+        if (value.length > MAX_VALUE) {
+            throw new IOException("Record of " + value.length + " bytes is larger than " + MAX_VALUE);
+        }
+        int root = pager.getRoot();
+        Split split = insert(root, key, value);
+        if (split != null) {
+            Node newRoot = new Node(false);
+            newRoot.link = root;
+            newRoot.keys.add(split.key);
+            newRoot.children.add(split.right);
+            int id = pager.allocate();
+            write(id, newRoot);
+            pager.setRoot(id);
+        }
+    }
+
+    /**
+     * @return true if the key was there
+     */
+    boolean delete(long key) throws IOException {
+        int id = pager.getRoot();
+        Node node = read(id);
+        while (!node.leaf) {
+            id = childFor(node, key);
+            node = read(id);
+        }
+        int i = search(node.keys, key);
+        if (i < 0) {
+            return false;
+        }
+        node.keys.remove(i);
+        node.values.remove(i);
+        write(id, node);
+        return true;
+    }
+
+    /**
+     * Visit every entry in key order
+     */
+    void scan(Visitor visitor) throws IOException {
+        Node node = read(pager.getRoot());
+        while (!node.leaf) {
+            node = read(node.link);
+        }
+        while (true) {
+            for (int i = 0; i < node.keys.size(); i++) {
+                visitor.visit(node.keys.get(i), node.values.get(i));
+            }
+            if (node.link == 0) {
+                return;
+            }
+            node = read(node.link);
+        }
+    }
+
+    private Split insert(int id, long key, byte[] value) throws IOException {
+        Node node = read(id);
+        if (node.leaf) {
+            int i = search(node.keys, key);
+            if (i >= 0) {
+                node.values.set(i, value);
+            } else {
+                node.keys.add(-i - 1, key);
+                node.values.add(-i - 1, value);
+            }
+            if (node.size() <= Pager.PAGE_SIZE) {
+                write(id, node);
+                return null;
+            }
+            return splitLeaf(id, node);
+        }
+
+        int slot = slotFor(node, key);
+        Split split = insert(slot < 0 ? node.link : node.children.get(slot), key, value);
+        if (split == null) {
+            return null;
+        }
+        node.keys.add(slot + 1, split.key);
+        node.children.add(slot + 1, split.right);
+        if (node.size() <= Pager.PAGE_SIZE) {
+            write(id, node);
+            return null;
+        }
+        return splitInner(id, node);
+    }
+
+    // Move the upper half (by bytes) of a leaf into a new one
+    private Split splitLeaf(int id, Node node) throws IOException {
+        int half = node.size() / 2;
+        int size = NODE_HEADER;
+        int at = 0;
+        while (at < node.keys.size() - 1 && size < half) {
+            size += 8 + 2 + node.values.get(at).length;
+            at++;
+        }
+        at = Math.max(1, at);
+        Node right = new Node(true);
+        right.keys.addAll(node.keys.subList(at, node.keys.size()));
+        right.values.addAll(node.values.subList(at, node.values.size()));
+        node.keys.subList(at, node.keys.size()).clear();
+        node.values.subList(at, node.values.size()).clear();
+
+        int rightId = pager.allocate();
+        right.link = node.link;
+        node.link = rightId;
+        write(rightId, right);
+        write(id, node);
+        return new Split(right.keys.get(0), rightId);
+    }
+
+    // Move the upper half of an inner node into a new one, pushing the middle key up
+    private Split splitInner(int id, Node node) throws IOException {
+        int mid = node.keys.size() / 2;
+        Node right = new Node(false);
+        long up = node.keys.get(mid);
+        right.link = node.children.get(mid);
+        right.keys.addAll(node.keys.subList(mid + 1, node.keys.size()));
+        right.children.addAll(node.children.subList(mid + 1, node.children.size()));
+        node.keys.subList(mid, node.keys.size()).clear();
+        node.children.subList(mid, node.children.size()).clear();
+
+        int rightId = pager.allocate();
+        write(rightId, right);
+        write(id, node);
+        return new Split(up, rightId);
+    }
+
+    private static int childFor(Node node, long key) {
+        int slot = slotFor(node, key);
+        return slot < 0 ? node.link : node.children.get(slot);
+    }
+
+    // Index of the last separator <= key, or -1 for the leftmost child
+    private static int slotFor(Node node, long key) {
+        int i = search(node.keys, key);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private static int search(List<Long> keys, long key) {
+        int low = 0;
+        int high = keys.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long k = keys.get(mid);
+            if (k < key) low = mid + 1;
+            else if (k > key) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    private Node read(int id) throws IOException {
+        ByteBuffer page = ByteBuffer.wrap(pager.page(id));
+        Node node = new Node(page.get() == LEAF);
+        int count = page.getShort() & 0xffff;
+        node.link = page.getInt();
+        for (int i = 0; i < count; i++) {
+            node.keys.add(page.getLong());
+            if (node.leaf) {
+                byte[] value = new byte[page.getShort() & 0xffff];
+                page.get(value);
+                node.values.add(value);
+            } else {
+                node.children.add(page.getInt());
+            }
+        }
+        return node;
+    }
+
+    private void write(int id, Node node) throws IOException {
+        ByteBuffer page = ByteBuffer.wrap(pager.edit(id));
+        page.put(node.leaf ? LEAF : INNER).putShort((short) node.keys.size()).putInt(node.link);
+        for (int i = 0; i < node.keys.size(); i++) {
+            page.putLong(node.keys.get(i));
+            if (node.leaf) {
+                byte[] value = node.values.get(i);
+                page.putShort((short) value.length).put(value);
+            } else {
+                page.putInt(node.children.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Records in an embedded B+tree file keyed by ID ({@code name.db}).
+ * Every call is one transaction: it either reaches the disk completely or, after a crash
+ * or an error, not at all. Lookups by ID are indexed, pages are cached in a buffer pool,
+ * and the file is locked so only one process uses it at a time.
+ */
+public class BTreeRepository<T> implements Repository<T> {
+    private final Path path;
+    private final Codec<T> codec;
+    private final int cachePages;
+    private Pager pager;
+    private BTree tree;
+
+    /**
+     * @param cachePages pages of {@value Pager#PAGE_SIZE} bytes kept in memory
+     */
+    public BTreeRepository(String fileName, Codec<T> codec, int cachePages) throws IOException {
+        this.path = Paths.get(fileName);
+        this.codec = codec;
+        this.cachePages = cachePages;
+        open();
+    }
+
+    @Override
+    public synchronized List<T> loadAll() {
+        List<T> records = new ArrayList<>();
+        try {
+            tree.scan((id, value) -> {
+                T record = codec.parse(new String(value, StandardCharsets.UTF_8));
+                if (record != null) {
+                    records.add(record);
+                } else {
+                    System.out.println("Skipping bad record " + id + " in " + path);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Error loading " + path + ": " + e.getMessage());
+        }
+        return records;
+    }
+
+    /**
+     * @return the record with this ID, or null
+     */
+    public synchronized T get(long id) {
+        try {
+            byte[] value = tree.get(id);
+            return value == null ? null : codec.parse(new String(value, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("Error reading " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized boolean putAll(Collection<T> records) {
+        try {
+            pager.begin();
+            for (T record : records) {
+                put(tree, record);
+            }
+            pager.commit();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error writing " + path + ": " + e.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized boolean delete(long id) {
+        try {
+            pager.begin();
+            tree.delete(id);
+            pager.commit();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error writing " + path + ": " + e.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized boolean writeAll(Collection<T> records, Collection<Long> deletes) {
+        try {
+            pager.begin();
+            for (T record : records) {
+                put(tree, record);
+            }
+            for (long id : deletes) {
+                tree.delete(id);
+            }
+            pager.commit();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error writing " + path + ": " + e.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    /**
+     * Builds a new file next to the current one and moves it into place, which also
+     * gives back the pages that deletes left empty
+     */
+    @Override
+    public synchronized boolean replaceAll(Collection<T> records) {
+        Path temp = Paths.get(path + ".tmp");
+        try {
+            Files.deleteIfExists(temp);
+            Files.deleteIfExists(Paths.get(temp + "-journal"));
+            try (Pager fresh = new Pager(temp, cachePages)) {
+                BTree freshTree = new BTree(fresh);
+                fresh.begin();
+                for (T record : records) {
+                    put(freshTree, record);
+                }
+                fresh.commit();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error writing " + path + ": " + e.getMessage());
+            return false;
+        }
+        boolean moved = false;
+        try {
+            pager.close();
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } catch (IOException e) {
+            System.out.println("Error replacing " + path + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // only a leftover temp file, the next replaceAll deletes it
+            }
+        }
+        try {
+            open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot reopen " + path + ": " + e.getMessage(), e);
+        }
+        return moved;
+    }
+
+    @Override
+    public synchronized long[] stamp() {
+        try {
+            return new long[]{pager.getChangeCount()};
+        } catch (IOException e) {
+            return new long[]{-1};
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Every change is forced to disk when it commits
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            pager.close();
+        } catch (IOException e) {
+            System.out.println("Error closing " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void put(BTree target, T record) throws IOException {
+        long id = codec.id(record);
+        if (id <= 0) {
+            throw new IOException("Record has no ID: " + codec.format(record));
+        }
+        target.put(id, codec.format(record).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void rollback() {
+        try {
+            pager.rollback();
+        } catch (IOException e) {
+            System.out.println("Error rolling back " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void open() throws IOException {
+        pager = new Pager(path, cachePages);
+        try {
+            tree = new BTree(pager);
+        } catch (IOException e) {
+            pager.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package storage;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * How a repository turns records into text lines and back.
+ * Every record has a numeric ID (its first field); records read from files older than
+ * IDs come back with ID 0 and are given one with {@link #withId}.
+ */
+public final class Codec<T> {
+    private final Function<T, String> format;
+    private final Function<String, T> parse;
+    private final ToLongFunction<T> id;
+    private final BiFunction<T, Long, T> withId;
+
+    public Codec(Function<T, String> format, Function<String, T> parse, ToLongFunction<T> id, BiFunction<T, Long, T> withId) {
+        this.format = format;
+        this.parse = parse;
+        this.id = id;
+        this.withId = withId;
+    }
+
+    public String format(T record) {
+        return format.apply(record);
+    }
+
+    /**
+     * @return the record, or null if the line is not readable
+     */
+    public T parse(String line) {
+        return parse.apply(line);
+    }
+
+    public long id(T record) {
+        return id.applyAsLong(record);
+    }
+
+    public T withId(T record, long id) {
+        return withId.apply(record, id);
+    }
+}
@@ -0,0 +1,323 @@
+package storage;
+
+import utils.Journal;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Records in a text snapshot ({@code name.txt}, one line each) plus a journal of changes
+ * ({@code name.journal}: {@code <tag>,<record>} to insert or replace, {@code X,<id>} to delete).
+ * A change costs one journal append; once the journal grows past a size it is merged into
+ * a new snapshot in the background. The merge only reads the files, so writers never wait for it.
+ */
+public class FlatFileRepository<T> implements Repository<T> {
+    private final Path file;
+    private final Codec<T> codec;
+    private final Journal journal;
+    private final String putTag;
+    private final long compactBytes;
+
+    // Held while the snapshot is read or replaced, so a merge never races a load or a replaceAll
+    private final Object snapshotLock = new Object();
+    private boolean compacting = false;
+    // Set by readSnapshot when some lines had no ID
+    private boolean gaveIds = false;
+
+    // What stamp() hands out: changes made through this repository, and times the files were changed by others
+    private long ownChanges = 0;
+    private long otherChanges = 0;
+    // Sizes and modification times of the files as this process last left them
+    private long[] filesAfterOwn = null;
+
+    /**
+     * @param putTag first field of insert/replace journal records
+     * @param syncEvery force the journal after this many records (see {@link Journal})
+     * @param compactBytes merge the journal into the snapshot once it is larger than this
+     */
+    public FlatFileRepository(String fileName, String journalName, String putTag, Codec<T> codec,
+                              int syncEvery, long syncDelayMillis, long compactBytes) {
+        this.file = Paths.get(fileName);
+        this.codec = codec;
+        this.journal = new Journal(journalName, syncEvery, syncDelayMillis);
+        this.putTag = putTag;
+        this.compactBytes = compactBytes;
+    }
+
+    @Override
+    public List<T> loadAll() {
+        Map<Long, T> records;
+        List<String> changes;
+        boolean unnumbered;
+        synchronized (snapshotLock) {
+            records = readSnapshot();
+            unnumbered = gaveIds;
+            changes = journal.readAll();
+            for (String change : changes) {
+                apply(records, change);
+            }
+        }
+        if (!changes.isEmpty() || unnumbered) {
+            scheduleCompaction(); // also writes out the IDs just given
+        }
+        return new ArrayList<>(records.values());
+    }
+
+    @Override
+    public boolean putAll(Collection<T> records) {
+        List<String> lines = new ArrayList<>();
+        for (T record : records) {
+            lines.add(putTag + "," + codec.format(record));
+        }
+        return log(lines);
+    }
+
+    @Override
+    public boolean delete(long id) {
+        return log(List.of("X," + id));
+    }
+
+    @Override
+    public boolean writeAll(Collection<T> records, Collection<Long> deletes) {
+        List<String> lines = new ArrayList<>();
+        for (T record : records) {
+            lines.add(putTag + "," + codec.format(record));
+        }
+        for (long id : deletes) {
+            lines.add("X," + id);
+        }
+        return log(lines);
+    }
+
+    /**
+     * The journal is folded into the current snapshot first and only then is the new snapshot
+     * moved into place, so no record written before the replacement is left to replay over it:
+     * after a crash the repository holds either the old records or the new ones.
+     * Callers must not write records while this runs.
+     */
+    @Override
+    public boolean replaceAll(Collection<T> records) {
+        synchronized (snapshotLock) {
+            if (!foldJournal()) {
+                return false;
+            }
+            List<String> lines = new ArrayList<>();
+            for (T record : records) {
+                lines.add(codec.format(record));
+            }
+            boolean written = writeSnapshot(lines);
+            wroteFiles(written);
+            return written;
+        }
+    }
+
+    /**
+     * Counts the changes made through this repository, plus one each time the files turn out to
+     * have been changed by another process. A merge of the journal rewrites the files without
+     * changing a record, so it does not count.
+     */
+    @Override
+    public synchronized long[] stamp() {
+        long[] files = fileStamp();
+        if (!Arrays.equals(files, filesAfterOwn)) {
+            otherChanges++;
+            filesAfterOwn = files;
+        }
+        return new long[]{ownChanges, otherChanges};
+    }
+
+    @Override
+    public void flush() {
+        journal.sync();
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    private boolean log(List<String> lines) {
+        boolean written = journal.append(lines);
+        wroteFiles(written);
+        if (written && journal.size() > compactBytes) {
+            scheduleCompaction();
+        }
+        return written;
+    }
+
+    /**
+     * Snapshot records by ID in file order. Lines without an ID get one after the highest
+     * ID in the file, in file order, so every load of the same file hands out the same IDs.
+     */
+    private Map<Long, T> readSnapshot() {
+        List<T> read = new ArrayList<>();
+        long maxId = 0;
+        if (Files.exists(file)) {
+            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    T record = codec.parse(line);
+                    if (record == null) {
+                        System.out.println("Skipping bad line in " + file + ": " + line);
+                        continue;
+                    }
+                    read.add(record);
+                    maxId = Math.max(maxId, codec.id(record));
+                }
+            } catch (IOException e) {
+                System.out.println("Error loading " + file + ": " + e.getMessage());
+            }
+        }
+        gaveIds = false;
+        Map<Long, T> records = new LinkedHashMap<>();
+        for (T record : read) {
+            if (codec.id(record) == 0) {
+                record = codec.withId(record, ++maxId);
+                gaveIds = true;
+            }
+            records.put(codec.id(record), record);
+        }
+        return records;
+    }
+
+    /**
+     * Apply one journal record. Unreadable records (e.g. a torn last line) are skipped.
+     */
+    private void apply(Map<Long, T> records, String change) {
+        int comma = change.indexOf(',');
+        if (comma < 0) {
+            System.out.println("Skipping bad journal record: " + change);
+            return;
+        }
+        String tag = change.substring(0, comma);
+        String rest = change.substring(comma + 1);
+        try {
+            if (tag.equals(putTag)) {
+                T record = codec.parse(rest);
+                if (record == null || codec.id(record) == 0) {
+                    System.out.println("Skipping bad journal record: " + change);
+                    return;
+                }
+                records.put(codec.id(record), record);
+            } else if (tag.equals("X")) {
+                records.remove(Long.parseLong(rest.trim()));
+            } else {
+                System.out.println("Skipping unknown journal record: " + change);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Skipping bad journal record: " + change);
+        }
+    }
+
+    private synchronized void scheduleCompaction() {
+        if (!compacting) {
+            compacting = true;
+            Journal.runInBackground(this::compact);
+        }
+    }
+
+    /**
+     * Merge the journal into a fresh snapshot.
+     * The journal is rotated first, so appends carry on into a new one; the rotated part
+     * is deleted only after the new snapshot is in place, and loads read both.
+     */
+    private void compact() {
+        try {
+            synchronized (snapshotLock) {
+                foldJournal();
+                wroteFiles(false);
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    // Caller holds snapshotLock. Returns true if the journal is now empty and its records are in the snapshot.
+    private boolean foldJournal() {
+        File rotated;
+        try {
+            rotated = journal.rotate();
+        } catch (IOException e) {
+            System.out.println("Error rotating " + journalName() + ": " + e.getMessage());
+            return false;
+        }
+        Map<Long, T> records = readSnapshot();
+        try (BufferedReader br = Files.newBufferedReader(rotated.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isEmpty()) apply(records, line);
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading " + rotated + ": " + e.getMessage());
+            return false;
+        }
+        List<String> lines = new ArrayList<>();
+        for (T record : records.values()) {
+            lines.add(codec.format(record));
+        }
+        if (!writeSnapshot(lines)) {
+            return false;
+        }
+        try {
+            Files.deleteIfExists(rotated.toPath());
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error deleting " + rotated + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Write to a temp file and move it into place, so readers see the old or the new snapshot
+    private boolean writeSnapshot(List<String> lines) {
+        Path temp = Paths.get(file + ".tmp");
+        try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder sb = new StringBuilder();
+            for (String l : lines) {
+                sb.append(l).append(System.lineSeparator());
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                ch.write(buffer);
+            }
+            ch.force(true);
+        } catch (IOException e) {
+            System.out.println("Error writing " + file + ": " + e.getMessage());
+            return false;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error writing " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Remember the files as this process left them, so stamp() does not take its own writes for someone else's
+    private synchronized void wroteFiles(boolean changedRecords) {
+        if (changedRecords) {
+            ownChanges++;
+        }
+        filesAfterOwn = fileStamp();
+    }
+
+    private long[] fileStamp() {
+        File snapshot = file.toFile();
+        File current = new File(journalName());
+        File rotated = new File(journalName() + ".old");
+        return new long[]{snapshot.lastModified(), snapshot.length(), current.lastModified(), current.length(),
+                rotated.lastModified(), rotated.length()};
+    }
+
+    private String journalName() {
+        return journal.getFileName();
+    }
+}
@@ -0,0 +1,298 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Fixed-size pages of a database file, cached in an LRU buffer pool, changed only inside
+ * transactions protected by a rollback journal.
+ * Before a page is first overwritten on disk its original content goes to {@code <file>-journal}
+ * and the journal is forced; commit writes the dirty pages, forces the file and deletes the
+ * journal. A journal found at open time belongs to a transaction that never committed and
+ * is played back, so after a crash the file holds exactly the last committed state.
+ * Page 0 is the header: magic, page count, root page of the tree and a change counter.
+ * Not thread-safe; {@link BTreeRepository} serializes access.
+ */
+class Pager implements Closeable {
+    static final int PAGE_SIZE = 4096;
+    private static final int MAGIC = 0x50484442;         // "PHDB"
+    private static final int JOURNAL_MAGIC = 0x50484a4c; // "PHJL"
+    private static final int H_MAGIC = 0;
+    private static final int H_PAGES = 4;
+    private static final int H_ROOT = 8;
+    private static final int H_CHANGES = 12;
+
+    private static final class Page {
+        final byte[] data;
+        boolean dirty;
+
+        Page(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final Path path;
+    private final Path journalPath;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final int capacity;
+    private final LinkedHashMap<Integer, Page> pool = new LinkedHashMap<>(64, 0.75f, true);
+
+    // Transaction state
+    private boolean inTransaction = false;
+    private int originalPages;
+    private final LinkedHashMap<Integer, byte[]> originals = new LinkedHashMap<>();
+    private int journaled = 0;
+    private FileChannel journal;
+
+    /**
+     * Open (or create) a database file, rolling back an interrupted transaction if there is one
+     * @param capacity pages kept in the buffer pool
+     */
+    Pager(Path path, int capacity) throws IOException {
+        this.path = path;
+        this.journalPath = Paths.get(path + "-journal");
+        this.capacity = Math.max(8, capacity);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            channel.close();
+            throw new IOException(path + " is already open in another process");
+        }
+        this.lock = acquired;
+
+        recover();
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+            header.putInt(H_MAGIC, MAGIC).putInt(H_PAGES, 1);
+            write(0, header.array());
+            channel.force(true);
+        } else if (ByteBuffer.wrap(page(0)).getInt(H_MAGIC) != MAGIC) {
+            close();
+            throw new IOException(path + " is not a pharmacy database");
+        }
+    }
+
+    /**
+     * Content of a page. The array belongs to the pool: read it right away and never modify it.
+     */
+    byte[] page(int id) throws IOException {
+        Page page = pool.get(id);
+        if (page == null) {
+            byte[] data = new byte[PAGE_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = (long) id * PAGE_SIZE;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + buffer.position());
+                if (n < 0) break; // past the end, the rest stays zero
+            }
+            page = new Page(data);
+            pool.put(id, page);
+            evict();
+        }
+        return page.data;
+    }
+
+    /**
+     * Content of a page, to be modified in the current transaction
+     */
+    byte[] edit(int id) throws IOException {
+        if (!inTransaction) {
+            throw new IllegalStateException("Page changes need a transaction");
+        }
+        byte[] data = page(id);
+        Page page = pool.get(id);
+        if (!page.dirty) {
+            if (id < originalPages && !originals.containsKey(id)) {
+                originals.put(id, data.clone());
+            }
+            page.dirty = true;
+        }
+        return data;
+    }
+
+    /**
+     * @return the number of a new zeroed page at the end of the file
+     */
+    int allocate() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(edit(0));
+        int id = header.getInt(H_PAGES);
+        header.putInt(H_PAGES, id + 1);
+        Page page = new Page(new byte[PAGE_SIZE]);
+        page.dirty = true;
+        pool.put(id, page);
+        evict();
+        return id;
+    }
+
+    int getRoot() throws IOException {
+        return ByteBuffer.wrap(page(0)).getInt(H_ROOT);
+    }
+
+    void setRoot(int root) throws IOException {
+        ByteBuffer.wrap(edit(0)).putInt(H_ROOT, root);
+    }
+
+    /**
+     * @return number of committed transactions since the file was created
+     */
+    long getChangeCount() throws IOException {
+        return ByteBuffer.wrap(page(0)).getLong(H_CHANGES);
+    }
+
+    void begin() throws IOException {
+        if (inTransaction) {
+            throw new IllegalStateException("Transaction already open");
+        }
+        originalPages = ByteBuffer.wrap(page(0)).getInt(H_PAGES);
+        inTransaction = true;
+    }
+
+    void commit() throws IOException {
+        boolean changed = pool.values().stream().anyMatch(p -> p.dirty);
+        if (changed) {
+            ByteBuffer header = ByteBuffer.wrap(edit(0));
+            header.putLong(H_CHANGES, header.getLong(H_CHANGES) + 1);
+            syncJournal();
+            for (Map.Entry<Integer, Page> e : pool.entrySet()) {
+                if (e.getValue().dirty) {
+                    write(e.getKey(), e.getValue().data);
+                    e.getValue().dirty = false;
+                }
+            }
+            channel.force(true);
+            deleteJournal(); // the commit point
+        }
+        end();
+    }
+
+    /**
+     * Undo everything done since {@link #begin()}, on disk and in the pool
+     */
+    void rollback() throws IOException {
+        if (!inTransaction) {
+            return;
+        }
+        pool.clear();
+        if (journal != null) {
+            for (Map.Entry<Integer, byte[]> e : originals.entrySet()) {
+                write(e.getKey(), e.getValue());
+            }
+            channel.truncate((long) originalPages * PAGE_SIZE);
+            channel.force(true);
+            deleteJournal();
+        }
+        end();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            rollback();
+        } finally {
+            pool.clear();
+            if (lock.isValid()) lock.release();
+            channel.close();
+        }
+    }
+
+    private void end() {
+        inTransaction = false;
+        originals.clear();
+        journaled = 0;
+    }
+
+    // Write back the least recently used pages beyond the pool capacity
+    private void evict() throws IOException {
+        Iterator<Map.Entry<Integer, Page>> it = pool.entrySet().iterator();
+        while (pool.size() > capacity && it.hasNext()) {
+            Map.Entry<Integer, Page> eldest = it.next();
+            if (eldest.getValue().dirty) {
+                syncJournal(); // originals must be safe before their pages are overwritten
+                write(eldest.getKey(), eldest.getValue().data);
+            }
+            it.remove();
+        }
+    }
+
+    // Append the originals not yet in the journal and force it
+    private void syncJournal() throws IOException {
+        if (journal == null) {
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(JOURNAL_MAGIC).putInt(originalPages);
+            header.flip();
+            journal.write(header);
+        }
+        if (journaled == originals.size() && journal.size() > 8) {
+            return; // forced when these were written
+        }
+        int skip = journaled;
+        for (Map.Entry<Integer, byte[]> e : originals.entrySet()) {
+            if (skip-- > 0) continue;
+            ByteBuffer entry = ByteBuffer.allocate(4 + PAGE_SIZE).putInt(e.getKey()).put(e.getValue());
+            entry.flip();
+            while (entry.hasRemaining()) {
+                journal.write(entry);
+            }
+        }
+        journaled = originals.size();
+        journal.force(true);
+    }
+
+    private void deleteJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        Files.deleteIfExists(journalPath);
+    }
+
+    // Play back the journal of a transaction that did not commit
+    private void recover() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        try (FileChannel in = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            if (in.read(header, 0) == 8 && header.getInt(0) == JOURNAL_MAGIC) {
+                int pages = header.getInt(4);
+                long position = 8;
+                ByteBuffer entry = ByteBuffer.allocate(4 + PAGE_SIZE);
+                while (true) {
+                    entry.clear();
+                    while (entry.hasRemaining() && in.read(entry, position + entry.position()) > 0) {}
+                    if (entry.hasRemaining()) break; // torn entry: its page was never overwritten
+                    int id = entry.getInt(0);
+                    write(id, Arrays.copyOfRange(entry.array(), 4, 4 + PAGE_SIZE));
+                    position += entry.capacity();
+                }
+                if (channel.size() > (long) pages * PAGE_SIZE) {
+                    channel.truncate((long) pages * PAGE_SIZE);
+                }
+                channel.force(true);
+                System.out.println("Rolled back an unfinished transaction in " + path);
+            }
+        }
+        Files.delete(journalPath);
+    }
+
+    private void write(int id, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = (long) id * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
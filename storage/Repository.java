@@ -0,0 +1,62 @@
+package storage;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Persistent set of records keyed by their ID.
+ * The managers keep their records in memory and use a repository only to load them at
+ * startup and to persist each change, so the backend (flat files or the embedded B-tree,
+ * see {@link Storage}) can be swapped without touching them or the GUI.
+ */
+public interface Repository<T> {
+
+    /**
+     * @return every record; records without an ID are given one
+     */
+    List<T> loadAll();
+
+    /**
+     * Insert or replace one record
+     * @return false if it could not be written
+     */
+    default boolean put(T record) {
+        return putAll(List.of(record));
+    }
+
+    /**
+     * Insert or replace several records, all or none
+     * @return false if they could not be written (none of them is)
+     */
+    boolean putAll(Collection<T> records);
+
+    /**
+     * @return false if the delete could not be written
+     */
+    boolean delete(long id);
+
+    /**
+     * Insert or replace some records and delete others by ID, all or none
+     * @return false if the changes could not be written (none of them is)
+     */
+    boolean writeAll(Collection<T> records, Collection<Long> deletes);
+
+    /**
+     * Throw away every record and store these instead
+     * @return false if they could not be written (the old records are kept)
+     */
+    boolean replaceAll(Collection<T> records);
+
+    /**
+     * Changes whenever the stored records change, also when another process changed them.
+     * Owners compare it to decide whether their copy is stale.
+     */
+    long[] stamp();
+
+    /**
+     * Force everything written so far to disk
+     */
+    void flush();
+
+    void close();
+}
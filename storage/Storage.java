@@ -0,0 +1,81 @@
+package storage;
+
+import models.Account;
+import models.Medicine;
+import models.StockLot;
+import models.Supplier;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+/**
+ * Picks the storage backend at startup with {@code -Dpharmacy.storage=flat|btree}.
+ * "flat" (the default) keeps the text files; "btree" keeps each record set in an embedded
+ * B+tree file ({@code medicines.db}, ...) and imports the text files the first time.
+ * The purchase ledger stays a flat append-only file under both: its readers map it and
+ * index it by byte offset, see {@link utils.PurchaseManager}.
+ */
+public class Storage {
+    public static final String BACKEND = System.getProperty("pharmacy.storage", "flat");
+    private static final int CACHE_PAGES = Integer.getInteger("pharmacy.btree.cachePages", 1024);
+    private static final String USERS_FILE = System.getProperty("pharmacy.users.file", "users.txt");
+
+    private static final Codec<Medicine> MEDICINES = new Codec<>(Medicine::toRecord, Medicine::fromString, Medicine::getId,
+            (m, id) -> m.withId(id));
+    private static final Codec<StockLot> LOTS = new Codec<>(StockLot::toString, StockLot::fromString, StockLot::getId,
+            (l, id) -> l);
+    private static final Codec<Account> ACCOUNTS = new Codec<>(Account::toString, Account::fromString, Account::getId,
+            (a, id) -> new Account(id, a.getUsername(), a.getPassword(), a.getRole()));
+    private static final Codec<Supplier> SUPPLIERS = new Codec<>(Supplier::toString, Supplier::fromString, Supplier::getId,
+            (s, id) -> new Supplier(id, s.getName(), s.getPhone(), s.getAddress(), s.getSuppliedMedicines()));
+
+    /**
+     * The medicine records without their stock, which is in {@link #lots()}
+     */
+    public static Repository<Medicine> medicines() {
+        return open("medicines", "M", MEDICINES, 32, 50, 256 * 1024);
+    }
+
+    /**
+     * Stock of every lot of every medicine, one record per lot (see {@link StockLot})
+     */
+    public static Repository<StockLot> lots() {
+        // Written by every checkpoint and stock adjustment; the ledger holds the sales in between
+        return open("lots", "L", LOTS, 32, 50, 256 * 1024);
+    }
+
+    public static Repository<Account> users() {
+        return open(USERS_FILE.replaceFirst("\\.txt$", ""), "P", ACCOUNTS, 1, 0, 64 * 1024);
+    }
+
+    public static Repository<Supplier> suppliers() {
+        return open("suppliers", "P", SUPPLIERS, 1, 0, 64 * 1024);
+    }
+
+    private static <T> Repository<T> open(String name, String putTag, Codec<T> codec,
+                                          int syncEvery, long syncDelayMillis, long compactBytes) {
+        FlatFileRepository<T> flat = new FlatFileRepository<>(name + ".txt", name + ".journal", putTag, codec,
+                syncEvery, syncDelayMillis, compactBytes);
+        if (!BACKEND.equals("btree")) {
+            return new TimedRepository<>(name, flat);
+        }
+        Path db = Paths.get(name + ".db");
+        boolean fresh = !Files.exists(db);
+        try {
+            BTreeRepository<T> tree = new BTreeRepository<>(db.toString(), codec, CACHE_PAGES);
+            if (fresh && Files.exists(Paths.get(name + ".txt"))) {
+                if (!tree.replaceAll(flat.loadAll())) {
+                    // A half-made database would be taken as imported on the next start
+                    tree.close();
+                    Files.deleteIfExists(db);
+                    Files.deleteIfExists(Paths.get(db + "-journal"));
+                    throw new IllegalStateException("Cannot import " + name + ".txt into " + db);
+                }
+                System.out.println("Imported " + name + ".txt into " + db);
+            }
+            return new TimedRepository<>(name, tree);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open " + db + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package storage;
+
+import utils.Metrics;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository wrapper that times every call and counts failed writes in {@link Metrics},
+ * as {@code storage.<name>.<call>} and {@code storage.<name>.failures}.
+ */
+class TimedRepository<T> implements Repository<T> {
+    private final Repository<T> inner;
+    private final Metrics.Timer loadAll;
+    private final Metrics.Timer put;
+    private final Metrics.Timer putAll;
+    private final Metrics.Timer delete;
+    private final Metrics.Timer writeAll;
+    private final Metrics.Timer replaceAll;
+    private final Metrics.Counter failures;
+
+    TimedRepository(String name, Repository<T> inner) {
+        this.inner = inner;
+        String prefix = "storage." + name + ".";
+        loadAll = Metrics.timer(prefix + "loadAll");
+        put = Metrics.timer(prefix + "put");
+        putAll = Metrics.timer(prefix + "putAll");
+        delete = Metrics.timer(prefix + "delete");
+        writeAll = Metrics.timer(prefix + "writeAll");
+        replaceAll = Metrics.timer(prefix + "replaceAll");
+        failures = Metrics.counter(prefix + "failures");
+    }
+
+    @Override
+    public List<T> loadAll() {
+        long start = System.nanoTime();
+        try {
+            return inner.loadAll();
+        } finally {
+            loadAll.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean put(T record) {
+        long start = System.nanoTime();
+        return done(inner.put(record), put, start);
+    }
+
+    @Override
+    public boolean putAll(Collection<T> records) {
+        long start = System.nanoTime();
+        return done(inner.putAll(records), putAll, start);
+    }
+
+    @Override
+    public boolean delete(long id) {
+        long start = System.nanoTime();
+        return done(inner.delete(id), delete, start);
+    }
+
+    @Override
+    public boolean writeAll(Collection<T> records, Collection<Long> deletes) {
+        long start = System.nanoTime();
+        return done(inner.writeAll(records, deletes), writeAll, start);
+    }
+
+    @Override
+    public boolean replaceAll(Collection<T> records) {
+        long start = System.nanoTime();
+        return done(inner.replaceAll(records), replaceAll, start);
+    }
+
+    @Override
+    public long[] stamp() {
+        return inner.stamp();
+    }
+
+    @Override
+    public void flush() {
+        inner.flush();
+    }
+
+    @Override
+    public void close() {
+        inner.close();
+    }
+
+    private boolean done(boolean written, Metrics.Timer timer, long start) {
+        timer.recordSince(start);
+        if (!written) {
+            failures.increment();
+        }
+        return written;
+    }
+}
@@ -0,0 +1,36 @@
+package utils;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs manager calls (file reads, checkouts, logins, saves) on background threads so the
+ * Swing event dispatch thread never waits for the disk. Every call returns a
+ * CompletableFuture; the GUI publishes results back with {@code gui.UiTask}.
+ */
+public class AsyncService {
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "pharmacy-io-" + (++count));
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Run a call that returns a value in the background
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> work) {
+        return CompletableFuture.supplyAsync(work, executor);
+    }
+
+    /**
+     * Run a call without a result in the background
+     */
+    public static CompletableFuture<Void> run(Runnable work) {
+        return CompletableFuture.runAsync(work, executor);
+    }
+}
@@ -0,0 +1,423 @@
+package utils;
+
+import models.Lot;
+import models.Purchase;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Optional binary, column-oriented copy of the sales ledger for reporting.
+ *
+ * The file is a sequence of blocks of up to {@value #BLOCK_ROWS} rows. Inside a block the
+ * columns are stored one after the other as variable-length integers:
+ * medicine ids (into a dictionary of names), purchase times as deltas in epoch seconds,
+ * quantities, unit prices as fixed-point with four decimals (a price with more is refused
+ * rather than rounded), the number of lots of each row,
+ * and the lots themselves (expiry day and quantity). A footer holds the name
+ * dictionary and, for every block, its offset and min/max purchase time, so a time range
+ * query only reads the blocks that overlap it. Files written before the lots columns were
+ * added ("PHL1") are still read, as rows without lots.
+ *
+ * "purchases.txt" stays the ledger the application writes; use {@link #fromText} and
+ * {@link #toText} (or the command line) to convert between the two.
+ */
+public class ColumnarLedger {
+    private static final int MAGIC = 0x50484c32; // "PHL2"
+    private static final int MAGIC_WITHOUT_LOTS = 0x50484c31; // "PHL1"
+    private static final int BLOCK_ROWS = 4096;
+    private static final double PRICE_SCALE = 10_000;
+
+    /**
+     * Called once per row of a scan. Values are passed as primitives so a scan allocates nothing
+     * per row, except the lots of rows that have them.
+     */
+    public interface RowVisitor {
+        /**
+         * @param epochSecond purchase time, reading the local time as if it were UTC
+         * @param lots the lots the stock was taken from, empty if not recorded
+         * @return false to stop the scan
+         */
+        boolean visit(String medicineName, int quantity, double price, long epochSecond, List<Lot> lots);
+    }
+
+    /**
+     * Convert a text ledger to the binary format
+     * @return number of rows written
+     * @throws IOException also if a price cannot be stored exactly
+     */
+    public static long fromText(String textFile, String binaryFile) throws IOException {
+        try (Writer writer = new Writer(binaryFile)) {
+            long[] rows = {0};
+            IOException[] failure = {null};
+            LedgerScanner.scan(textFile, row -> {
+                try {
+                    writer.add(row.getMedicineName(), row.getQuantity(), row.getPrice(), row.getEpochSecond(), row.getLots());
+                    rows[0]++;
+                    return true;
+                } catch (IOException e) {
+                    failure[0] = e;
+                    return false;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            return rows[0];
+        }
+    }
+
+    /**
+     * Convert a binary ledger back to the text format used by "purchases.txt"
+     * @return number of rows written
+     */
+    public static long toText(String binaryFile, String textFile) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(textFile), StandardCharsets.UTF_8)) {
+            long[] rows = {0};
+            IOException[] failure = {null};
+            scan(binaryFile, Long.MIN_VALUE, Long.MAX_VALUE, (name, quantity, price, epochSecond, lots) -> {
+                try {
+                    LocalDateTime time = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+                    out.write(new Purchase(name, quantity, price, time, lots).toString());
+                    out.newLine();
+                    rows[0]++;
+                    return true;
+                } catch (IOException e) {
+                    failure[0] = e;
+                    return false;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            return rows[0];
+        }
+    }
+
+    /**
+     * Visit the rows whose purchase time is within [fromEpochSecond, toEpochSecond].
+     * Blocks entirely outside the range are skipped without being read.
+     * @return number of rows visited
+     */
+    public static long scan(String binaryFile, long fromEpochSecond, long toEpochSecond, RowVisitor visitor) throws IOException {
+        long visited = 0;
+        try (RandomAccessFile file = new RandomAccessFile(binaryFile, "r")) {
+            Footer footer = readFooter(file);
+            byte[] buffer = new byte[0];
+            for (int b = 0; b < footer.blockCount; b++) {
+                if (footer.maxTime[b] < fromEpochSecond || footer.minTime[b] > toEpochSecond) {
+                    continue;
+                }
+                if (buffer.length < footer.length[b]) {
+                    buffer = new byte[footer.length[b]];
+                }
+                file.seek(footer.offset[b]);
+                file.readFully(buffer, 0, footer.length[b]);
+                Decoder in = new Decoder(buffer);
+
+                int rows = footer.rows[b];
+                int[] ids = new int[rows];
+                long[] times = new long[rows];
+                for (int i = 0; i < rows; i++) {
+                    ids[i] = (int) in.readVarLong();
+                }
+                long time = 0;
+                for (int i = 0; i < rows; i++) {
+                    time += in.readSignedVarLong();
+                    times[i] = time;
+                }
+                int[] quantities = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    quantities[i] = (int) in.readSignedVarLong();
+                }
+                double[] prices = new double[rows];
+                for (int i = 0; i < rows; i++) {
+                    prices[i] = in.readSignedVarLong() / PRICE_SCALE;
+                }
+                int[] lotCounts = new int[rows];
+                if (footer.hasLots) {
+                    for (int i = 0; i < rows; i++) {
+                        lotCounts[i] = (int) in.readVarLong();
+                    }
+                }
+                for (int i = 0; i < rows; i++) {
+                    List<Lot> lots = List.of();
+                    if (lotCounts[i] > 0) {
+                        lots = new ArrayList<>(lotCounts[i]);
+                        for (int l = 0; l < lotCounts[i]; l++) {
+                            lots.add(new Lot(in.readSignedVarLong(), (int) in.readSignedVarLong()));
+                        }
+                    }
+                    if (times[i] < fromEpochSecond || times[i] > toEpochSecond) {
+                        continue;
+                    }
+                    visited++;
+                    if (!visitor.visit(footer.names[ids[i]], quantities[i], prices[i], times[i], lots)) {
+                        return visited;
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Streams rows into a binary ledger, one block at a time
+     */
+    public static class Writer implements Closeable {
+        private final OutputStream out;
+        private long position = 0;
+        private final Map<String, Integer> dictionary = new LinkedHashMap<>();
+        private final List<long[]> blockIndex = new ArrayList<>(); // offset, length, rows, min, max
+
+        private final int[] ids = new int[BLOCK_ROWS];
+        private final long[] times = new long[BLOCK_ROWS];
+        private final int[] quantities = new int[BLOCK_ROWS];
+        private final long[] prices = new long[BLOCK_ROWS];
+        private final int[] lotCounts = new int[BLOCK_ROWS];
+        private Encoder lots = new Encoder(); // expiry day and quantity of every lot of the block, in row order
+        private int rows = 0;
+
+        public Writer(String binaryFile) throws IOException {
+            out = new BufferedOutputStream(new FileOutputStream(binaryFile), 1 << 16);
+            Encoder header = new Encoder();
+            header.writeInt(MAGIC);
+            write(header);
+        }
+
+        /**
+         * @throws IOException also if the price has more than four decimals, which the file cannot hold
+         */
+        public void add(String medicineName, int quantity, double price, long epochSecond, List<Lot> lots) throws IOException {
+            long fixedPrice = Math.round(price * PRICE_SCALE);
+            if (fixedPrice / PRICE_SCALE != price) {
+                throw new IOException("Price " + price + " of " + medicineName + " has more than four decimals");
+            }
+            Integer id = dictionary.get(medicineName);
+            if (id == null) {
+                id = dictionary.size();
+                dictionary.put(medicineName, id);
+            }
+            ids[rows] = id;
+            times[rows] = epochSecond;
+            quantities[rows] = quantity;
+            prices[rows] = fixedPrice;
+            lotCounts[rows] = lots.size();
+            for (Lot lot : lots) {
+                this.lots.writeSignedVarLong(lot.getExpiryDay());
+                this.lots.writeSignedVarLong(lot.getQuantity());
+            }
+            if (++rows == BLOCK_ROWS) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (rows == 0) {
+                return;
+            }
+            Encoder block = new Encoder();
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < rows; i++) {
+                block.writeVarLong(ids[i]);
+            }
+            long previous = 0;
+            for (int i = 0; i < rows; i++) {
+                block.writeSignedVarLong(times[i] - previous);
+                previous = times[i];
+                min = Math.min(min, times[i]);
+                max = Math.max(max, times[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                block.writeSignedVarLong(quantities[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                block.writeSignedVarLong(prices[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                block.writeVarLong(lotCounts[i]);
+            }
+            lots.writeTo(block);
+            blockIndex.add(new long[]{position, block.size(), rows, min, max});
+            write(block);
+            lots = new Encoder();
+            rows = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                long footerOffset = position;
+                Encoder footer = new Encoder();
+                footer.writeVarLong(dictionary.size());
+                for (String name : dictionary.keySet()) {
+                    footer.writeString(name);
+                }
+                footer.writeVarLong(blockIndex.size());
+                for (long[] block : blockIndex) {
+                    footer.writeVarLong(block[0]);
+                    footer.writeVarLong(block[1]);
+                    footer.writeVarLong(block[2]);
+                    footer.writeSignedVarLong(block[3]);
+                    footer.writeSignedVarLong(block[4]);
+                }
+                footer.writeLong(footerOffset);
+                footer.writeInt(MAGIC);
+                write(footer);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void write(Encoder encoder) throws IOException {
+            encoder.writeTo(out);
+            position += encoder.size();
+        }
+    }
+
+    private static class Footer {
+        boolean hasLots;
+        String[] names;
+        int blockCount;
+        long[] offset;
+        int[] length;
+        int[] rows;
+        long[] minTime;
+        long[] maxTime;
+    }
+
+    private static Footer readFooter(RandomAccessFile file) throws IOException {
+        long size = file.length();
+        file.seek(0);
+        int magic = size < 16 ? 0 : file.readInt();
+        if (magic != MAGIC && magic != MAGIC_WITHOUT_LOTS) {
+            throw new IOException("Not a binary sales ledger");
+        }
+        file.seek(size - 12);
+        long footerOffset = file.readLong();
+        if (file.readInt() != magic) {
+            throw new IOException("Binary sales ledger is incomplete");
+        }
+        byte[] bytes = new byte[(int) (size - 12 - footerOffset)];
+        file.seek(footerOffset);
+        file.readFully(bytes);
+        Decoder in = new Decoder(bytes);
+
+        Footer footer = new Footer();
+        footer.hasLots = magic == MAGIC;
+        footer.names = new String[(int) in.readVarLong()];
+        for (int i = 0; i < footer.names.length; i++) {
+            footer.names[i] = in.readString();
+        }
+        footer.blockCount = (int) in.readVarLong();
+        footer.offset = new long[footer.blockCount];
+        footer.length = new int[footer.blockCount];
+        footer.rows = new int[footer.blockCount];
+        footer.minTime = new long[footer.blockCount];
+        footer.maxTime = new long[footer.blockCount];
+        for (int b = 0; b < footer.blockCount; b++) {
+            footer.offset[b] = in.readVarLong();
+            footer.length[b] = (int) in.readVarLong();
+            footer.rows[b] = (int) in.readVarLong();
+            footer.minTime[b] = in.readSignedVarLong();
+            footer.maxTime[b] = in.readSignedVarLong();
+        }
+        return footer;
+    }
+
+    /**
+     * Growable byte buffer with LEB128 variable-length integers
+     */
+    private static class Encoder extends ByteArrayOutputStream {
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63)); // zigzag, small negatives stay small
+        }
+
+        void writeInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                write(value >>> shift);
+            }
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Decoder {
+        private final byte[] bytes;
+        private int position = 0;
+
+        Decoder(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        long readSignedVarLong() {
+            long raw = readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+
+    /**
+     * Command line converter:
+     * {@code java utils.ColumnarLedger to-binary purchases.txt purchases.bin} or
+     * {@code java utils.ColumnarLedger to-text purchases.bin purchases.txt}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: ColumnarLedger to-binary|to-text <input> <output>");
+            return;
+        }
+        long start = System.nanoTime();
+        long rows = switch (args[0]) {
+            case "to-binary" -> fromText(args[1], args[2]);
+            case "to-text" -> toText(args[1], args[2]);
+            default -> throw new IllegalArgumentException("Unknown command " + args[0]);
+        };
+        long in = new File(args[1]).length();
+        long out = new File(args[2]).length();
+        System.out.printf("Converted %,d rows in %d ms: %,d bytes -> %,d bytes%n",
+                rows, (System.nanoTime() - start) / 1_000_000, in, out);
+    }
+}
@@ -0,0 +1,236 @@
+package utils;
+
+import models.Medicine;
+import models.Purchase;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Demand forecast per medicine, used to tell how many days the current stock will last.
+ *
+ * Each medicine keeps an exponentially weighted moving average of the units sold per day
+ * (a window of {@code -Dpharmacy.forecast.days}, default 14 days) and the units sold in each
+ * of the 168 hours of the week. Both are updated in O(1) as each sale is recorded: a new day
+ * folds the finished one into the average and decays it over the days without sales in one
+ * step. Every question is answered from this state without reading the ledger.
+ *
+ * At startup the model is rebuilt in one parallel pass over the ledger
+ * ({@link LedgerScanner#parallelScan}): units per day are summed per range and merged, then
+ * the averages of all medicines are folded in parallel.
+ */
+public class DemandForecaster {
+    public static final int WINDOW_DAYS = Integer.getInteger("pharmacy.forecast.days", 14);
+    private static final double ALPHA = 2.0 / (WINDOW_DAYS + 1);
+    private static final double DECAY = 1 - ALPHA;
+    private static final int HOURS_PER_WEEK = 7 * 24;
+    private static final long NO_DAY = Long.MIN_VALUE;
+
+    /**
+     * Demand state of one medicine
+     */
+    private static class Model {
+        // Average of the days up to, not including, currentDay
+        double rate;
+        // Sum of the day weights folded into rate, so that a short history is not biased towards 0
+        double weight;
+        long currentDay = NO_DAY;
+        long unitsToday;
+        final long[] hourOfWeek = new long[HOURS_PER_WEEK];
+        long units;
+
+        void add(long day, int hour, long quantity) {
+            if (day > currentDay) {
+                foldUntil(day);
+            }
+            unitsToday += quantity;
+            hourOfWeek[hour] += quantity;
+            units += quantity;
+        }
+
+        // Close currentDay and the empty days after it, up to the given day
+        void foldUntil(long day) {
+            if (currentDay != NO_DAY) {
+                rate = ALPHA * unitsToday + DECAY * rate;
+                weight = ALPHA + DECAY * weight;
+                long empty = day - currentDay - 1;
+                if (empty > 0) {
+                    double f = Math.pow(DECAY, empty);
+                    rate *= f;
+                    weight = 1 - (1 - weight) * f;
+                }
+            }
+            currentDay = day;
+            unitsToday = 0;
+        }
+
+        /**
+         * Units per day as of the given day, counting only finished days
+         */
+        double dailyRate(long today) {
+            double r = rate;
+            double w = weight;
+            if (today > currentDay && currentDay != NO_DAY) {
+                r = ALPHA * unitsToday + DECAY * r;
+                w = ALPHA + DECAY * w;
+                double f = Math.pow(DECAY, today - currentDay - 1);
+                r *= f;
+                w = 1 - (1 - w) * f;
+            }
+            // Sold for the first time today: today is all there is to go on
+            return w > 0 ? r / w : unitsToday;
+        }
+    }
+
+    /**
+     * Units sold per day and per hour of the week of one medicine in one ledger range
+     */
+    private static class Series {
+        final Map<Long, Long> unitsByDay = new HashMap<>();
+        final long[] hourOfWeek = new long[HOURS_PER_WEEK];
+
+        void merge(Series other) {
+            other.unitsByDay.forEach((day, units) -> unitsByDay.merge(day, units, Long::sum));
+            for (int h = 0; h < HOURS_PER_WEEK; h++) {
+                hourOfWeek[h] += other.hourOfWeek[h];
+            }
+        }
+
+        Model toModel() {
+            Model model = new Model();
+            long[] days = unitsByDay.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+            for (long day : days) {
+                model.foldUntil(day);
+                model.unitsToday = unitsByDay.get(day);
+                model.units += model.unitsToday;
+            }
+            System.arraycopy(hourOfWeek, 0, model.hourOfWeek, 0, HOURS_PER_WEEK);
+            return model;
+        }
+    }
+
+    private static Map<String, Model> models = new HashMap<>();
+    private static boolean loaded = false;
+
+    /**
+     * Rebuild the model from the ledger. Called once at startup, later calls are ignored.
+     */
+    public static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, Series> series = LedgerScanner.parallelScan(PurchaseManager.getLedgerFile(), 0, Long.MAX_VALUE,
+                ForkJoinPool.commonPool(), HashMap::new, (partial, row) -> {
+                    long epochSecond = row.getEpochSecond();
+                    Series s = partial.computeIfAbsent(key(row.getMedicineName()), k -> new Series());
+                    s.unitsByDay.merge(Math.floorDiv(epochSecond, 86400), (long) row.getQuantity(), Long::sum);
+                    s.hourOfWeek[hourOfWeek(epochSecond)] += row.getQuantity();
+                }, (a, b) -> {
+                    b.forEach((name, s) -> a.merge(name, s, (x, y) -> {
+                        x.merge(y);
+                        return x;
+                    }));
+                    return a;
+                });
+        Map<String, Model> fresh = new ConcurrentHashMap<>();
+        series.entrySet().parallelStream().forEach(e -> fresh.put(e.getKey(), e.getValue().toModel()));
+        models = new HashMap<>(fresh);
+        loaded = true;
+        Metrics.timer("ledger.load.forecast").recordSince(start);
+    }
+
+    /**
+     * Add a sale that was just written to the ledger
+     */
+    public static synchronized void record(Purchase purchase) {
+        // Before the first load the sale is picked up from the ledger instead
+        if (loaded) {
+            LocalDateTime time = purchase.getPurchaseTime();
+            models.computeIfAbsent(key(purchase.getMedicineName()), k -> new Model())
+                    .add(time.toLocalDate().toEpochDay(), hourOfWeek(time), purchase.getQuantity());
+        }
+    }
+
+    /**
+     * Forget everything (the ledger was reset)
+     */
+    public static synchronized void clear() {
+        models = new HashMap<>();
+        loaded = true;
+    }
+
+    /**
+     * @return expected units sold per day of a medicine (case-insensitive), 0 if it was never sold
+     */
+    public static synchronized double getDailyRate(String medicineName) {
+        load();
+        Model model = models.get(key(medicineName));
+        return model == null ? 0 : model.dailyRate(LocalDate.now().toEpochDay());
+    }
+
+    /**
+     * @return days until the given stock of a medicine runs out at its daily rate,
+     *         or {@link Double#POSITIVE_INFINITY} if there is no demand for it
+     */
+    public static double getDaysToStockout(String medicineName, int quantity) {
+        double rate = getDailyRate(medicineName);
+        if (quantity <= 0) {
+            return 0;
+        }
+        return rate > 0 ? quantity / rate : Double.POSITIVE_INFINITY;
+    }
+
+    public static double getDaysToStockout(Medicine medicine) {
+        return getDaysToStockout(medicine.getName(), medicine.getQuantity());
+    }
+
+    /**
+     * @return share (0-1) of a medicine's sales that fall in one hour of the week
+     */
+    public static synchronized double getHourOfWeekShare(String medicineName, LocalDateTime time) {
+        load();
+        Model model = models.get(key(medicineName));
+        if (model == null || model.units == 0) {
+            return 0;
+        }
+        return (double) model.hourOfWeek[hourOfWeek(time)] / model.units;
+    }
+
+    /**
+     * Units of a medicine expected to sell in the next hours (at most a week), spreading its
+     * daily rate over the hours of the week the way its past sales were spread
+     */
+    public static synchronized double getExpectedUnits(String medicineName, LocalDateTime from, int hours) {
+        load();
+        Model model = models.get(key(medicineName));
+        if (model == null || model.units == 0) {
+            return 0;
+        }
+        double perWeek = model.dailyRate(LocalDate.now().toEpochDay()) * 7;
+        int start = hourOfWeek(from);
+        long units = 0;
+        for (int h = 0; h < Math.min(hours, HOURS_PER_WEEK); h++) {
+            units += model.hourOfWeek[(start + h) % HOURS_PER_WEEK];
+        }
+        return perWeek * units / model.units;
+    }
+
+    // 0 = Monday 00:00-00:59 ... 167 = Sunday 23:00-23:59
+    private static int hourOfWeek(long epochSecond) {
+        long day = Math.floorDiv(epochSecond, 86400);
+        // 1970-01-01 was a Thursday
+        return (int) (Math.floorMod(day + 3, 7) * 24 + (epochSecond - day * 86400) / 3600);
+    }
+
+    private static int hourOfWeek(LocalDateTime time) {
+        return (time.getDayOfWeek().getValue() - 1) * 24 + time.getHour();
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
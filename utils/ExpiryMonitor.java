@@ -0,0 +1,100 @@
+package utils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Background check for lots of medicine that are expired or expire soon.
+ * Every {@code period} minutes (and once right away) the catalog's expiry index is asked for
+ * everything expiring up to {@link #getDays()} days from today, and the listeners get the
+ * result. The horizon is read from {@code -Dpharmacy.expiry.days} (default 30).
+ */
+public class ExpiryMonitor {
+    public static final int DEFAULT_DAYS = Integer.getInteger("pharmacy.expiry.days", 30);
+    private static final long PERIOD_MINUTES = 60;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "expiry-monitor");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final List<Consumer<List<InventoryStore.ExpiringLot>>> listeners = new CopyOnWriteArrayList<>();
+    private static volatile List<InventoryStore.ExpiringLot> latest = List.of();
+    private static volatile int days = DEFAULT_DAYS;
+    private static ScheduledFuture<?> task;
+
+    /**
+     * Start the periodic check (later calls are ignored)
+     */
+    public static synchronized void start() {
+        if (task == null) {
+            task = scheduler.scheduleAtFixedRate(ExpiryMonitor::checkNow, 0, PERIOD_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    public static synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Lots that are already expired or expire within the given number of days, soonest first
+     */
+    public static List<InventoryStore.ExpiringLot> expiringWithin(int days) {
+        return InventoryStore.expiringBetween(Long.MIN_VALUE, LocalDate.now().plusDays(days).toEpochDay());
+    }
+
+    /**
+     * Run the check now on the monitor thread, e.g. after the catalog or the horizon changed
+     */
+    public static void refresh() {
+        scheduler.execute(ExpiryMonitor::checkNow);
+    }
+
+    /**
+     * Change the horizon of the periodic check and run it again
+     */
+    public static void setDays(int days) {
+        ExpiryMonitor.days = days;
+        refresh();
+    }
+
+    public static int getDays() {
+        return days;
+    }
+
+    /**
+     * @return the result of the last check
+     */
+    public static List<InventoryStore.ExpiringLot> getLatest() {
+        return latest;
+    }
+
+    /**
+     * The listener is called on the monitor thread after every check
+     */
+    public static void addListener(Consumer<List<InventoryStore.ExpiringLot>> listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Consumer<List<InventoryStore.ExpiringLot>> listener) {
+        listeners.remove(listener);
+    }
+
+    private static void checkNow() {
+        try {
+            latest = expiringWithin(days);
+            for (Consumer<List<InventoryStore.ExpiringLot>> listener : listeners) {
+                listener.accept(latest);
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic task
+            System.out.println("Error checking expiry dates: " + e.getMessage());
+            Metrics.error("expiry.check");
+        }
+    }
+}
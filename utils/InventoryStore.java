@@ -0,0 +1,902 @@
+package utils;
+
+import models.Lot;
+import models.Medicine;
+import models.StockLot;
+import storage.Repository;
+import storage.Storage;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Resident copy of the medicine catalog.
+ * The catalog is read once at startup from its {@link Repository} and kept in memory with an
+ * ID index and a case-insensitive name index, so lookups and existence checks are O(1) and
+ * never touch the disk. A third index orders every lot of every medicine by expiry day, so
+ * "what expires in the next 30 days" is a range lookup rather than a scan. Catalog changes are handed to
+ * the repository as they happen (with the flat backend that is one journal append).
+ * The stock is stored apart from the medicine records, one {@link StockLot} record per lot.
+ * A sale is written once, as its row in the sales ledger: its stock is taken here in memory, and the
+ * lots it touched are written by the next checkpoint, which also stores how far into the ledger the
+ * lot records go. Loading takes the ledger rows after that point off the stock again, so after a
+ * crash the stock always matches the sales the ledger kept, never more or fewer.
+ * This is the only class that reads or writes the medicine and lot records.
+ *
+ * Locking: adding, editing and deleting medicines takes the catalog write lock.
+ * Stock changes only take the catalog read lock plus the stripe lock of that medicine,
+ * so sales of different medicines run in parallel. Checkpoints take the write lock, so no sale is half done.
+ */
+public class InventoryStore {
+    private static final int STRIPES = 64;
+    // Write a checkpoint once the ledger has grown this much since the last one
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+
+    private static final Repository<Medicine> repository = Storage.medicines();
+    private static final Repository<StockLot> lotRepository = Storage.lots();
+
+    private static final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    private static final ReentrantLock[] stockLocks = new ReentrantLock[STRIPES];
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            stockLocks[i] = new ReentrantLock();
+        }
+    }
+
+    // ID index in file order (kept for the tables), plus the name index
+    private static final Map<Long, Medicine> byId = new LinkedHashMap<>();
+    private static final Map<String, Medicine> byName = new HashMap<>();
+    // Every lot in stock by expiry day; sales remove emptied lots while holding only a stock lock
+    private static final ConcurrentSkipListSet<ExpiringLot> byExpiry = new ConcurrentSkipListSet<>();
+
+    private static final List<StockListener> stockListeners = new CopyOnWriteArrayList<>();
+    // What made the counts stop matching the shelves
+    private static final List<String> problems = new CopyOnWriteArrayList<>();
+
+    // Lots that sales took from since the last checkpoint, by lot record ID
+    private static final Map<Long, StockLot> sold = new ConcurrentHashMap<>();
+    // Ledger length at the last checkpoint
+    private static volatile long checkpointAt = 0;
+    private static final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+
+    /**
+     * Told about every change to the stock of a medicine, right after it is saved.
+     * Called while the stock lock of the medicine (or the catalog lock) is held, so keep it short.
+     */
+    public interface StockListener {
+        void stockChanged(Medicine medicine, int before, int after);
+
+        /**
+         * The medicine was deleted from the catalog
+         */
+        default void removed(Medicine medicine) {}
+    }
+
+    public static void addStockListener(StockListener listener) {
+        stockListeners.add(listener);
+    }
+
+    public static void removeStockListener(StockListener listener) {
+        stockListeners.remove(listener);
+    }
+
+    /**
+     * A lot in the expiry index, with the medicine it belongs to
+     */
+    public static class ExpiringLot implements Comparable<ExpiringLot> {
+        private final long expiryDay;
+        private final long medicineId;
+        private final Medicine medicine;
+        private final Lot lot;
+
+        private ExpiringLot(long expiryDay, long medicineId, Medicine medicine, Lot lot) {
+            this.expiryDay = expiryDay;
+            this.medicineId = medicineId;
+            this.medicine = medicine;
+            this.lot = lot;
+        }
+
+        public Medicine getMedicine() { return medicine; }
+        public long getExpiryDay() { return expiryDay; }
+        public LocalDate getExpiry() { return LocalDate.ofEpochDay(expiryDay); }
+        /** Quantity left in the lot now */
+        public int getQuantity() { return lot.getQuantity(); }
+
+        @Override
+        public int compareTo(ExpiringLot other) {
+            int c = Long.compare(expiryDay, other.expiryDay);
+            return c != 0 ? c : Long.compare(medicineId, other.medicineId);
+        }
+    }
+    private static long nextId = 1;
+    private static volatile boolean loaded = false;
+
+    /**
+     * Load the catalog from the repository.
+     * Called once at startup, later calls are ignored.
+     */
+    public static void load() {
+        if (loaded) {
+            return;
+        }
+        catalogLock.writeLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+            byId.clear();
+            byName.clear();
+            byExpiry.clear();
+            nextId = 1;
+            long ledgerEnd = PurchaseManager.syncLedger();
+            if (ledgerEnd < 0) {
+                throw new IllegalStateException("Cannot read the sales ledger " + PurchaseManager.getLedgerFile());
+            }
+            Map<Long, List<StockLot>> stock = new HashMap<>();
+            List<StockLot> empty = new ArrayList<>();
+            long checkpoint = -1;
+            for (StockLot lot : lotRepository.loadAll()) {
+                if (lot.isCheckpoint()) {
+                    checkpoint = lot.getLedgerOffset();
+                    continue;
+                }
+                stock.computeIfAbsent(lot.getMedicineId(), k -> new ArrayList<>()).add(lot);
+                if (lot.getQuantity() <= 0) {
+                    empty.add(lot);
+                }
+            }
+            // Emptied lots used to be kept as 0 records, drop them
+            if (!empty.isEmpty()) {
+                writeLots(empty);
+            }
+            List<Medicine> older = new ArrayList<>();
+            for (Medicine medicine : repository.loadAll()) {
+                if (medicine.hasLotsApart()) {
+                    List<Lot> lots = new ArrayList<>();
+                    for (StockLot lot : stock.getOrDefault(medicine.getId(), List.of())) {
+                        if (lot.getQuantity() > 0) {
+                            lots.add(new Lot(lot.getExpiryDay(), lot.getQuantity()));
+                        }
+                    }
+                    Medicine stocked = new Medicine(medicine.getId(), medicine.getName(), medicine.getPrice(), medicine.getExpiryDay(), lots);
+                    stocked.setLotsApart(true);
+                    index(stocked);
+                } else {
+                    // Written before the lots were stored apart, its own lots are the current ones
+                    older.add(index(medicine));
+                }
+            }
+            moveLotsApart(older, stock, ledgerEnd);
+            catchUp(stock, checkpoint, ledgerEnd);
+            loaded = true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return snapshot of all medicines in file order (the objects themselves must not be modified)
+     */
+    public static List<Medicine> getAll() {
+        load();
+        catalogLock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(byId.values()));
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the medicine with this name (case-insensitive) or null
+     */
+    public static Medicine find(String name) {
+        load();
+        catalogLock.readLock().lock();
+        try {
+            return name == null ? null : byName.get(key(name));
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the medicine with this ID or null
+     */
+    public static Medicine get(long id) {
+        load();
+        catalogLock.readLock().lock();
+        try {
+            return byId.get(id);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    public static boolean contains(String name) {
+        return find(name) != null;
+    }
+
+    /**
+     * Lots expiring between two days (inclusive, as epoch days), soonest first.
+     * Served from the expiry index in O(log n + k) for k results.
+     */
+    public static List<ExpiringLot> expiringBetween(long fromDay, long toDay) {
+        load();
+        if (fromDay > toDay) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(byExpiry.subSet(probe(fromDay, Long.MIN_VALUE), true, probe(toDay, Long.MAX_VALUE), true));
+    }
+
+    public static int size() {
+        load();
+        catalogLock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a new medicine to the catalog (its ID, if any, is ignored).
+     * The name check and the insert are one step, so two adds of the same name cannot both get in.
+     * @return the ID given to it, or 0 if it could not be saved
+     * @throws IllegalArgumentException if a medicine with this name (case-insensitive) is already in the catalog
+     */
+    public static long add(Medicine medicine) {
+        load();
+        catalogLock.writeLock().lock();
+        try {
+            checkNameFree(medicine.getName(), 0);
+            if (!checkpoint()) {
+                return 0;
+            }
+            Medicine stored = withId(nextId, medicine);
+            if (!save(List.of(stored), lotChanges(stored.getId(), null, stored), lotChanges(stored.getId(), stored, null))) {
+                return 0;
+            }
+            index(stored);
+            fireStockChanged(stored, 0);
+            return stored.getId();
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Change the medicine with the given ID. The change gets a copy of it (lots included)
+     * and returns the new version; no sale can happen in between.
+     * @return false if there is none or it could not be saved
+     * @throws IllegalArgumentException if the new name (case-insensitive) belongs to another medicine
+     */
+    public static boolean update(long id, UnaryOperator<Medicine> change) {
+        load();
+        catalogLock.writeLock().lock();
+        try {
+            Medicine existing = byId.get(id);
+            if (existing == null) {
+                return false;
+            }
+            Medicine stored = withId(id, change.apply(existing.withId(id)));
+            checkNameFree(stored.getName(), id);
+            if (!checkpoint()) {
+                return false;
+            }
+            if (!save(List.of(stored), lotChanges(id, existing, stored), lotChanges(id, stored, existing))) {
+                return false;
+            }
+            replace(stored);
+            fireStockChanged(stored, existing.getQuantity());
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the medicine with the given ID
+     * @return false if there is none or the delete could not be saved
+     */
+    public static boolean remove(long id) {
+        load();
+        catalogLock.writeLock().lock();
+        try {
+            Medicine existing = byId.get(id);
+            if (existing == null || !checkpoint()) {
+                return false;
+            }
+            // Empty the lots first, so a medicine that later gets this ID does not inherit them
+            if (!writeLots(lotChanges(id, existing, null))) {
+                return false;
+            }
+            if (!repository.delete(id)) {
+                undoLots(lotChanges(id, null, existing));
+                return false;
+            }
+            unindex(id);
+            for (StockListener listener : stockListeners) {
+                listener.removed(existing);
+            }
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merge a batch of medicines into the catalog with one repository write.
+     * A medicine whose name is already in the catalog gets the lots of the batch added to
+     * its own (a lot with the same expiry grows) and the batch price; the others are added
+     * as new medicines.
+     * @return {added, merged}, or null if nothing could be saved (the catalog is unchanged)
+     */
+    static int[] merge(Collection<Medicine> batch) {
+        load();
+        catalogLock.writeLock().lock();
+        try {
+            if (!checkpoint()) {
+                return null;
+            }
+            List<Medicine> records = new ArrayList<>(batch.size());
+            List<StockLot> lots = new ArrayList<>();
+            List<StockLot> undo = new ArrayList<>();
+            long id = nextId;
+            int merged = 0;
+            for (Medicine m : batch) {
+                Medicine existing = byName.get(key(m.getName()));
+                if (existing != null) {
+                    Medicine record = existing.copy(existing.getId(), existing.getName(), m.getPrice());
+                    for (Lot lot : m.getLots()) {
+                        int room = Integer.MAX_VALUE - record.getQuantity();
+                        record.addLot(lot.getExpiryDay(), Math.min(room, lot.getQuantity()));
+                    }
+                    records.add(record);
+                    lots.addAll(lotChanges(record.getId(), existing, record));
+                    undo.addAll(lotChanges(record.getId(), record, existing));
+                    merged++;
+                } else {
+                    Medicine record = withId(id++, m);
+                    records.add(record);
+                    lots.addAll(lotChanges(record.getId(), null, record));
+                    undo.addAll(lotChanges(record.getId(), record, null));
+                }
+            }
+            if (!save(records, lots, undo)) {
+                return null;
+            }
+            for (Medicine record : records) {
+                Medicine old = byId.get(record.getId());
+                replace(record);
+                fireStockChanged(record, old == null ? 0 : old.getQuantity());
+            }
+            return new int[]{records.size() - merged, merged};
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Change the stock of a medicine by delta. A negative delta is taken first-expiring first,
+     * a positive one is added to the lot that expires last. Unlike a sale the change is not in
+     * the ledger, so the lots are written at once.
+     * @return false if the medicine is unknown, there is not enough stock or the change could not be saved
+     */
+    public static boolean adjustQuantity(String name, int delta) {
+        return withStock(name, medicine -> {
+            if (medicine == null) {
+                return false;
+            }
+            long ledgerEnd = PurchaseManager.syncLedger();
+            if (ledgerEnd < 0) {
+                return false;
+            }
+            int before = medicine.getQuantity();
+            if (delta < 0) {
+                List<Lot> plan = medicine.planDraw(-delta);
+                if (plan == null) {
+                    return false;
+                }
+                List<StockLot> records = new ArrayList<>();
+                for (Lot taken : plan) {
+                    Lot lot = medicine.getLot(taken.getExpiryDay());
+                    records.add(new StockLot(medicine.getId(), taken.getExpiryDay(), lot.getQuantity() - taken.getQuantity(), ledgerEnd));
+                }
+                if (!writeLots(records)) {
+                    return false;
+                }
+                take(medicine, plan);
+            } else {
+                List<Lot> lots = medicine.getLots();
+                long day = lots.isEmpty() ? medicine.getExpiryDay() : lots.get(lots.size() - 1).getExpiryDay();
+                Lot lot = medicine.getLot(day);
+                if (!writeLots(List.of(new StockLot(medicine.getId(), day, (lot == null ? 0 : lot.getQuantity()) + delta, ledgerEnd)))) {
+                    return false;
+                }
+                Lot added = medicine.addLot(day, delta);
+                if (added != null) {
+                    byExpiry.add(new ExpiringLot(day, medicine.getId(), medicine, added));
+                }
+            }
+            fireStockChanged(medicine, before);
+            return true;
+        });
+    }
+
+    /**
+     * Run an action while no one else can change the stock of this medicine.
+     * The action gets the medicine, or null if there is none with that name.
+     * Everything the action does with the stock (check, decrement, ledger write) is one atomic unit.
+     */
+    static <T> T withStock(String name, Function<Medicine, T> action) {
+        load();
+        catalogLock.readLock().lock();
+        try {
+            Medicine medicine = name == null ? null : byName.get(key(name));
+            ReentrantLock lock = stockLocks[stripe(name)];
+            lock.lock();
+            try {
+                return action.apply(medicine);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #withStock} for several medicines at once (e.g. a cart).
+     * Stripe locks are taken in ascending order so two carts can never deadlock.
+     * The action gets a map from each requested name to its medicine, or to null if unknown.
+     */
+    static <T> T withStocks(Collection<String> names, Function<Map<String, Medicine>, T> action) {
+        load();
+        catalogLock.readLock().lock();
+        try {
+            Map<String, Medicine> found = new LinkedHashMap<>();
+            TreeSet<Integer> stripes = new TreeSet<>();
+            for (String name : names) {
+                found.put(name, name == null ? null : byName.get(key(name)));
+                stripes.add(stripe(name));
+            }
+            List<ReentrantLock> held = new ArrayList<>();
+            try {
+                for (int s : stripes) {
+                    stockLocks[s].lock();
+                    held.add(stockLocks[s]);
+                }
+                return action.apply(found);
+            } finally {
+                for (ReentrantLock lock : held) {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Which lots a sale takes from each medicine, first-expiring first. Nothing is changed.
+     * Callers must be inside {@link #withStocks}.
+     * @param quantities quantity to take from each medicine
+     * @return the quantity to take from each lot of each medicine, or null if some medicine has not enough stock
+     */
+    static Map<Medicine, List<Lot>> planDraw(Map<Medicine, Integer> quantities) {
+        Map<Medicine, List<Lot>> plans = new LinkedHashMap<>();
+        for (Map.Entry<Medicine, Integer> e : quantities.entrySet()) {
+            List<Lot> plan = e.getKey().planDraw(e.getValue());
+            if (plan == null) {
+                return null;
+            }
+            plans.put(e.getKey(), plan);
+        }
+        return plans;
+    }
+
+    /**
+     * Take the stock of a sale whose row is in the ledger, as planned by {@link #planDraw}.
+     * Nothing is written: the ledger row stands for the sale until the next checkpoint writes
+     * the lots it took from. Callers must be inside {@link #withStocks}. O(log lots) per lot touched.
+     * @param ledgerOffset where the sale starts in the ledger
+     */
+    static void applyDraw(Map<Medicine, List<Lot>> plans, long ledgerOffset) {
+        for (Map.Entry<Medicine, List<Lot>> e : plans.entrySet()) {
+            Medicine medicine = e.getKey();
+            int before = medicine.getQuantity();
+            take(medicine, e.getValue());
+            for (Lot taken : e.getValue()) {
+                StockLot lot = new StockLot(medicine.getId(), taken.getExpiryDay(), 0, 0);
+                sold.put(lot.getId(), lot);
+            }
+            fireStockChanged(medicine, before);
+        }
+        if (ledgerOffset - checkpointAt > CHECKPOINT_BYTES && checkpointScheduled.compareAndSet(false, true)) {
+            Journal.runInBackground(() -> {
+                catalogLock.writeLock().lock();
+                try {
+                    checkpoint();
+                } finally {
+                    catalogLock.writeLock().unlock();
+                    checkpointScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Clear the sales ledger. It runs under the catalog write lock, so no sale is half recorded
+     * while the ledger and what is built from it are cleared. The lot records are moved to the
+     * start of the empty ledger with it, so the sales written after the clear are not taken for
+     * ones the stock already holds.
+     * @param clear clears the ledger and what is built from it, false if it could not
+     * @return false if the ledger was not cleared
+     */
+    static boolean clearLedger(BooleanSupplier clear) {
+        load();
+        catalogLock.writeLock().lock();
+        try {
+            if (!checkpoint() || !clear.getAsBoolean()) {
+                return false;
+            }
+            for (Medicine medicine : byId.values()) {
+                for (Lot lot : medicine.getLots()) {
+                    markSold(medicine.getId(), lot.getExpiryDay());
+                }
+            }
+            // If this fails the lots stay marked and the next checkpoint writes them
+            checkpoint();
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Flag the stock as wrong, e.g. a sale in the ledger whose lots are not in stock.
+     * Shown to the admin until the app restarts.
+     */
+    static void reportProblem(String problem) {
+        System.out.println("Error: inventory needs checking: " + problem);
+        problems.add(problem);
+        Metrics.counter("inventory.problems").increment();
+    }
+
+    /**
+     * @return what made the stock counts wrong since startup, empty if nothing did
+     */
+    public static List<String> getProblems() {
+        return List.copyOf(problems);
+    }
+
+    /**
+     * Write everything pending to disk (used on shutdown)
+     */
+    public static void flush() {
+        if (loaded) {
+            catalogLock.writeLock().lock();
+            try {
+                checkpoint();
+            } finally {
+                catalogLock.writeLock().unlock();
+            }
+        }
+        repository.flush();
+        lotRepository.flush();
+    }
+
+    private static void fireStockChanged(Medicine medicine, int before) {
+        for (StockListener listener : stockListeners) {
+            try {
+                listener.stockChanged(medicine, before, medicine.getQuantity());
+            } catch (RuntimeException e) {
+                // The change is already saved, a listener must not undo the sale
+                System.out.println("Error in stock listener: " + e.getMessage());
+                Metrics.error("inventory.listener");
+            }
+        }
+    }
+
+    /**
+     * Write the lots that sales took from since the last checkpoint, as of the end of the ledger,
+     * together with that position. The ledger is forced first, so the lot store never holds a sale
+     * the ledger could still lose. Caller holds the catalog write lock.
+     * @return false if it could not be saved (the lots stay marked for the next one)
+     */
+    private static boolean checkpoint() {
+        long ledgerEnd = PurchaseManager.syncLedger();
+        if (ledgerEnd < 0) {
+            return false;
+        }
+        List<StockLot> records = new ArrayList<>(sold.size() + 1);
+        for (StockLot lot : sold.values()) {
+            Medicine medicine = byId.get(lot.getMedicineId());
+            Lot live = medicine == null ? null : medicine.getLot(lot.getExpiryDay());
+            records.add(new StockLot(lot.getMedicineId(), lot.getExpiryDay(), live == null ? 0 : live.getQuantity(), ledgerEnd));
+        }
+        records.add(StockLot.checkpoint(ledgerEnd));
+        if (!writeLots(records)) {
+            return false;
+        }
+        sold.clear();
+        checkpointAt = ledgerEnd;
+        return true;
+    }
+
+    /**
+     * Take the sales the ledger holds after the last checkpoint off the loaded stock, skipping
+     * lots whose records were written after the sale, and write a new checkpoint. Lot records
+     * from before there were checkpoints are taken as current; a checkpoint past the end of the
+     * ledger means it was cleared since, and the lots are moved to its end.
+     */
+    private static void catchUp(Map<Long, List<StockLot>> stock, long checkpoint, long ledgerEnd) {
+        if (checkpoint >= 0 && checkpoint < ledgerEnd) {
+            Map<Long, Long> written = new HashMap<>();
+            for (List<StockLot> lots : stock.values()) {
+                for (StockLot lot : lots) {
+                    written.put(lot.getId(), lot.getLedgerOffset());
+                }
+            }
+            long sales = LedgerScanner.scan(PurchaseManager.getLedgerFile(), checkpoint, ledgerEnd, row -> {
+                Medicine medicine = byName.get(key(row.getMedicineName()));
+                List<Lot> lots = row.getLots();
+                if (medicine == null || lots.isEmpty()) {
+                    reportProblem("the sale of " + row.getQuantity() + " x " + row.getMedicineName() + " at byte "
+                            + row.getFileOffset() + " of the ledger could not be taken off the stock");
+                    return true;
+                }
+                for (Lot taken : lots) {
+                    StockLot record = new StockLot(medicine.getId(), taken.getExpiryDay(), 0, 0);
+                    Long writtenAt = written.get(record.getId());
+                    if (writtenAt != null && row.getFileOffset() < writtenAt) {
+                        continue; // the lot record already holds this sale
+                    }
+                    Lot lot = medicine.getLot(taken.getExpiryDay());
+                    if (lot == null || lot.getQuantity() < taken.getQuantity()) {
+                        reportProblem("the sale of " + taken.getQuantity() + " x " + medicine.getName() + " (lot " + taken.getExpiry()
+                                + ") at byte " + row.getFileOffset() + " of the ledger is more than the lot holds");
+                        if (lot == null) {
+                            continue;
+                        }
+                        taken = new Lot(taken.getExpiryDay(), lot.getQuantity());
+                    }
+                    take(medicine, List.of(taken));
+                    sold.put(record.getId(), record);
+                }
+                return true;
+            });
+            System.out.println("Took " + sales + " sales made after the last checkpoint off the stock");
+        } else if (checkpoint > ledgerEnd) {
+            for (Medicine medicine : byId.values()) {
+                for (Lot lot : medicine.getLots()) {
+                    markSold(medicine.getId(), lot.getExpiryDay());
+                }
+            }
+        } else if (checkpoint == ledgerEnd) {
+            checkpointAt = checkpoint;
+            return;
+        }
+        if (!checkpoint()) {
+            throw new IllegalStateException("Cannot write a checkpoint to the lot store");
+        }
+    }
+
+    private static void markSold(long medicineId, long expiryDay) {
+        StockLot lot = new StockLot(medicineId, expiryDay, 0, 0);
+        sold.put(lot.getId(), lot);
+    }
+
+    // Take planned stock out of a medicine and the expiry index
+    private static void take(Medicine medicine, List<Lot> plan) {
+        for (long day : medicine.draw(plan)) {
+            byExpiry.remove(probe(day, medicine.getId()));
+        }
+    }
+
+    // Lot records, as of the last checkpoint, that turn the stored stock of 'before' into that of 'after' (either may be null for none)
+    private static List<StockLot> lotChanges(long id, Medicine before, Medicine after) {
+        List<StockLot> changes = new ArrayList<>();
+        Map<Long, Integer> target = new LinkedHashMap<>();
+        if (after != null) {
+            for (Lot lot : after.getLots()) {
+                target.put(lot.getExpiryDay(), lot.getQuantity());
+            }
+        }
+        if (before != null) {
+            for (Lot lot : before.getLots()) {
+                Integer quantity = target.remove(lot.getExpiryDay());
+                if (quantity == null || quantity != lot.getQuantity()) {
+                    changes.add(new StockLot(id, lot.getExpiryDay(), quantity == null ? 0 : quantity, checkpointAt));
+                }
+            }
+        }
+        target.forEach((day, quantity) -> changes.add(new StockLot(id, day, quantity, checkpointAt)));
+        return changes;
+    }
+
+    /**
+     * Save medicine records and their lot changes. The lots go first; if the records then fail
+     * the lots are set back with 'undo', so nothing is changed.
+     */
+    private static boolean save(List<Medicine> records, List<StockLot> lots, List<StockLot> undo) {
+        if (!lots.isEmpty() && !writeLots(lots)) {
+            return false;
+        }
+        for (Medicine record : records) {
+            record.setLotsApart(true);
+        }
+        if (!repository.putAll(records)) {
+            undoLots(undo);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write lot records with one repository write; a lot with no stock left is deleted, so the
+     * lot store only holds lots in stock (and the checkpoint)
+     */
+    private static boolean writeLots(List<StockLot> lots) {
+        List<StockLot> stocked = new ArrayList<>(lots.size());
+        List<Long> emptied = new ArrayList<>();
+        for (StockLot lot : lots) {
+            if (lot.getQuantity() > 0 || lot.isCheckpoint()) {
+                stocked.add(lot);
+            } else {
+                emptied.add(lot.getId());
+            }
+        }
+        return lotRepository.writeAll(stocked, emptied);
+    }
+
+    private static void undoLots(List<StockLot> undo) {
+        if (!undo.isEmpty() && !writeLots(undo)) {
+            reportProblem("the stock of a medicine that could not be saved could not be set back either");
+        }
+    }
+
+    /**
+     * Store the lots of medicines read from records that still hold them, then write those records
+     * without them. Until the records are rewritten their own lots count, so doing it again after a
+     * crash is harmless.
+     * @param stock lot records already stored, by medicine ID (stale ones are emptied)
+     * @param ledgerEnd length of the ledger, whose sales the records already hold
+     */
+    private static void moveLotsApart(List<Medicine> medicines, Map<Long, List<StockLot>> stock, long ledgerEnd) {
+        if (medicines.isEmpty()) {
+            return;
+        }
+        List<StockLot> lots = new ArrayList<>();
+        for (Medicine medicine : medicines) {
+            Set<Long> days = new HashSet<>();
+            List<StockLot> moved = new ArrayList<>();
+            for (Lot lot : medicine.getLots()) {
+                moved.add(new StockLot(medicine.getId(), lot.getExpiryDay(), lot.getQuantity(), ledgerEnd));
+                days.add(lot.getExpiryDay());
+            }
+            for (StockLot stale : stock.getOrDefault(medicine.getId(), List.of())) {
+                if (!days.contains(stale.getExpiryDay())) {
+                    lots.add(new StockLot(medicine.getId(), stale.getExpiryDay(), 0, ledgerEnd));
+                }
+            }
+            lots.addAll(moved);
+            stock.put(medicine.getId(), moved);
+        }
+        if (!writeLots(lots)) {
+            throw new IllegalStateException("Cannot move the stock of " + medicines.size() + " medicines to the lot store");
+        }
+        for (Medicine medicine : medicines) {
+            medicine.setLotsApart(true);
+        }
+        if (!repository.putAll(medicines)) {
+            throw new IllegalStateException("Cannot move the stock of " + medicines.size() + " medicines to the lot store");
+        }
+        System.out.println("Moved the stock of " + medicines.size() + " medicines to the lot store");
+    }
+
+    // Names are unique (case-insensitive): sales and lookups go by name
+    private static void checkNameFree(String name, long id) {
+        Medicine named = byName.get(key(name));
+        if (named != null && named.getId() != id) {
+            throw new IllegalArgumentException("A medicine named '" + named.getName() + "' is already in the inventory.");
+        }
+    }
+
+    private static int stripe(String name) {
+        return name == null ? 0 : (key(name).hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private static Medicine withId(long id, Medicine m) {
+        return m.withId(id);
+    }
+
+    // Add a medicine, giving it the next ID if it has none; returns the medicine as indexed
+    private static Medicine index(Medicine medicine) {
+        if (medicine.getId() == 0) {
+            medicine = withId(nextId, medicine);
+        }
+        nextId = Math.max(nextId, medicine.getId() + 1);
+        Medicine old = byId.put(medicine.getId(), medicine);
+        if (old != null) {
+            unindexExpiry(old);
+        }
+        byName.putIfAbsent(key(medicine.getName()), medicine);
+        indexExpiry(medicine);
+        return medicine;
+    }
+
+    // Put a medicine in place of the one with its ID (or add it), keeping its position
+    private static void replace(Medicine medicine) {
+        Medicine old = byId.put(medicine.getId(), medicine);
+        String name = key(medicine.getName());
+        if (old != null) {
+            if (byName.get(name) == old) {
+                byName.put(name, medicine); // same name, only a rename needs the index changed
+            } else if (!key(old.getName()).equals(name)) {
+                unindexName(old);
+            }
+            unindexExpiry(old);
+        }
+        nextId = Math.max(nextId, medicine.getId() + 1);
+        byName.putIfAbsent(name, medicine);
+        indexExpiry(medicine);
+    }
+
+    private static boolean unindex(long id) {
+        Medicine old = byId.remove(id);
+        if (old == null) {
+            return false;
+        }
+        unindexName(old);
+        unindexExpiry(old);
+        return true;
+    }
+
+    // Take the name of a medicine that is replaced or removed out of the name index. Catalogs saved
+    // before names had to be unique may have another medicine of that name, which then takes it over.
+    private static void unindexName(Medicine old) {
+        String key = key(old.getName());
+        if (byName.get(key) != old) {
+            return;
+        }
+        byName.remove(key);
+        for (Medicine other : byId.values()) {
+            if (other != old && key(other.getName()).equals(key)) {
+                byName.put(key, other);
+                return;
+            }
+        }
+    }
+
+    private static void indexExpiry(Medicine medicine) {
+        for (Lot lot : medicine.getLots()) {
+            byExpiry.add(new ExpiringLot(lot.getExpiryDay(), medicine.getId(), medicine, medicine.getLot(lot.getExpiryDay())));
+        }
+    }
+
+    private static void unindexExpiry(Medicine medicine) {
+        for (Lot lot : medicine.getLots()) {
+            byExpiry.remove(probe(lot.getExpiryDay(), medicine.getId()));
+        }
+    }
+
+    // Key for looking up or removing a lot in the expiry index
+    private static ExpiringLot probe(long expiryDay, long medicineId) {
+        return new ExpiringLot(expiryDay, medicineId, null, null);
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,277 @@
+package utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Append-only log of small text records (one per line).
+ * Appends go straight to the OS, fsync is batched: the file is forced after every
+ * {@code syncEvery} records or by a background flush a few milliseconds later,
+ * whichever comes first. Owners replay it on startup and fold it into their snapshot
+ * with {@link #rotate()} when it grows too large.
+ */
+public class Journal {
+    // Shared daemon thread for delayed fsyncs and snapshot compactions
+    private static final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "journal-background");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path path;
+    private final int syncEvery;
+    private final long syncDelayMillis;
+    private final Metrics.Timer appendTime;
+    private final Metrics.Timer syncTime;
+    private final Metrics.Counter errors;
+    private FileChannel channel;
+    private int unsynced = 0;
+    private boolean flushScheduled = false;
+    // Set when a failed write could not be cut back, so the next record starts on a new line
+    private boolean torn = false;
+
+    public Journal(String fileName, int syncEvery, long syncDelayMillis) {
+        this.path = Paths.get(fileName);
+        this.syncEvery = syncEvery;
+        this.syncDelayMillis = syncDelayMillis;
+        this.appendTime = Metrics.timer("journal." + fileName + ".append");
+        this.syncTime = Metrics.timer("journal." + fileName + ".fsync");
+        this.errors = Metrics.counter("journal." + fileName + ".errors");
+    }
+
+    public String getFileName() {
+        return path.toString();
+    }
+
+    /**
+     * Run a task on the shared background thread (used for compaction)
+     */
+    public static void runInBackground(Runnable task) {
+        background.execute(task);
+    }
+
+    /**
+     * Wait until the tasks handed to the background thread so far have run (e.g. before a measurement)
+     */
+    public static void awaitBackground() {
+        try {
+            background.submit(() -> {}).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // an empty task does not fail
+        }
+    }
+
+    /**
+     * Append one record
+     * @return true if the record was written
+     */
+    public boolean append(String record) {
+        return append(List.of(record));
+    }
+
+    /**
+     * Append several records with a single write
+     * @return true if the records were written
+     */
+    public boolean append(List<String> records) {
+        return appendAt(records) >= 0;
+    }
+
+    /**
+     * Append several records with a single write.
+     * If the write fails part way, the file is cut back to where it was, so no half record is left.
+     * @return byte offset of the first record in the file, or -1 if they could not be written
+     */
+    public synchronized long appendAt(List<String> records) {
+        if (records.isEmpty()) {
+            return size();
+        }
+        long start = System.nanoTime();
+        StringBuilder sb = new StringBuilder();
+        int lead = 0;
+        if (torn) {
+            sb.append('\n'); // ends the broken line before it, which readers skip
+            lead = 1;
+        }
+        for (String r : records) {
+            sb.append(r).append('\n');
+        }
+        long offset = -1;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            FileChannel ch = open();
+            offset = ch.size();
+            while (buffer.hasRemaining()) {
+                ch.write(buffer);
+            }
+            unsynced += records.size();
+            if (unsynced >= syncEvery) {
+                sync();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                background.schedule(this::sync, syncDelayMillis, TimeUnit.MILLISECONDS);
+            }
+            torn = false;
+            return offset + lead;
+        } catch (IOException e) {
+            errors.increment();
+            System.out.println("Error writing journal " + path + ": " + e.getMessage());
+            cutBack(offset);
+            return -1;
+        } finally {
+            appendTime.recordSince(start);
+        }
+    }
+
+    /**
+     * Force everything written so far to disk
+     */
+    public synchronized void sync() {
+        force();
+    }
+
+    /**
+     * Force everything written so far to disk
+     * @return size of the journal in bytes, all of it on disk, or -1 if it could not be forced
+     */
+    public synchronized long syncedSize() {
+        return force() ? size() : -1;
+    }
+
+    /**
+     * @return size of the journal in bytes
+     */
+    public synchronized long size() {
+        try {
+            return channel != null ? channel.size() : (Files.exists(path) ? Files.size(path) : 0);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Move the current journal aside and start an empty one.
+     * The caller writes its snapshot and then deletes the returned file.
+     * @return the rotated journal file
+     */
+    public synchronized File rotate() throws IOException {
+        sync();
+        close();
+        Path rotated = rotatedPath();
+        if (!Files.exists(path)) {
+            Files.createFile(path);
+        }
+        if (Files.exists(rotated)) {
+            // An earlier compaction did not finish, keep its records in front of ours
+            Files.write(rotated, Files.readAllBytes(path), StandardOpenOption.APPEND);
+            Files.delete(path);
+        } else {
+            Files.move(path, rotated, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return rotated.toFile();
+    }
+
+    /**
+     * Records left over from an interrupted compaction followed by the current ones, in write order
+     */
+    public synchronized List<String> readAll() {
+        List<String> records = new ArrayList<>();
+        for (Path p : new Path[]{rotatedPath(), path}) {
+            if (!Files.exists(p)) {
+                continue;
+            }
+            try (BufferedReader br = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        records.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Error reading journal " + p + ": " + e.getMessage());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Throw away every record
+     * @return true if the journal is now empty
+     */
+    public synchronized boolean clear() {
+        close();
+        try {
+            Files.deleteIfExists(rotatedPath());
+            Files.write(path, new byte[0]);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error clearing journal " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing journal " + path + ": " + e.getMessage());
+        }
+        channel = null;
+        unsynced = 0;
+    }
+
+    private boolean force() {
+        flushScheduled = false;
+        if (unsynced == 0 || channel == null) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            channel.force(false);
+            unsynced = 0;
+            return true;
+        } catch (IOException e) {
+            errors.increment();
+            System.out.println("Error syncing journal " + path + ": " + e.getMessage());
+            return false;
+        } finally {
+            syncTime.recordSince(start);
+        }
+    }
+
+    // Drop whatever part of a failed write reached the file
+    private void cutBack(long offset) {
+        if (offset < 0 || channel == null) {
+            return;
+        }
+        try {
+            channel.truncate(offset);
+        } catch (IOException e) {
+            System.out.println("Error cutting back journal " + path + ": " + e.getMessage());
+            torn = true;
+            close();
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    private Path rotatedPath() {
+        return Paths.get(path + ".old");
+    }
+}
@@ -0,0 +1,472 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Memory-mapped reader for the purchase ledger.
+ * Delimiters are found directly in the mapped bytes and numbers and timestamps are parsed
+ * from them, so scanning a large ledger creates no per-line Strings or formatter objects.
+ * Each line is handed to the visitor as a {@link PurchaseView}.
+ * Reading a mapped page that is no longer in the file kills the reading thread, so a ledger
+ * is only cut short through {@link #truncate}, which waits until no scan or reader is in it.
+ */
+public class LedgerScanner {
+    // Shared while mapped bytes are read, exclusive while a ledger is cut short
+    private static final ReentrantReadWriteLock mapped = new ReentrantReadWriteLock();
+    // Bumped by every truncate, so readers drop the windows they mapped before it
+    private static final AtomicLong truncations = new AtomicLong();
+
+    // Files are mapped in windows so ledgers larger than 2 GB can be read too
+    private static final long WINDOW = 64L * 1024 * 1024;
+
+    /**
+     * Called once per ledger line
+     */
+    public interface RowVisitor {
+        /**
+         * @return false to stop the scan
+         */
+        boolean visit(PurchaseView row);
+    }
+
+    /**
+     * Scan the whole ledger
+     * @return number of rows visited
+     */
+    public static long scan(String fileName, RowVisitor visitor) {
+        return scan(fileName, 0, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Scan the lines starting in [from, to). {@code from} must be the start of a line.
+     * Lines that cannot be read as purchases are skipped.
+     * @return number of rows visited
+     */
+    public static long scan(String fileName, long from, long to, RowVisitor visitor) {
+        mapped.readLock().lock();
+        try {
+            return scanRange(fileName, from, to, visitor);
+        } finally {
+            mapped.readLock().unlock();
+        }
+    }
+
+    /**
+     * Cut a ledger short (e.g. clear it) once no scan or reader is reading a mapping of it.
+     * Scans wait until it is done; {@link Reader}s map the file again and find the rows they
+     * pointed to gone.
+     * @return what the action returns
+     */
+    public static <T> T truncate(Supplier<T> action) {
+        mapped.writeLock().lock();
+        try {
+            truncations.incrementAndGet();
+            return action.get();
+        } finally {
+            mapped.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the mapped lock
+    private static long scanRange(String fileName, long from, long to, RowVisitor visitor) {
+        Path path = Paths.get(fileName);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long rows = 0;
+        PurchaseView view = new PurchaseView(new NameCache());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long end = Math.min(to, channel.size());
+            long position = from;
+            while (position < end) {
+                // Lines starting before 'end' may run past it, so map a little further
+                long length = Math.min(WINDOW, channel.size() - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int limit = (int) length;
+                int lineStart = 0;
+                boolean lastWindow = position + length >= channel.size();
+                while (lineStart < limit && position + lineStart < end) {
+                    int newline = indexOf(buffer, (byte) '\n', lineStart, limit);
+                    if (newline < 0) {
+                        if (!lastWindow) {
+                            break; // the line continues in the next window
+                        }
+                        newline = limit;
+                    }
+                    int lineEnd = newline;
+                    if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                        lineEnd--;
+                    }
+                    if (lineEnd > lineStart && view.bind(buffer, position, lineStart, lineEnd)) {
+                        rows++;
+                        if (!visitor.visit(view)) {
+                            return rows;
+                        }
+                    }
+                    lineStart = newline + 1;
+                }
+                if (lineStart == 0) {
+                    System.out.println("Ledger line longer than the scan window at offset " + position);
+                    Metrics.error("ledger.scan");
+                    break;
+                }
+                position += lineStart;
+            }
+        } catch (IOException e) {
+            System.out.println("Error scanning purchases: " + e.getMessage());
+            Metrics.error("ledger.scan");
+        }
+        return rows;
+    }
+
+    // Below this a range is scanned by one task
+    private static final long MIN_PARALLEL_RANGE = 4L * 1024 * 1024;
+
+    /**
+     * Fold the lines starting in [from, to) into a result, in parallel.
+     * The range is cut into pieces that begin at a line start, a few per worker of the pool;
+     * each piece is folded into its own partial result by a fork/join task and neighbouring
+     * partial results are merged, always as merge(earlier, later), until one is left.
+     * @param from offset of a line start
+     * @param create makes an empty partial result
+     * @param accumulate adds one line to a partial result
+     * @param merge folds the partial result of the following range into the first one
+     */
+    public static <A> A parallelScan(String fileName, long from, long to, ForkJoinPool pool,
+                                     Supplier<A> create, BiConsumer<A, PurchaseView> accumulate, BinaryOperator<A> merge) {
+        Path path = Paths.get(fileName);
+        // Held for the whole scan: the tasks run on pool threads and read without taking it
+        mapped.readLock().lock();
+        try {
+            if (!Files.exists(path) || from >= to) {
+                return create.get();
+            }
+            long[] bounds;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long end = Math.min(to, channel.size());
+                if (from >= end) {
+                    return create.get();
+                }
+                bounds = split(channel, from, end, pool.getParallelism());
+            } catch (IOException e) {
+                System.out.println("Error scanning purchases: " + e.getMessage());
+                Metrics.error("ledger.scan");
+                return create.get();
+            }
+            return pool.invoke(new RangeTask<>(fileName, bounds, 0, bounds.length - 1, create, accumulate, merge));
+        } finally {
+            mapped.readLock().unlock();
+        }
+    }
+
+    /**
+     * Folds the ranges bounds[lo..hi)
+     */
+    private static class RangeTask<A> extends RecursiveTask<A> {
+        private final String fileName;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+        private final Supplier<A> create;
+        private final BiConsumer<A, PurchaseView> accumulate;
+        private final BinaryOperator<A> merge;
+
+        RangeTask(String fileName, long[] bounds, int lo, int hi,
+                  Supplier<A> create, BiConsumer<A, PurchaseView> accumulate, BinaryOperator<A> merge) {
+            this.fileName = fileName;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.create = create;
+            this.accumulate = accumulate;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (hi - lo == 1) {
+                A result = create.get();
+                scanRange(fileName, bounds[lo], bounds[hi], row -> {
+                    accumulate.accept(result, row);
+                    return true;
+                });
+                return result;
+            }
+            int mid = (lo + hi) >>> 1;
+            RangeTask<A> left = new RangeTask<>(fileName, bounds, lo, mid, create, accumulate, merge);
+            left.fork();
+            A right = new RangeTask<>(fileName, bounds, mid, hi, create, accumulate, merge).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+
+    /**
+     * Cut [start, end) into ranges of at least MIN_PARALLEL_RANGE bytes that all begin at a line
+     * start, a few per worker so that uneven ranges still keep every core busy
+     * @return the range boundaries, from start to end
+     */
+    private static long[] split(FileChannel channel, long start, long end, int parallelism) throws IOException {
+        long size = Math.max(MIN_PARALLEL_RANGE, (end - start) / (parallelism * 4L));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = start + size;
+        while (position < end) {
+            long lineStart = nextLineStart(channel, position, end, buffer);
+            if (lineStart >= end) {
+                break;
+            }
+            bounds.add(lineStart);
+            position = lineStart + size;
+        }
+        bounds.add(end);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // Offset just after the first newline at or after 'position', or 'end' if there is none before it
+    private static long nextLineStart(FileChannel channel, long position, long end, ByteBuffer buffer) throws IOException {
+        while (position < end) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    /**
+     * Random access to single ledger lines by file offset, e.g. for a table that only
+     * shows a few rows at a time. Keeps one mapped window of the file around, so reading
+     * nearby rows does not map the file again; the window is dropped when the ledger has been
+     * cut short since. Not thread-safe.
+     */
+    public static class Reader implements AutoCloseable {
+        private static final long READ_WINDOW = 16L * 1024 * 1024;
+        private final FileChannel channel;
+        private final PurchaseView view = new PurchaseView(new NameCache());
+        private MappedByteBuffer buffer;
+        private long bufferStart = -1;
+        private int bufferLength = 0;
+        private long truncation = -1;
+
+        public Reader(String fileName) throws IOException {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        }
+
+        /**
+         * Read the line starting at this offset. The view is only valid inside 'use', the
+         * ledger cannot be cut short until it returns.
+         * @param use gets the line, or null if it is not a readable purchase
+         * @return what 'use' returns
+         */
+        public <T> T readAt(long offset, Function<PurchaseView, T> use) throws IOException {
+            mapped.readLock().lock();
+            try {
+                if (truncation != truncations.get()) {
+                    truncation = truncations.get();
+                    buffer = null;
+                }
+                return use.apply(offset < channel.size() ? readAt(offset) : null);
+            } finally {
+                mapped.readLock().unlock();
+            }
+        }
+
+        private PurchaseView readAt(long offset) throws IOException {
+            int end = lineEnd(offset);
+            if (end < 0) {
+                // Map a window starting at the line itself and try again
+                map(offset);
+                end = lineEnd(offset);
+                if (end < 0) {
+                    return null;
+                }
+            }
+            int start = (int) (offset - bufferStart);
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            return view.bind(buffer, bufferStart, start, end) ? view : null;
+        }
+
+        // End of the line at 'offset' inside the current window, or -1 if it is not all in the window
+        private int lineEnd(long offset) throws IOException {
+            if (buffer == null || offset < bufferStart || offset >= bufferStart + bufferLength) {
+                map(offset - offset % READ_WINDOW);
+            }
+            int start = (int) (offset - bufferStart);
+            int newline = indexOf(buffer, (byte) '\n', start, bufferLength);
+            if (newline >= 0) {
+                return newline;
+            }
+            return bufferStart + bufferLength >= channel.size() ? bufferLength : -1;
+        }
+
+        private void map(long position) throws IOException {
+            bufferStart = position;
+            bufferLength = (int) Math.min(READ_WINDOW, channel.size() - position);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, bufferLength);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    static int indexOf(MappedByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static long parseLong(MappedByteBuffer buffer, int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            value = value * 10 + (buffer.get(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Parse a decimal as written by {@code Double.toString} ("150.0", "1.25E7").
+     * Up to 15 significant digits are exact because both parts fit a double exactly;
+     * anything longer falls back to {@link Double#parseDouble}.
+     */
+    static double parseDouble(MappedByteBuffer buffer, int from, int to) {
+        int i = from;
+        boolean negative = i < to && buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        int exponent = 0;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction) {
+                    scale++;
+                }
+            } else if (b == '.') {
+                fraction = true;
+            } else if (b == 'E' || b == 'e') {
+                exponent = (int) parseLong(buffer, i + 1, to);
+                break;
+            } else {
+                return slowParse(buffer, from, to);
+            }
+        }
+        if (digits > 15) {
+            return slowParse(buffer, from, to);
+        }
+        int power = exponent - scale;
+        double value;
+        if (power >= 0 && power < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[power];
+        } else if (power < 0 && -power < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-power];
+        } else {
+            return slowParse(buffer, from, to);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(MappedByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Days since 1970-01-01 for a proleptic Gregorian date, without LocalDate
+     */
+    static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    /**
+     * Medicine names repeat on almost every line, so each distinct name is decoded once
+     * and then found again by comparing bytes.
+     */
+    static class NameCache {
+        private static final int SIZE = 1024;
+        private final byte[][] keys = new byte[SIZE][];
+        private final String[] values = new String[SIZE];
+
+        String get(MappedByteBuffer buffer, int from, int to) {
+            int hash = 0x811c9dc5;
+            for (int i = from; i < to; i++) {
+                hash = (hash ^ buffer.get(i)) * 0x01000193;
+            }
+            int slot = hash & (SIZE - 1);
+            byte[] key = keys[slot];
+            if (key != null && key.length == to - from && sameBytes(buffer, from, key)) {
+                return values[slot];
+            }
+            byte[] bytes = new byte[to - from];
+            buffer.get(from, bytes);
+            keys[slot] = bytes;
+            values[slot] = new String(bytes, StandardCharsets.UTF_8);
+            return values[slot];
+        }
+
+        private static boolean sameBytes(MappedByteBuffer buffer, int from, byte[] key) {
+            for (int i = 0; i < key.length; i++) {
+                if (buffer.get(from + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks failed logins per username and slows down guessing.
+ * The first few failures are free, then each one doubles the wait before the next attempt,
+ * and enough of them lock the account for a while. Failures fade with a half-life, so an
+ * occasional typo is forgotten. At most {@link #MAX_TRACKED} usernames are remembered, so memory
+ * stays flat however many names are tried: to make room the least recently seen username without
+ * a penalty is forgotten, and while every one has a penalty new usernames are throttled.
+ *
+ * An attempt in progress counts as a failure until its outcome is known, so concurrent guesses
+ * cannot all start before the first wrong one is recorded: a username gets at most
+ * {@code FREE_FAILURES} attempts at once, and only one once its free failures are used up.
+ * Every {@link #tryAcquire} that returns true must be followed by {@link #recordFailure},
+ * {@link #recordSuccess} or {@link #release}.
+ */
+public class LoginThrottle {
+    public static final int MAX_TRACKED = 10_000;
+    private static final int MAX_KEY_LENGTH = 64;
+    private static final int FREE_FAILURES = 3;
+    private static final int LOCKOUT_FAILURES = 10;
+    private static final long BASE_DELAY_MILLIS = 1_000;
+    private static final long MAX_DELAY_MILLIS = 60_000;
+    private static final long LOCKOUT_MILLIS = 15 * 60_000;
+    private static final long HALF_LIFE_MILLIS = 10 * 60_000;
+
+    private static class Entry {
+        double failures;
+        long lastFailure;
+        long blockedUntil;
+        int pending; // attempts let through whose outcome is not known yet
+    }
+
+    // In access order, so the least recently seen username comes first
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private static final LongAdder rejected = new LongAdder();
+    private static final LongAdder throttled = new LongAdder();
+    private static final LongAdder lockouts = new LongAdder();
+
+    /**
+     * @return milliseconds until this username may try again, 0 if it may try now
+     */
+    public static synchronized long retryAfterMillis(String username) {
+        Entry e = entries.get(key(username));
+        if (e == null) {
+            return 0;
+        }
+        return Math.max(0, e.blockedUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * Called before looking up the user or checking a password; reserves the attempt
+     * @return true if the attempt may go ahead; false counts it as throttled
+     */
+    public static synchronized boolean tryAcquire(String username) {
+        long now = System.currentTimeMillis();
+        Entry e = track(key(username), now);
+        if (e == null || e.blockedUntil > now || (e.pending > 0 && decayed(e, now) + e.pending >= FREE_FAILURES)) {
+            throttled.increment();
+            return false;
+        }
+        e.pending++;
+        return true;
+    }
+
+    /**
+     * Give back a reserved attempt that ended without an answer (e.g. an error)
+     */
+    public static synchronized void release(String username) {
+        Entry e = entries.get(key(username));
+        if (e != null) {
+            e.pending = Math.max(0, e.pending - 1);
+            if (e.pending == 0 && e.failures == 0 && e.blockedUntil == 0) {
+                entries.remove(key(username));
+            }
+        }
+    }
+
+    /**
+     * Record a wrong password and work out how long the username has to wait
+     */
+    public static synchronized void recordFailure(String username) {
+        rejected.increment();
+        long now = System.currentTimeMillis();
+        Entry e = track(key(username), now);
+        if (e == null) {
+            return;
+        }
+        e.pending = Math.max(0, e.pending - 1);
+        e.failures = decayed(e, now) + 1;
+        e.lastFailure = now;
+
+        if (e.failures >= LOCKOUT_FAILURES) {
+            e.blockedUntil = now + LOCKOUT_MILLIS;
+            e.failures = 0; // after the lockout they start over with a few free tries
+            lockouts.increment();
+        } else if (e.failures > FREE_FAILURES) {
+            int doublings = (int) Math.min(30, e.failures - FREE_FAILURES - 1);
+            e.blockedUntil = now + Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << doublings);
+        }
+    }
+
+    /**
+     * A correct password clears the history of that username (other attempts still in progress stay reserved)
+     */
+    public static synchronized void recordSuccess(String username) {
+        Entry e = entries.get(key(username));
+        if (e == null) {
+            return;
+        }
+        e.pending = Math.max(0, e.pending - 1);
+        if (e.pending == 0) {
+            entries.remove(key(username));
+        } else {
+            e.failures = 0;
+            e.blockedUntil = 0;
+        }
+    }
+
+    public static long getRejectedCount() { return rejected.sum(); }
+    public static long getThrottledCount() { return throttled.sum(); }
+    public static long getLockoutCount() { return lockouts.sum(); }
+
+    public static synchronized int getTrackedCount() {
+        return entries.size();
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the entry of this username, a new one if there is room, or null if every entry has a penalty
+     */
+    private static Entry track(String key, long now) {
+        Entry e = entries.get(key);
+        if (e != null) {
+            return e;
+        }
+        if (entries.size() >= MAX_TRACKED && !forgetOne(now)) {
+            return null;
+        }
+        e = new Entry();
+        entries.put(key, e);
+        return e;
+    }
+
+    // Forgetting a username must not lift a wait or give back more than its free tries
+    private static boolean forgetOne(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.pending == 0 && e.blockedUntil <= now && decayed(e, now) <= FREE_FAILURES) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double decayed(Entry e, long now) {
+        if (e.failures == 0) {
+            return 0;
+        }
+        return e.failures * Math.pow(0.5, (double) (now - e.lastFailure) / HALF_LIFE_MILLIS);
+    }
+
+    // Long names would let an attacker grow the map by key size instead of count
+    private static String key(String username) {
+        return username.length() > MAX_KEY_LENGTH ? username.substring(0, MAX_KEY_LENGTH) : username;
+    }
+}
@@ -0,0 +1,221 @@
+package utils;
+
+import models.Medicine;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk import of a medicine catalog from a CSV file ({@code name,quantity,price,expiry}).
+ *
+ * The file is streamed in chunks; the lines of each chunk are validated in parallel and
+ * folded into one entry per medicine (case-insensitive name), with one lot per expiry date.
+ * The result is merged into the catalog with a single batched write: the lots are added to
+ * existing medicines, whose price is replaced by the imported one, and new names are added.
+ * Every step is linear in the number of lines.
+ */
+public class MedicineImporter {
+    private static final int CHUNK_LINES = 8192;
+    private static final int MAX_REJECTS_LISTED = 100;
+
+    /**
+     * Outcome of an import
+     */
+    public static class Report {
+        private long rows;
+        private int added;
+        private int merged;
+        private long rejected;
+        private final List<String> rejects = new ArrayList<>();
+        private long elapsedNanos;
+        private boolean saved;
+
+        private void reject(long line, String reason) {
+            rejected++;
+            if (rejects.size() < MAX_REJECTS_LISTED) {
+                rejects.add("line " + line + ": " + reason);
+            }
+        }
+
+        public long getRows() { return rows; }
+        public int getAdded() { return added; }
+        public int getMerged() { return merged; }
+        public long getRejected() { return rejected; }
+        /** The first rejected lines with the reason */
+        public List<String> getRejects() { return rejects; }
+        public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+        public boolean isSaved() { return saved; }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Rows read: %,d | New medicines: %,d | Merged into existing: %,d | Rejected: %,d%n",
+                    rows, added, merged, rejected));
+            sb.append(String.format("Time: %,d ms (%,.0f rows/s)%n", getElapsedMillis(), getRowsPerSecond()));
+            if (!saved) {
+                sb.append("Nothing was saved.\n");
+            }
+            for (String r : rejects) {
+                sb.append(r).append('\n');
+            }
+            if (rejected > rejects.size()) {
+                sb.append("... ").append(rejected - rejects.size()).append(" more\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    // One validated line, or the reason it was rejected
+    private static final class Row {
+        final long line;
+        final String name;
+        final int quantity;
+        final double price;
+        final LocalDate expiry;
+        final String error;
+
+        Row(long line, String name, int quantity, double price, LocalDate expiry) {
+            this.line = line;
+            this.name = name;
+            this.quantity = quantity;
+            this.price = price;
+            this.expiry = expiry;
+            this.error = null;
+        }
+
+        Row(long line, String error) {
+            this.line = line;
+            this.name = null;
+            this.quantity = 0;
+            this.price = 0;
+            this.expiry = null;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Import a CSV file into the catalog. A first line that does not parse as data is taken as a header.
+     */
+    public static Report importCsv(Path file) throws IOException {
+        Report report = new Report();
+        long start = System.nanoTime();
+        // Lower-cased name -> combined lots, in first-seen order, and the last price seen
+        Map<String, Medicine> combined = new LinkedHashMap<>();
+        Map<String, Double> prices = new HashMap<>();
+
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> chunk = new ArrayList<>(CHUNK_LINES);
+            long firstLine = 1;
+            String line;
+            while ((line = br.readLine()) != null) {
+                chunk.add(line);
+                if (chunk.size() == CHUNK_LINES) {
+                    fold(validate(chunk, firstLine), combined, prices, report);
+                    firstLine += chunk.size();
+                    chunk.clear();
+                }
+            }
+            fold(validate(chunk, firstLine), combined, prices, report);
+        }
+
+        if (!combined.isEmpty()) {
+            List<Medicine> batch = new ArrayList<>(combined.size());
+            combined.forEach((key, m) -> batch.add(m.copy(0, m.getName(), prices.get(key))));
+            int[] counts = InventoryStore.merge(batch);
+            if (counts != null) {
+                report.added = counts[0];
+                report.merged = counts[1];
+                report.saved = true;
+            }
+        } else {
+            report.saved = true;
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    // Validate the lines of a chunk in parallel, keeping their order
+    private static Row[] validate(List<String> chunk, long firstLine) {
+        return IntStream.range(0, chunk.size()).parallel()
+                .mapToObj(i -> parse(chunk.get(i), firstLine + i))
+                .toArray(Row[]::new);
+    }
+
+    private static void fold(Row[] rows, Map<String, Medicine> combined, Map<String, Double> prices, Report report) {
+        for (Row row : rows) {
+            if (row == null) {
+                continue; // blank line or header
+            }
+            report.rows++;
+            if (row.error != null) {
+                report.reject(row.line, row.error);
+                continue;
+            }
+            String key = row.name.toLowerCase(Locale.ROOT);
+            Medicine earlier = combined.get(key);
+            if (earlier != null && (long) row.quantity + earlier.getQuantity() > Integer.MAX_VALUE) {
+                report.reject(row.line, "total quantity of " + row.name + " is too large");
+                continue;
+            }
+            // The stock goes into the lot of its expiry date, the last price wins
+            Medicine medicine = earlier != null ? earlier : new Medicine(row.name, 0, row.price, row.expiry.toEpochDay());
+            medicine.addLot(row.expiry.toEpochDay(), row.quantity);
+            combined.put(key, medicine);
+            prices.put(key, row.price);
+        }
+    }
+
+    /**
+     * @return the validated row, a rejected row, or null for a blank line or a header
+     */
+    private static Row parse(String line, long lineNo) {
+        if (line.isBlank()) {
+            return null;
+        }
+        String[] f = line.split(",", -1);
+        if (f.length != 4) {
+            return new Row(lineNo, "expected 4 fields (name,quantity,price,expiry), found " + f.length);
+        }
+        String name = f[0].trim();
+        if (lineNo == 1 && !f[1].trim().isEmpty() && !Character.isDigit(f[1].trim().charAt(0))) {
+            return null; // header
+        }
+        if (name.isEmpty()) {
+            return new Row(lineNo, "empty name");
+        }
+        int quantity;
+        double price;
+        LocalDate expiry;
+        try {
+            quantity = Integer.parseInt(f[1].trim());
+        } catch (NumberFormatException e) {
+            return new Row(lineNo, "bad quantity '" + f[1].trim() + "'");
+        }
+        if (quantity < 0) {
+            return new Row(lineNo, "negative quantity");
+        }
+        try {
+            price = Double.parseDouble(f[2].trim());
+        } catch (NumberFormatException e) {
+            return new Row(lineNo, "bad price '" + f[2].trim() + "'");
+        }
+        if (!(price > 0) || Double.isInfinite(price)) {
+            return new Row(lineNo, "price must be positive");
+        }
+        try {
+            expiry = LocalDate.parse(f[3].trim());
+        } catch (DateTimeException e) {
+            return new Row(lineNo, "bad expiry '" + f[3].trim() + "' (use yyyy-mm-dd)");
+        }
+        return new Row(lineNo, name, quantity, price, expiry);
+    }
+}
@@ -1,101 +1,100 @@
 package utils;
 
-import java.io.*;
+import models.Lot;
+import models.Medicine;
+
 import java.time.LocalDate;
 import java.util.*;
 
 /**
  * Handles operations for managing medicines (CRUD)
- * Stores data in "medicines.txt" located in the root project directory
+ * Works on the resident catalog in {@link InventoryStore}, which owns "medicines.txt"
  */
 public class MedicineManager {
 
-    // File name only - saved in project root folder
-    private static final String MEDICINE_FILE = "medicines.txt";
-
     /**
-     * Load all medicines from file
-     * @return List of String arrays, each representing a medicine [name, quantity, price, expiryDate]
+     * Load all medicines
+     * @return List of String arrays, each representing a medicine [id, name, quantity, price, expiryDate, lots]
      */
     public static List<String[]> loadAll() {
         List<String[]> medicines = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(MEDICINE_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                medicines.add(line.split(","));
-            }
-        } catch (IOException e) {
-            System.out.println("⚠️ Error loading medicines: " + e.getMessage());
+        for (Medicine m : InventoryStore.getAll()) {
+            medicines.add(row(m));
         }
         return medicines;
     }
 
     /**
-     * Add a new medicine to the file
+     * Add a new medicine to the catalog
+     * @return the ID of the new medicine
      */
-    public static void addMedicine(String name, int quantity, double price, LocalDate expiryDate) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(MEDICINE_FILE, true))) {
-            bw.write(name + "," + quantity + "," + price + "," + expiryDate);
-            bw.newLine();
-        } catch (IOException e) {
-            System.out.println("⚠️ Error adding medicine: " + e.getMessage());
-        }
+    public static long addMedicine(String name, int quantity, double price, LocalDate expiryDate) {
+        return InventoryStore.add(new Medicine(name, quantity, price, expiryDate.toEpochDay()));
     }
 
     /**
-     * Update an existing medicine at a given index
+     * Add a lot to a medicine already in the catalog (a lot with the same expiry grows)
+     * @return the ID of the medicine, or 0 if there is none with this name or it could not be saved
      */
-    public static void updateMedicine(int index, String name, int quantity, double price, LocalDate expiryDate) {
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(MEDICINE_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                lines.add(line);
-            }
-        } catch (IOException e) {
-            System.out.println("⚠️ Error reading for update: " + e.getMessage());
-        }
-
-        if (index >= 0 && index < lines.size()) {
-            lines.set(index, name + "," + quantity + "," + price + "," + expiryDate);
+    public static long addLot(String name, int quantity, LocalDate expiryDate) {
+        Medicine medicine = InventoryStore.find(name);
+        if (medicine == null) {
+            return 0;
         }
+        boolean added = InventoryStore.update(medicine.getId(), m -> {
+            m.addLot(expiryDate.toEpochDay(), quantity);
+            return m;
+        });
+        return added ? medicine.getId() : 0;
+    }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(MEDICINE_FILE))) {
-            for (String l : lines) {
-                bw.write(l);
-                bw.newLine();
+    /**
+     * Update an existing medicine: its name and price, and one of its lots. The lot that expired
+     * on lotExpiry is replaced by quantity units expiring on expiryDate (added to the lot with that
+     * expiry if there is one); 0 removes it. Other lots are kept.
+     * @return false if there is no medicine with this ID
+     */
+    public static boolean updateMedicine(long id, String name, int quantity, double price, LocalDate lotExpiry, LocalDate expiryDate) {
+        return InventoryStore.update(id, m -> {
+            Medicine updated = m.copy(id, name, price);
+            if (expiryDate.equals(lotExpiry)) {
+                updated.setLot(expiryDate.toEpochDay(), quantity);
+            } else {
+                updated.setLot(lotExpiry.toEpochDay(), 0);
+                updated.addLot(expiryDate.toEpochDay(), quantity);
             }
-        } catch (IOException e) {
-            System.out.println("⚠️ Error writing updated medicine: " + e.getMessage());
-        }
+            return updated;
+        });
     }
 
     /**
-     * Delete a medicine at the given index
+     * @return the medicine with this ID as [id, name, quantity, price, expiryDate, lots], or null
      */
-    public static void deleteMedicine(int index) {
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(MEDICINE_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                lines.add(line);
-            }
-        } catch (IOException e) {
-            System.out.println("⚠️ Error reading for delete: " + e.getMessage());
-        }
+    public static String[] get(long id) {
+        Medicine m = InventoryStore.get(id);
+        return m == null ? null : row(m);
+    }
 
-        if (index >= 0 && index < lines.size()) {
-            lines.remove(index);
-        }
+    private static String[] row(Medicine m) {
+        return new String[]{String.valueOf(m.getId()), m.getName(), String.valueOf(m.getQuantity()),
+                String.valueOf(m.getPrice()), m.getExpiryDate(), Lot.format(m.getLots()),
+                formatDays(DemandForecaster.getDaysToStockout(m))};
+    }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(MEDICINE_FILE))) {
-            for (String l : lines) {
-                bw.write(l);
-                bw.newLine();
-            }
-        } catch (IOException e) {
-            System.out.println("⚠️ Error writing after delete: " + e.getMessage());
+    // "-" when nothing is selling
+    private static String formatDays(double days) {
+        if (Double.isInfinite(days)) {
+            return "-";
         }
+        return days > 0 && days < 1 ? "< 1" : String.format("%.1f", days);
+    }
+
+    /**
+     * Delete a medicine
+     * @return false if there is no medicine with this ID
+     */
+    public static boolean deleteMedicine(long id) {
+        return InventoryStore.remove(id);
     }
 
     /**
@@ -104,12 +103,6 @@ public class MedicineManager {
      * @return true if exists, false otherwise
      */
     public static boolean medicineExists(String name) {
-        List<String[]> medicines = loadAll();
-        for (String[] med : medicines) {
-            if (med[0].equalsIgnoreCase(name)) {
-                return true;
-            }
-        }
-        return false;
+        return InventoryStore.contains(name);
     }
 }
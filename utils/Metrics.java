@@ -0,0 +1,245 @@
+package utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the hot paths (sales, logins, storage and journal I/O,
+ * background GUI work), shown in the admin "Diagnostics" tab and exportable as text or JSON.
+ *
+ * Recording is lock-free and allocation-free, so it is always on: a {@link Counter} is a
+ * LongAdder, a {@link Timer} adds to a log-linear histogram of atomic buckets (16 per power of
+ * two, so a percentile is within about 6% of the true value). Callers keep the instances in
+ * static fields and time with {@code long start = System.nanoTime(); ... timer.recordSince(start)}.
+ */
+public class Metrics {
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    /**
+     * A count of events
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * Durations of an operation, in nanoseconds
+     */
+    public static final class Timer {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(index(nanos));
+            count.increment();
+            total.add(nanos);
+            long seen = max.get();
+            while (nanos > seen && !max.compareAndSet(seen, nanos)) {
+                seen = max.get();
+            }
+        }
+
+        /**
+         * Record the time since {@code start}, a value of {@link System#nanoTime()}
+         */
+        public void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMeanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        /**
+         * @param fraction e.g. 0.99 for the 99th percentile
+         * @return the value below which that fraction of the recorded durations fall (middle of its bucket)
+         */
+        public long percentileNanos(double fraction) {
+            long[] counts = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(lowerBound(i) + width(i) / 2, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            total.reset();
+            max.set(0);
+        }
+
+        // Values below 16 get a bucket each, above that 16 buckets per power of two
+        static int index(long value) {
+            if (value < SUB) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - SUB_BITS + 1) * SUB + (int) ((value >>> (exponent - SUB_BITS)) & (SUB - 1));
+        }
+
+        static long lowerBound(int index) {
+            if (index < SUB) {
+                return index;
+            }
+            int exponent = index / SUB + SUB_BITS - 1;
+            return (1L << exponent) | ((long) (index % SUB) << (exponent - SUB_BITS));
+        }
+
+        private static long width(int index) {
+            return index < SUB ? 1 : 1L << (index / SUB - 1);
+        }
+    }
+
+    /**
+     * @return the counter with this name, created on first use
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * @return the timer with this name, created on first use
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Count an error that was reported with System.out, by where it happened
+     */
+    public static void error(String where) {
+        counter("errors." + where).increment();
+    }
+
+    /**
+     * Set every counter and timer back to zero
+     */
+    public static void reset() {
+        counters.values().forEach(Counter::reset);
+        timers.values().forEach(Timer::reset);
+    }
+
+    /**
+     * @return all counters and timers as aligned text, times in microseconds
+     */
+    public static String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== Counters ===\n");
+        for (Map.Entry<String, Counter> e : new TreeMap<>(counters).entrySet()) {
+            sb.append(String.format("%-32s %,14d%n", e.getKey(), e.getValue().get()));
+        }
+        sb.append("\n=== Timers (microseconds) ===\n");
+        sb.append(String.format("%-32s %10s %10s %10s %10s %10s %10s %10s%n",
+                "", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        for (Map.Entry<String, Timer> e : new TreeMap<>(timers).entrySet()) {
+            Timer t = e.getValue();
+            sb.append(String.format("%-32s %,10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", e.getKey(), t.getCount(),
+                    t.getMeanNanos() / 1000, micros(t.percentileNanos(0.5)), micros(t.percentileNanos(0.9)),
+                    micros(t.percentileNanos(0.99)), micros(t.percentileNanos(0.999)), micros(t.getMaxNanos())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return all counters and timers as a JSON object, times in nanoseconds
+     */
+    public static String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Counter> e : new TreeMap<>(counters).entrySet()) {
+            sb.append(separator).append("    ").append(quote(e.getKey())).append(": ").append(e.getValue().get());
+            separator = ",\n";
+        }
+        sb.append("\n  },\n  \"timers\": {");
+        separator = "\n";
+        for (Map.Entry<String, Timer> e : new TreeMap<>(timers).entrySet()) {
+            Timer t = e.getValue();
+            sb.append(separator).append("    ").append(quote(e.getKey())).append(": {")
+              .append("\"count\": ").append(t.getCount())
+              .append(", \"meanNanos\": ").append(Math.round(t.getMeanNanos()))
+              .append(", \"p50Nanos\": ").append(t.percentileNanos(0.5))
+              .append(", \"p90Nanos\": ").append(t.percentileNanos(0.9))
+              .append(", \"p99Nanos\": ").append(t.percentileNanos(0.99))
+              .append(", \"p999Nanos\": ").append(t.percentileNanos(0.999))
+              .append(", \"maxNanos\": ").append(t.getMaxNanos()).append("}");
+            separator = ",\n";
+        }
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,229 @@
+package utils;
+
+import java.util.*;
+
+/**
+ * Type-ahead search over a fixed set of names (case-insensitive), built once and then only read.
+ *
+ * Prefix matches come from two sorted arrays: the names themselves, and the rest of each name
+ * from the start of each later word ("extra" finds "Panadol Extra"). A binary search finds the
+ * first match, so the top k cost O(log n + k).
+ *
+ * When nothing starts with the query it is treated as a typo: names sharing
+ * trigrams with it are counted through an inverted trigram index, and the best candidates are
+ * ranked by the edit distance between the query and the start of the name, so "Banadol" and
+ * "Panadl" both find "Panadol".
+ */
+public class NameIndex {
+    // Fuzzy matching only checks this many candidates with the most trigrams in common
+    private static final int CANDIDATES = 32;
+
+    private final String[] names;
+    private final String[] keys;
+    // Name indexes sorted by key
+    private final int[] byKey;
+    // Key suffixes starting at a later word, sorted, with the name each comes from
+    private final String[] words;
+    private final int[] wordName;
+    private final Map<Long, int[]> trigrams = new HashMap<>();
+
+    public NameIndex(Collection<String> all) {
+        Map<String, String> distinct = new LinkedHashMap<>();
+        for (String name : all) {
+            if (name != null && !name.isBlank()) {
+                distinct.putIfAbsent(key(name), name.trim());
+            }
+        }
+        keys = distinct.keySet().toArray(new String[0]);
+        names = distinct.values().toArray(new String[0]);
+        byKey = sortedBy(keys);
+
+        List<String> suffixes = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        Map<Long, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            for (int c = 1; c < key.length(); c++) {
+                if (key.charAt(c - 1) == ' ' && key.charAt(c) != ' ') {
+                    suffixes.add(key.substring(c));
+                    owners.add(i);
+                }
+            }
+            for (long gram : trigramsOf(key)) {
+                // Counted once per name, so a name never shares more trigrams with the query than the query has
+                postings.computeIfAbsent(gram, g -> new ArrayList<>()).add(i);
+            }
+        }
+        String[] unsorted = suffixes.toArray(new String[0]);
+        int[] order = sortedBy(unsorted);
+        words = new String[order.length];
+        wordName = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            words[i] = unsorted[order[i]];
+            wordName[i] = owners.get(order[i]);
+        }
+        postings.forEach((gram, list) -> trigrams.put(gram, list.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return true if the index holds exactly this name (same case)
+     */
+    public boolean contains(String name) {
+        String q = key(name);
+        int i = lowerBound(q, keys, byKey);
+        return i < byKey.length && keys[byKey[i]].equals(q) && names[byKey[i]].equals(name.trim());
+    }
+
+    /**
+     * @return up to k names for the query: names starting with it (alphabetically), then names
+     *         with a later word starting with it, then close misspellings (closest first)
+     */
+    public List<String> search(String query, int k) {
+        String q = key(query == null ? "" : query);
+        List<String> result = new ArrayList<>(k);
+        if (q.isEmpty() || k <= 0) {
+            return result;
+        }
+        boolean[] taken = new boolean[names.length];
+
+        for (int i = lowerBound(q, keys, byKey); i < byKey.length && result.size() < k && keys[byKey[i]].startsWith(q); i++) {
+            taken[byKey[i]] = true;
+            result.add(names[byKey[i]]);
+        }
+        for (int i = lowerBound(q, words, null); i < words.length && result.size() < k && words[i].startsWith(q); i++) {
+            if (!taken[wordName[i]]) {
+                taken[wordName[i]] = true;
+                result.add(names[wordName[i]]);
+            }
+        }
+        // Only a query that is not the start of any name or word is taken for a typo
+        if (result.isEmpty() && q.length() >= 3) {
+            for (int name : fuzzy(q)) {
+                if (result.size() == k) {
+                    break;
+                }
+                result.add(names[name]);
+            }
+        }
+        return result;
+    }
+
+    // Names close to the query, closest first
+    private List<Integer> fuzzy(String q) {
+        Set<Long> grams = trigramsOf(q);
+        int[] shared = new int[names.length];
+        int[] touched = new int[names.length];
+        int touchedCount = 0;
+        for (long gram : grams) {
+            int[] posting = trigrams.get(gram);
+            if (posting == null) {
+                continue;
+            }
+            for (int name : posting) {
+                if (shared[name]++ == 0) {
+                    touched[touchedCount++] = name;
+                }
+            }
+        }
+
+        // Counting sort by trigrams in common, most first; too few in common is not the same word
+        int most = grams.size();
+        int minShared = Math.max(1, most / 3);
+        int[] slot = new int[most + 2];
+        for (int t = 0; t < touchedCount; t++) {
+            slot[most - shared[touched[t]] + 1]++;
+        }
+        for (int i = 1; i < slot.length; i++) {
+            slot[i] += slot[i - 1];
+        }
+        int[] ranked = new int[touchedCount];
+        for (int t = 0; t < touchedCount; t++) {
+            ranked[slot[most - shared[touched[t]]]++] = touched[t];
+        }
+
+        int maxDistance = q.length() <= 4 ? 1 : q.length() <= 8 ? 2 : 3;
+        Map<Integer, Integer> distance = new HashMap<>();
+        List<Integer> close = new ArrayList<>();
+        for (int r = 0; r < Math.min(CANDIDATES, touchedCount) && shared[ranked[r]] >= minShared; r++) {
+            int name = ranked[r];
+            int d = prefixDistance(q, keys[name]);
+            if (d <= maxDistance) {
+                distance.put(name, d);
+                close.add(name);
+            }
+        }
+        close.sort((a, b) -> !distance.get(a).equals(distance.get(b)) ? distance.get(a) - distance.get(b)
+                : shared[b] != shared[a] ? shared[b] - shared[a] : keys[a].compareTo(keys[b]));
+        return close;
+    }
+
+    /**
+     * Smallest edit distance (insert, delete, replace) between the query and any prefix of the key
+     */
+    static int prefixDistance(String q, String key) {
+        int[] previous = new int[key.length() + 1];
+        int[] current = new int[key.length() + 1];
+        // Row 0: the empty query matches the empty prefix
+        for (int j = 0; j <= key.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= q.length(); i++) {
+            current[0] = i;
+            char c = q.charAt(i - 1);
+            for (int j = 1; j <= key.length(); j++) {
+                int replace = previous[j - 1] + (key.charAt(j - 1) == c ? 0 : 1);
+                current[j] = Math.min(replace, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int d : previous) {
+            best = Math.min(best, d);
+        }
+        return best;
+    }
+
+    // Distinct trigrams of the text with two padding characters in front, so the first letters count
+    private static Set<Long> trigramsOf(String key) {
+        String padded = "\0\0" + key;
+        Set<Long> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 2 < padded.length(); i++) {
+            grams.add(((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2));
+        }
+        return grams;
+    }
+
+    // First position whose text is >= q; 'order' maps positions to indexes into 'texts' (null: identity)
+    private static int lowerBound(String q, String[] texts, int[] order) {
+        int lo = 0;
+        int hi = order == null ? texts.length : order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (texts[order == null ? mid : order[mid]].compareTo(q) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int[] sortedBy(String[] texts) {
+        Integer[] order = new Integer[texts.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> texts[i]));
+        return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,150 @@
+package utils;
+
+import models.Medicine;
+import models.Supplier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Type-ahead search over medicine and supplier names for the dashboards, see {@link NameIndex}.
+ *
+ * Each index is built by {@link #prepare()} (or the first search) and rebuilt in the background
+ * after names were added, renamed or removed; stock changes alone never touch it. Until the
+ * rebuild is done searches keep using the old index, so typing never waits for it: results are
+ * checked against the catalog, so a name that just went away is not offered, and a new name
+ * shows up once the rebuild is in.
+ */
+public class NameSearch {
+    // Counted up on every change of names; an index is current while its count is the same
+    private static final AtomicLong medicineChanges = new AtomicLong();
+    private static final AtomicLong supplierChanges = new AtomicLong();
+    private static volatile NameIndex medicines;
+    private static volatile long medicinesBuiltAt = -1;
+    private static volatile NameIndex suppliers;
+    private static volatile long suppliersBuiltAt = -1;
+    private static final AtomicBoolean medicinesRebuilding = new AtomicBoolean();
+    private static final AtomicBoolean suppliersRebuilding = new AtomicBoolean();
+    private static boolean listening = false;
+    private static final Metrics.Timer searchTime = Metrics.timer("search.medicines");
+    private static final Metrics.Timer rebuildTime = Metrics.timer("search.rebuild");
+
+    private static final InventoryStore.StockListener catalogListener = new InventoryStore.StockListener() {
+        @Override
+        public void stockChanged(Medicine medicine, int before, int after) {
+            NameIndex index = medicines;
+            // Sales keep the name; only a new name (added or renamed medicine) needs a rebuild
+            if (index != null && !index.contains(medicine.getName())) {
+                medicineChanges.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void removed(Medicine medicine) {
+            medicineChanges.incrementAndGet();
+        }
+    };
+
+    /**
+     * Build both indexes in the background, so the first keystroke does not wait for them
+     */
+    public static void prepare() {
+        AsyncService.run(() -> {
+            rebuildMedicines();
+            rebuildSuppliers();
+        });
+    }
+
+    /**
+     * @return up to k medicine names for what was typed so far, best first
+     */
+    public static List<String> medicines(String query, int k) {
+        long start = System.nanoTime();
+        NameIndex index = medicines;
+        if (index == null) {
+            index = rebuildMedicines();
+        } else if (medicinesBuiltAt != medicineChanges.get()) {
+            rebuildInBackground(medicinesRebuilding, NameSearch::rebuildMedicines);
+        }
+        List<String> result = new ArrayList<>(k);
+        // Ask for a few more in case some were removed since the index was built
+        for (String name : index.search(query, k + 4)) {
+            if (result.size() < k && InventoryStore.contains(name)) {
+                result.add(name);
+            }
+        }
+        searchTime.recordSince(start);
+        return result;
+    }
+
+    /**
+     * @return up to k supplier names for what was typed so far, best first
+     */
+    public static List<String> suppliers(String query, int k) {
+        NameIndex index = suppliers;
+        if (index == null) {
+            index = rebuildSuppliers();
+        } else if (suppliersBuiltAt != supplierChanges.get()) {
+            rebuildInBackground(suppliersRebuilding, NameSearch::rebuildSuppliers);
+        }
+        List<String> result = new ArrayList<>(k);
+        for (String name : index.search(query, k + 4)) {
+            if (result.size() < k && SupplierStore.findByName(name) != null) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    // One rebuild at a time; changes made while it runs are caught by the next search
+    private static void rebuildInBackground(AtomicBoolean running, Runnable rebuild) {
+        if (running.compareAndSet(false, true)) {
+            AsyncService.run(() -> {
+                try {
+                    rebuild.run();
+                } finally {
+                    running.set(false);
+                }
+            });
+        }
+    }
+
+    private static synchronized NameIndex rebuildMedicines() {
+        listen();
+        long start = System.nanoTime();
+        // Changes made while the names are read are caught by the next search
+        long version = medicineChanges.get();
+        List<String> names = new ArrayList<>();
+        for (Medicine medicine : InventoryStore.getAll()) {
+            names.add(medicine.getName());
+        }
+        NameIndex index = new NameIndex(names);
+        medicines = index;
+        medicinesBuiltAt = version;
+        rebuildTime.recordSince(start);
+        return index;
+    }
+
+    private static synchronized NameIndex rebuildSuppliers() {
+        listen();
+        long version = supplierChanges.get();
+        List<String> names = new ArrayList<>();
+        for (Supplier supplier : SupplierStore.getAll()) {
+            names.add(supplier.getName());
+        }
+        NameIndex index = new NameIndex(names);
+        suppliers = index;
+        suppliersBuiltAt = version;
+        return index;
+    }
+
+    private static void listen() {
+        if (!listening) {
+            InventoryStore.addStockListener(catalogListener);
+            SupplierStore.addListener(supplierChanges::incrementAndGet);
+            listening = true;
+        }
+    }
+}
@@ -1,75 +1,141 @@
 package utils;
 
-import models.Purchase;
+import models.CartItem;
+import models.Lot;
 import models.Medicine;
+import models.Purchase;
+import models.SaleResult;
 
-import java.io.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 public class PurchaseManager {
     // Use relative paths so the app runs on any machine or OS
     private static final String PURCHASE_FILE = "purchases.txt";
-    private static final String MEDICINE_FILE = "medicines.txt";
+
+    // Append-only sales ledger, shared by every terminal in this process
+    private static final Journal ledger = new Journal(PURCHASE_FILE, 32, 50);
+
+    private static final Metrics.Timer checkoutTime = Metrics.timer("sale.checkout");
+    private static final Metrics.Counter completed = Metrics.counter("sale.completed");
+    private static final Metrics.Counter rejected = Metrics.counter("sale.rejected");
+    private static final Metrics.Counter lines = Metrics.counter("sale.lines");
 
     /**
-     * Record a new purchase
+     * Record a new purchase of a single medicine
      * @param medicineName Name of medicine purchased
      * @param quantity Quantity purchased
      * @param price Price per unit
-     * @return true if purchase was recorded successfully
+     * @return the outcome, with the reason if the sale was rejected
      */
 
-    public static boolean recordPurchase(String medicineName, int quantity, double price) {
-        // Update medicine quantity in file
-        boolean success = updateMedicineQuantity(medicineName, quantity);
-        if (!success) {
-            return false;
-        }
-
-        // Record the purchase
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(PURCHASE_FILE, true))) {
-            Purchase purchase = new Purchase(medicineName, quantity, price, LocalDateTime.now());
-            writer.write(purchase.toString());
-            writer.newLine();
-            return true;
-        } catch (IOException e) {
-            System.out.println("Error recording purchase: " + e.getMessage());
-            return false;
-        }
+    public static SaleResult recordPurchase(String medicineName, int quantity, double price) {
+        return checkout(List.of(new CartItem(medicineName, quantity, price)));
     }
 
     /**
-     * Update medicine quantity after a purchase
-     * @param medicineName Name of medicine
-     * @param quantityPurchased Quantity sold
-     * @return true if successful
+     * Sell a whole cart in one go.
+     * All lines are validated in one pass and all purchase records are appended with one ledger
+     * write, which is the only write of the sale: the stock is taken in memory once it is done,
+     * and the ledger is what the stored stock is rebuilt from (see {@link InventoryStore}).
+     * Stock is taken from the lots that expire first (FEFO) and each purchase record lists the
+     * lots it drew from. The stock checks, the ledger append and the decrements happen as one
+     * atomic unit under the stock locks of the medicines involved, so concurrent sales never
+     * lose a decrement. If any line is rejected, nothing is sold.
+     * @param items Cart lines
+     * @return the outcome, with the reason if the sale was rejected
      */
+    public static SaleResult checkout(List<CartItem> items) {
+        long start = System.nanoTime();
+        SaleResult result = sell(items);
+        checkoutTime.recordSince(start);
+        if (result.isSuccess()) {
+            completed.increment();
+            lines.add(items.size());
+        } else {
+            rejected.increment();
+        }
+        return result;
+    }
 
-    private static boolean updateMedicineQuantity(String medicineName, int quantityPurchased) {
-        List<Medicine> medicines = FileManager.loadMedicines();
-
-        for (Medicine medicine : medicines) {
-            if (medicine.getName().equals(medicineName)) {
-                medicine.setQuantity(medicine.getQuantity() - quantityPurchased);
-                break;
+    private static SaleResult sell(List<CartItem> items) {
+        if (items.isEmpty()) {
+            return SaleResult.rejected(SaleResult.Status.INVALID_QUANTITY, "The cart is empty");
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (CartItem item : items) {
+            if (item.getQuantity() <= 0) {
+                return SaleResult.rejected(SaleResult.Status.INVALID_QUANTITY, "Quantity must be greater than zero");
             }
+            names.add(item.getMedicineName());
         }
 
-        // Update the medicines file
-        // inconvenient and time consuming, but this is the easiest solution, We could use SQLite to get the same outcome in less time.
+        return InventoryStore.withStocks(names, medicines -> {
+            // Validate every line first, the same medicine may appear on several lines
+            Map<Medicine, Integer> wanted = new LinkedHashMap<>();
+            for (CartItem item : items) {
+                Medicine medicine = medicines.get(item.getMedicineName());
+                if (medicine == null) {
+                    return SaleResult.rejected(SaleResult.Status.UNKNOWN_MEDICINE,
+                            "Medicine '" + item.getMedicineName() + "' is not in the inventory");
+                }
+                int total = wanted.getOrDefault(medicine, 0) + item.getQuantity();
+                if (total > medicine.getQuantity()) {
+                    return SaleResult.rejected(SaleResult.Status.INSUFFICIENT_STOCK,
+                            "Not enough stock of " + medicine.getName() + " (only " + medicine.getQuantity() + " left)");
+                }
+                wanted.put(medicine, total);
+            }
+
+            // Pick the lots, first-expiring first
+            Map<Medicine, List<Lot>> drawn = InventoryStore.planDraw(wanted);
+            if (drawn == null) {
+                return SaleResult.rejected(SaleResult.Status.INSUFFICIENT_STOCK, "Not enough stock");
+            }
+            Map<Medicine, Deque<Lot>> unassigned = new HashMap<>();
+            drawn.forEach((medicine, lots) -> unassigned.put(medicine, new ArrayDeque<>(lots)));
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(MEDICINE_FILE))) {
-            for (Medicine medicine : medicines) {
-                writer.write(medicine.toString());
-                writer.newLine();
+            // Record the purchases, then take the stock
+            LocalDateTime now = LocalDateTime.now();
+            List<Purchase> purchases = new ArrayList<>();
+            List<String> records = new ArrayList<>();
+            double total = 0;
+            for (CartItem item : items) {
+                Medicine medicine = medicines.get(item.getMedicineName());
+                Purchase purchase = new Purchase(medicine.getName(), item.getQuantity(), item.getPrice(), now,
+                        takeLots(unassigned.get(medicine), item.getQuantity()));
+                purchases.add(purchase);
+                records.add(purchase.toString());
+                total += purchase.getTotal();
             }
-            return true;
-        } catch (IOException e) {
-            System.out.println("Error updating medicine quantity: " + e.getMessage());
-            return false;
+            long offset = ledger.appendAt(records);
+            if (offset < 0) {
+                return SaleResult.rejected(SaleResult.Status.STORAGE_ERROR, "Could not record the purchase");
+            }
+            InventoryStore.applyDraw(drawn, offset);
+            for (Purchase purchase : purchases) {
+                SalesAggregates.record(purchase);
+                DemandForecaster.record(purchase);
+            }
+            SalesQuery.record(now.toLocalDate(), offset);
+            return SaleResult.ok(total);
+        });
+    }
+
+    // Hand the next 'quantity' units of a medicine's drawn lots to one cart line
+    private static List<Lot> takeLots(Deque<Lot> lots, int quantity) {
+        List<Lot> taken = new ArrayList<>();
+        while (quantity > 0) {
+            Lot lot = lots.poll();
+            int take = Math.min(quantity, lot.getQuantity());
+            taken.add(new Lot(lot.getExpiryDay(), take));
+            if (take < lot.getQuantity()) {
+                lots.push(new Lot(lot.getExpiryDay(), lot.getQuantity() - take));
+            }
+            quantity -= take;
         }
+        return taken;
     }
 
     /**
@@ -79,32 +145,32 @@ public class PurchaseManager {
 
     public static List<Purchase> loadAllPurchases() {
         List<Purchase> purchases = new ArrayList<>();
-        File file = new File(PURCHASE_FILE);
-
-        if (!file.exists()) {
-            return purchases;
-        }
+        LedgerScanner.scan(PURCHASE_FILE, row -> purchases.add(row.toPurchase()));
+        return purchases;
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(PURCHASE_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                purchases.add(Purchase.fromString(line));
-            }
-        } catch (IOException e) {
-            System.out.println("Error loading purchases: " + e.getMessage());
-        }
+    /**
+     * Force the ledger to disk, for the inventory checkpoints
+     * @return length of the ledger in bytes, all of it on disk, or -1 if it could not be forced
+     */
+    static long syncLedger() {
+        return ledger.syncedSize();
+    }
 
-        return purchases;
+    /**
+     * @return name of the purchase ledger file, for readers that scan it directly
+     */
+    public static String getLedgerFile() {
+        return PURCHASE_FILE;
     }
 
     /**
-     * Calculate total revenue from all purchases
+     * Total revenue from all purchases, kept up to date by {@link SalesAggregates}
      * @return Total revenue
      */
 
     public static double getTotalRevenue() {
-        List<Purchase> purchases = loadAllPurchases();
-        return purchases.stream().mapToDouble(Purchase::getTotal).sum();
+        return SalesAggregates.getTotalRevenue();
     }
 
     
@@ -115,6 +181,60 @@ public class PurchaseManager {
 
     public static String getPurchasesAsString() {
         List<Purchase> purchases = loadAllPurchases();
+        StringBuilder sb = formatPurchases(purchases);
+
+        sb.append("\n=========================\n");
+        sb.append("SALES: ").append(SalesAggregates.getSalesCount())
+          .append(" | UNITS SOLD: ").append(SalesAggregates.getTotalUnits()).append("\n");
+        sb.append("TOTAL REVENUE: $").append(String.format("%.2f", getTotalRevenue()));
+
+        return sb.toString();
+    }
+
+    /**
+     * Format the purchases of a date range (and optionally one medicine) for display.
+     * Only the part of the ledger covering the range is read.
+     * @param from First day, or null for no lower bound
+     * @param to Last day, or null for no upper bound
+     * @param medicineName Medicine to show, or null/blank for all
+     * @return Formatted string of the matching purchases and their totals
+     */
+    public static String getPurchasesAsString(LocalDate from, LocalDate to, String medicineName) {
+        List<Purchase> purchases = SalesQuery.find(from, to, medicineName);
+        StringBuilder sb = formatPurchases(purchases);
+
+        long units = 0;
+        double revenue = 0;
+        for (Purchase p : purchases) {
+            units += p.getQuantity();
+            revenue += p.getTotal();
+        }
+        sb.append("\n=========================\n");
+        sb.append("SALES: ").append(purchases.size())
+          .append(" | UNITS SOLD: ").append(units).append("\n");
+        sb.append("REVENUE: $").append(String.format("%.2f", revenue));
+
+        return sb.toString();
+    }
+
+    /**
+     * Format the best sellers of a date range for display
+     * @param byRevenue Rank by revenue if true, by units otherwise
+     * @return Formatted ranking
+     */
+    public static String getTopSellersAsString(LocalDate from, LocalDate to, int n, boolean byRevenue) {
+        StringBuilder sb = new StringBuilder();
+        int rank = 1;
+        for (SalesQuery.Ranking r : SalesQuery.top(from, to, n, byRevenue)) {
+            sb.append(String.format("%2d. ", rank++)).append(r.getMedicineName())
+              .append(" | Units: ").append(r.getUnits())
+              .append(" | Revenue: $").append(String.format("%.2f", r.getRevenue()))
+              .append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder formatPurchases(List<Purchase> purchases) {
         StringBuilder sb = new StringBuilder();
 
         for (Purchase p : purchases) {
@@ -125,25 +245,23 @@ public class PurchaseManager {
               .append(" | Time: ").append(p.getFormattedTime())
               .append("\n");
         }
-
-        sb.append("\n=========================\n");
-        sb.append("TOTAL REVENUE: $").append(String.format("%.2f", getTotalRevenue()));
-
-        return sb.toString();
+        return sb;
     }
 
     /**
-     * Reset the purchase history by clearing the purchases file
+     * Reset the purchase history by clearing the purchases file.
+     * No sale can run meanwhile, and open ledger scans and readers are waited for.
      * @return true if successful, false otherwise
      */
     public static boolean resetPurchaseHistory() {
-        try {
-            // Create empty file (overwrite existing)
-            new PrintWriter(new FileWriter(PURCHASE_FILE, false)).close();
+        return InventoryStore.clearLedger(() -> {
+            if (!LedgerScanner.truncate(ledger::clear)) {
+                return false;
+            }
+            SalesAggregates.clear();
+            SalesQuery.clear();
+            DemandForecaster.clear();
             return true;
-        } catch (IOException e) {
-            System.out.println("Error resetting purchase history: " + e.getMessage());
-            return false;
-        }
+        });
     }
 }
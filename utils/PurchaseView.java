@@ -0,0 +1,233 @@
+package utils;
+
+import models.Lot;
+import models.Purchase;
+
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.util.List;
+
+/**
+ * A purchase ledger line seen in place inside a mapped file.
+ * A line is only bound if its numbers and time are well formed (lines that
+ * {@link Purchase#fromString} would refuse are skipped); the quantity and time are read while
+ * checking, the other fields are parsed from the bytes only when asked for, and nothing is allocated
+ * unless the name or a full {@link Purchase} is requested. The same view object is
+ * moved from line to line by {@link LedgerScanner}, so keep {@link #toPurchase()}
+ * rather than the view if a row is needed after the visit.
+ */
+public class PurchaseView {
+    private MappedByteBuffer buffer;
+    private long fileOffset;
+    private int start;
+    private int end;
+    // Positions of the four commas: name,qty,price,total,time[,lots]
+    private final int[] commas = new int[4];
+    private final LedgerScanner.NameCache names;
+    // Read by bind
+    private int quantity;
+    private int year, month, day, hour, minute, second;
+
+    PurchaseView(LedgerScanner.NameCache names) {
+        this.names = names;
+    }
+
+    /**
+     * Point the view at the line [start, end) of the buffer
+     * @return false if the line does not have the five fields of a purchase, or one of them is malformed
+     */
+    boolean bind(MappedByteBuffer buffer, long bufferOffset, int start, int end) {
+        this.buffer = buffer;
+        this.fileOffset = bufferOffset + start;
+        this.start = start;
+        this.end = end;
+        int found = 0;
+        for (int i = start; i < end && found < 4; i++) {
+            if (buffer.get(i) == ',') {
+                commas[found++] = i;
+            }
+        }
+        return found == 4 && end - commas[3] - 1 >= 19
+                && readQuantity(commas[0] + 1, commas[1])
+                && isDecimal(commas[1] + 1, commas[2])
+                && isDecimal(commas[2] + 1, commas[3])
+                && readTime(commas[3] + 1);
+    }
+
+    /**
+     * @return byte offset of this line in the ledger file
+     */
+    public long getFileOffset() { return fileOffset; }
+
+    public String getMedicineName() {
+        return names.get(buffer, start, commas[0]);
+    }
+
+    /**
+     * Compare the name with another one without creating a String (ASCII case-insensitive)
+     */
+    public boolean medicineNameEquals(byte[] utf8Name) {
+        int length = commas[0] - start;
+        if (length != utf8Name.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            byte a = buffer.get(start + i);
+            byte b = utf8Name[i];
+            if (a != b && LedgerScanner.lower(a) != LedgerScanner.lower(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public double getPrice() {
+        return LedgerScanner.parseDouble(buffer, commas[1] + 1, commas[2]);
+    }
+
+    public double getTotal() {
+        return LedgerScanner.parseDouble(buffer, commas[2] + 1, commas[3]);
+    }
+
+    /**
+     * Purchase time as seconds since the epoch, reading the local time as if it were UTC
+     */
+    public long getEpochSecond() {
+        return getEpochDay() * 86400 + hour * 3600L + minute * 60L + second;
+    }
+
+    public long getEpochDay() {
+        return LedgerScanner.epochDay(year, month, day);
+    }
+
+    public LocalDateTime getPurchaseTime() {
+        return LocalDateTime.of(year, month, day, hour, minute, second);
+    }
+
+    /**
+     * @return the lots the stock was taken from (the optional sixth field), empty if not recorded
+     */
+    public List<Lot> getLots() {
+        int from = commas[3] + 1 + 19;
+        if (from >= end || buffer.get(from) != ',') {
+            return List.of();
+        }
+        byte[] bytes = new byte[end - from - 1];
+        buffer.get(from + 1, bytes);
+        List<Lot> lots = Lot.parse(new String(bytes, StandardCharsets.US_ASCII));
+        return lots == null ? List.of() : lots;
+    }
+
+    /**
+     * @return the line as it is written in the file
+     */
+    public String getLine() {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Materialize the row as a regular purchase
+     */
+    public Purchase toPurchase() {
+        return new Purchase(getMedicineName(), getQuantity(), getPrice(), getPurchaseTime(), getLots());
+    }
+
+    // [-]digits that fit an int
+    private boolean readQuantity(int from, int to) {
+        int first = skipSign(from, to);
+        if (first == to || to - first > 10) {
+            return false;
+        }
+        long value = digits(first, to - first);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            return false;
+        }
+        quantity = (int) (first > from ? -value : value);
+        return true;
+    }
+
+    // [-]digits[.digits][E[-]digits] as Double.toString writes it
+    private boolean isDecimal(int from, int to) {
+        int i = skipSign(from, to);
+        int integer = skipDigits(i, to);
+        if (integer == i) {
+            return false;
+        }
+        i = integer;
+        if (i < to && buffer.get(i) == '.') {
+            int fraction = skipDigits(i + 1, to);
+            if (fraction == i + 1) {
+                return false;
+            }
+            i = fraction;
+        }
+        if (i < to && buffer.get(i) == 'E') {
+            int sign = skipSign(i + 1, to);
+            int exponent = skipDigits(sign, to);
+            if (exponent == sign || exponent - sign > 3) {
+                return false;
+            }
+            i = exponent;
+        }
+        return i == to;
+    }
+
+    // yyyy-MM-dd HH:mm:ss with a month of 1-12, a day of 1-31 and a valid time, then the end or the lots.
+    // A day past the end of the month is read as its last day, as Purchase.fromString does.
+    private boolean readTime(int t) {
+        if (buffer.get(t + 4) != '-' || buffer.get(t + 7) != '-' || buffer.get(t + 10) != ' '
+                || buffer.get(t + 13) != ':' || buffer.get(t + 16) != ':'
+                || (t + 19 < end && buffer.get(t + 19) != ',')) {
+            return false;
+        }
+        year = (int) digits(t, 4);
+        month = (int) digits(t + 5, 2);
+        day = (int) digits(t + 8, 2);
+        hour = (int) digits(t + 11, 2);
+        minute = (int) digits(t + 14, 2);
+        second = (int) digits(t + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return false;
+        }
+        int monthLength = switch (month) {
+            case 2 -> Year.isLeap(year) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+        day = Math.min(day, monthLength);
+        return true;
+    }
+
+    private int skipSign(int from, int to) {
+        return from < to && buffer.get(from) == '-' ? from + 1 : from;
+    }
+
+    private int skipDigits(int from, int to) {
+        while (from < to && buffer.get(from) >= '0' && buffer.get(from) <= '9') {
+            from++;
+        }
+        return from;
+    }
+
+    // -1 if a byte is not a digit
+    private long digits(int from, int count) {
+        long value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
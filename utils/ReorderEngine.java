@@ -0,0 +1,234 @@
+package utils;
+
+import models.Medicine;
+import models.Supplier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Reorder suggestions for medicines that run low.
+ *
+ * Every stock change reported by {@link InventoryStore} is compared with the reorder point of
+ * that medicine, so a suggestion is raised the moment a sale takes the stock down to (or
+ * below) the point, and dropped again when stock is added back above it. Nothing ever scans
+ * the whole catalog except the one pass at startup.
+ *
+ * Suppliers are linked to medicines through the names in their "supplied medicines" text,
+ * looked up in the inverted index of {@link SupplierStore} (case-insensitive names). Reorder points
+ * default to {@code -Dpharmacy.reorder.point} (10) and can be set per medicine; those are
+ * kept in "reorder.txt".
+ */
+public class ReorderEngine {
+    public static final int DEFAULT_REORDER_POINT = Integer.getInteger("pharmacy.reorder.point", 10);
+    private static final String POINTS_FILE = "reorder.txt";
+
+    /**
+     * A medicine that reached its reorder point
+     */
+    public static class Suggestion {
+        private final long medicineId;
+        private final String medicineName;
+        private final int quantity;
+        private final int reorderPoint;
+        private final LocalDateTime raised = LocalDateTime.now();
+
+        private Suggestion(Medicine medicine, int quantity, int reorderPoint) {
+            this.medicineId = medicine.getId();
+            this.medicineName = medicine.getName();
+            this.quantity = quantity;
+            this.reorderPoint = reorderPoint;
+        }
+
+        public long getMedicineId() { return medicineId; }
+        public String getMedicineName() { return medicineName; }
+        /** Stock when the suggestion was raised */
+        public int getQuantity() { return quantity; }
+        public int getReorderPoint() { return reorderPoint; }
+        public LocalDateTime getRaised() { return raised; }
+
+        /**
+         * Quantity that brings the stock back to twice the reorder point
+         */
+        public int getOrderQuantity() {
+            return Math.max(1, 2 * reorderPoint - quantity);
+        }
+
+        /**
+         * @return the suppliers of this medicine, as currently known
+         */
+        public List<Supplier> getSuppliers() {
+            return suppliersOf(medicineName);
+        }
+    }
+
+    private static final Map<Long, Integer> reorderPoints = new ConcurrentHashMap<>();
+    private static final Map<Long, Suggestion> suggestions = new ConcurrentHashMap<>();
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private static boolean started = false;
+
+    private static final InventoryStore.StockListener stockListener = new InventoryStore.StockListener() {
+        @Override
+        public void stockChanged(Medicine medicine, int before, int after) {
+            check(medicine, before, after);
+        }
+
+        @Override
+        public void removed(Medicine medicine) {
+            reorderPoints.remove(medicine.getId());
+            if (suggestions.remove(medicine.getId()) != null) {
+                fireChanged();
+            }
+        }
+    };
+
+    /**
+     * Load the reorder points and suppliers, raise suggestions for medicines that are already
+     * low and start watching stock changes. Later calls are ignored.
+     */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+        loadPoints();
+        // Open suggestions list their suppliers, so a change there changes them too
+        SupplierStore.addListener(ReorderEngine::fireChanged);
+        InventoryStore.addStockListener(stockListener);
+        for (Medicine medicine : InventoryStore.getAll()) {
+            check(medicine, Integer.MAX_VALUE, medicine.getQuantity());
+        }
+        started = true;
+    }
+
+    /**
+     * @return the suppliers that list this medicine (case-insensitive)
+     */
+    public static List<Supplier> suppliersOf(String medicineName) {
+        return SupplierStore.suppliersOf(medicineName);
+    }
+
+    public static int getReorderPoint(long medicineId) {
+        return reorderPoints.getOrDefault(medicineId, DEFAULT_REORDER_POINT);
+    }
+
+    /**
+     * Set the reorder point of a medicine and check its current stock against it
+     * @return false if it could not be saved
+     */
+    public static boolean setReorderPoint(long medicineId, int point) {
+        reorderPoints.put(medicineId, point);
+        Medicine medicine = InventoryStore.get(medicineId);
+        if (medicine != null) {
+            int quantity = medicine.getQuantity();
+            if (quantity > point) {
+                if (suggestions.remove(medicineId) != null) {
+                    fireChanged();
+                }
+            } else {
+                raise(medicine, quantity, point);
+            }
+        }
+        return savePoints();
+    }
+
+    /**
+     * @return the open suggestions, lowest stock relative to its reorder point first
+     */
+    public static List<Suggestion> getSuggestions() {
+        List<Suggestion> result = new ArrayList<>(suggestions.values());
+        result.sort(Comparator.comparingDouble(s -> (double) s.getQuantity() / Math.max(1, s.getReorderPoint())));
+        return result;
+    }
+
+    /**
+     * Drop a suggestion (e.g. the order was placed); it comes back the next time the stock crosses the point
+     */
+    public static void dismiss(long medicineId) {
+        if (suggestions.remove(medicineId) != null) {
+            fireChanged();
+        }
+    }
+
+    /**
+     * The listener is called (on the thread that changed the stock) whenever the suggestions change
+     */
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    // O(1) per stock change: only a crossing of the reorder point does anything
+    private static void check(Medicine medicine, int before, int after) {
+        int point = getReorderPoint(medicine.getId());
+        if (after <= point && before > point) {
+            raise(medicine, after, point);
+        } else if (after > point && before <= point) {
+            if (suggestions.remove(medicine.getId()) != null) {
+                fireChanged();
+            }
+        }
+    }
+
+    private static void raise(Medicine medicine, int quantity, int point) {
+        suggestions.put(medicine.getId(), new Suggestion(medicine, quantity, point));
+        fireChanged();
+    }
+
+    private static void fireChanged() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private static void loadPoints() {
+        Path path = Paths.get(POINTS_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    continue;
+                }
+                try {
+                    reorderPoints.put(Long.parseLong(line.substring(0, comma).trim()),
+                            Integer.parseInt(line.substring(comma + 1).trim()));
+                } catch (NumberFormatException e) {
+                    // skip unreadable lines
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading reorder points: " + e.getMessage());
+            Metrics.error("reorder.load");
+        }
+    }
+
+    private static synchronized boolean savePoints() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, Integer> e : new TreeMap<>(reorderPoints).entrySet()) {
+            sb.append(e.getKey()).append(',').append(e.getValue()).append('\n');
+        }
+        Path path = Paths.get(POINTS_FILE);
+        Path tmp = Paths.get(POINTS_FILE + ".tmp");
+        try {
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving reorder points: " + e.getMessage());
+            Metrics.error("reorder.save");
+            return false;
+        }
+    }
+}
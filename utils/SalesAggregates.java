@@ -0,0 +1,146 @@
+package utils;
+
+import models.Purchase;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Running sales totals kept up to date as each sale is recorded.
+ * Rebuilt once from the purchase ledger at startup, after that every question about
+ * revenue is answered from memory without reading "purchases.txt" again.
+ */
+public class SalesAggregates {
+
+    /**
+     * Revenue, units and number of purchase records for one bucket
+     */
+    public static class Totals {
+        private double revenue;
+        private long units;
+        private long sales;
+
+        void add(int quantity, double total) {
+            revenue += total;
+            units += quantity;
+            sales++;
+        }
+
+        void add(Totals other) {
+            revenue += other.revenue;
+            units += other.units;
+            sales += other.sales;
+        }
+
+        public double getRevenue() { return revenue; }
+        public long getUnits() { return units; }
+        public long getSales() { return sales; }
+    }
+
+    private static final Totals overall = new Totals();
+    private static final Map<String, Totals> byMedicine = new HashMap<>();
+    // Keyed by epoch day and epoch hour of the (local) purchase time
+    private static final TreeMap<Long, Totals> byDay = new TreeMap<>();
+    private static final TreeMap<Long, Totals> byHour = new TreeMap<>();
+    private static boolean loaded = false;
+
+    /**
+     * Build the aggregates from the ledger. Called once at startup, later calls are ignored.
+     */
+    public static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        long start = System.nanoTime();
+        // Read straight from the mapped ledger, no Purchase objects needed
+        LedgerScanner.scan(PurchaseManager.getLedgerFile(), row -> {
+            long epochSecond = row.getEpochSecond();
+            add(row.getMedicineName(), row.getQuantity(), row.getTotal(), Math.floorDiv(epochSecond, 86400), Math.floorDiv(epochSecond, 3600));
+            return true;
+        });
+        loaded = true;
+        Metrics.timer("ledger.load.aggregates").recordSince(start);
+    }
+
+    /**
+     * Add a sale that was just written to the ledger
+     */
+    public static synchronized void record(Purchase purchase) {
+        // Before the first load the sale is picked up from the ledger instead
+        if (loaded) {
+            add(purchase.getMedicineName(), purchase.getQuantity(), purchase.getTotal(),
+                    purchase.getPurchaseTime().toLocalDate().toEpochDay(), epochHour(purchase.getPurchaseTime()));
+        }
+    }
+
+    /**
+     * Forget everything (the ledger was reset)
+     */
+    public static synchronized void clear() {
+        overall.revenue = 0;
+        overall.units = 0;
+        overall.sales = 0;
+        byMedicine.clear();
+        byDay.clear();
+        byHour.clear();
+        loaded = true;
+    }
+
+    public static synchronized double getTotalRevenue() {
+        load();
+        return overall.revenue;
+    }
+
+    public static synchronized long getTotalUnits() {
+        load();
+        return overall.units;
+    }
+
+    public static synchronized long getSalesCount() {
+        load();
+        return overall.sales;
+    }
+
+    /**
+     * @return totals of one medicine (case-insensitive), or null if it was never sold
+     */
+    public static synchronized Totals getMedicineTotals(String medicineName) {
+        load();
+        return byMedicine.get(key(medicineName));
+    }
+
+    /**
+     * @return revenue per day between the two epoch days (inclusive)
+     */
+    public static synchronized SortedMap<Long, Totals> getDailyTotals(long fromEpochDay, long toEpochDay) {
+        load();
+        return new TreeMap<>(byDay.subMap(fromEpochDay, true, toEpochDay, true));
+    }
+
+    /**
+     * @return revenue per hour between the two epoch hours (inclusive)
+     */
+    public static synchronized SortedMap<Long, Totals> getHourlyTotals(long fromEpochHour, long toEpochHour) {
+        load();
+        return new TreeMap<>(byHour.subMap(fromEpochHour, true, toEpochHour, true));
+    }
+
+    /**
+     * Epoch hour of a purchase time, the key used by {@link #getHourlyTotals}
+     */
+    public static long epochHour(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) / 3600;
+    }
+
+    private static void add(String medicineName, int quantity, double total, long epochDay, long epochHour) {
+        overall.add(quantity, total);
+        byMedicine.computeIfAbsent(key(medicineName), k -> new Totals()).add(quantity, total);
+        byDay.computeIfAbsent(epochDay, k -> new Totals()).add(quantity, total);
+        byHour.computeIfAbsent(epochHour, k -> new Totals()).add(quantity, total);
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
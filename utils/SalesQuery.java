@@ -0,0 +1,229 @@
+package utils;
+
+import models.Purchase;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Queries over the purchase ledger by date range, medicine and best sellers.
+ *
+ * The ledger is written in time order, so a sparse index of the file offset where each
+ * day starts is enough to jump straight to the part of the file a date range covers:
+ * a "last 7 days" query only scans the last 7 days of lines. The index is built with
+ * one scan at startup and extended as sales are appended. If a line is ever found out
+ * of time order (e.g. the clock was turned back), queries fall back to a full scan.
+ */
+public class SalesQuery {
+
+    /**
+     * Units and revenue of one medicine over a query range
+     */
+    public static class Ranking {
+        private final String medicineName;
+        private long units;
+        private double revenue;
+
+        Ranking(String medicineName) {
+            this.medicineName = medicineName;
+        }
+
+        public String getMedicineName() { return medicineName; }
+        public long getUnits() { return units; }
+        public double getRevenue() { return revenue; }
+    }
+
+    /**
+     * Ledger offsets of the lines matching a query, in file order, plus their totals.
+     * Eight bytes per row, so even a huge history can be listed without loading it.
+     */
+    public static class Selection {
+        private long[] offsets = new long[1024];
+        private int size;
+        private long units;
+        private double revenue;
+
+        private void add(long offset, int quantity, double total) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+            units += quantity;
+            revenue += total;
+        }
+
+        public long[] getOffsets() { return Arrays.copyOf(offsets, size); }
+        public int size() { return size; }
+        public long getUnits() { return units; }
+        public double getRevenue() { return revenue; }
+    }
+
+    // Epoch day -> offset of the first line of that day
+    private static final TreeMap<Long, Long> dayOffsets = new TreeMap<>();
+    private static boolean ordered = true;
+    private static boolean loaded = false;
+
+    /**
+     * Build the day index from the ledger. Called once at startup, later calls are ignored.
+     */
+    public static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        long start = System.nanoTime();
+        LedgerScanner.scan(PurchaseManager.getLedgerFile(), row -> {
+            observe(row.getEpochDay(), row.getFileOffset());
+            return true;
+        });
+        loaded = true;
+        Metrics.timer("ledger.load.query").recordSince(start);
+    }
+
+    /**
+     * Note a line that was just appended to the ledger
+     */
+    public static synchronized void record(LocalDate day, long fileOffset) {
+        // Before the first load the line is picked up by the load scan instead
+        if (loaded) {
+            observe(day.toEpochDay(), fileOffset);
+        }
+    }
+
+    /**
+     * Forget the index (the ledger was reset)
+     */
+    public static synchronized void clear() {
+        dayOffsets.clear();
+        ordered = true;
+        loaded = true;
+    }
+
+    /**
+     * Purchases between two dates (inclusive), optionally only of one medicine
+     * @param from first day, or null for the beginning of the ledger
+     * @param to last day, or null for today and later
+     * @param medicineName medicine to keep (case-insensitive), or null/blank for all
+     */
+    public static List<Purchase> find(LocalDate from, LocalDate to, String medicineName) {
+        List<Purchase> result = new ArrayList<>();
+        byte[] name = nameBytes(medicineName);
+        scanRange(from, to, row -> {
+            if (name == null || row.medicineNameEquals(name)) {
+                result.add(row.toPurchase());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Same filter as {@link #find}, but only the ledger offsets of the matching lines are kept
+     */
+    public static Selection select(LocalDate from, LocalDate to, String medicineName) {
+        Selection selection = new Selection();
+        byte[] name = nameBytes(medicineName);
+        scanRange(from, to, row -> {
+            if (name == null || row.medicineNameEquals(name)) {
+                selection.add(row.getFileOffset(), row.getQuantity(), row.getTotal());
+            }
+        });
+        return selection;
+    }
+
+    /**
+     * Best-selling medicines between two dates (inclusive)
+     * @param byRevenue rank by revenue if true, by units sold otherwise
+     * @return at most n rankings, best first
+     */
+    public static List<Ranking> top(LocalDate from, LocalDate to, int n, boolean byRevenue) {
+        Map<String, Ranking> totals = new HashMap<>();
+        scanRange(from, to, row -> {
+            Ranking r = totals.computeIfAbsent(row.getMedicineName(), Ranking::new);
+            r.units += row.getQuantity();
+            r.revenue += row.getTotal();
+        });
+
+        Comparator<Ranking> order = byRevenue
+                ? Comparator.comparingDouble(Ranking::getRevenue)
+                : Comparator.comparingLong(Ranking::getUnits);
+        // Keep only the n best in a small min-heap
+        PriorityQueue<Ranking> best = new PriorityQueue<>(order);
+        for (Ranking r : totals.values()) {
+            best.add(r);
+            if (best.size() > n) {
+                best.poll();
+            }
+        }
+        List<Ranking> result = new ArrayList<>(best);
+        result.sort(order.reversed());
+        return result;
+    }
+
+    /**
+     * Byte range [start, end) of the ledger that holds the given days, end is -1 for end of file
+     */
+    static synchronized long[] offsetsFor(LocalDate from, LocalDate to) {
+        load();
+        if (!ordered) {
+            return new long[]{0, -1};
+        }
+        long start = 0;
+        if (from != null) {
+            Map.Entry<Long, Long> first = dayOffsets.ceilingEntry(from.toEpochDay());
+            if (first == null) {
+                return new long[]{0, 0}; // nothing on or after 'from'
+            }
+            start = first.getValue();
+        }
+        long end = -1;
+        if (to != null) {
+            Map.Entry<Long, Long> after = dayOffsets.higherEntry(to.toEpochDay());
+            if (after != null) {
+                end = after.getValue();
+            }
+        }
+        return new long[]{start, end};
+    }
+
+    interface RowAction {
+        void accept(PurchaseView row);
+    }
+
+    /**
+     * Visit every ledger line dated between the two days (inclusive), reading only that part of the file
+     */
+    static void scanRange(LocalDate from, LocalDate to, RowAction action) {
+        long[] range = offsetsFor(from, to);
+        if (range[1] == 0) {
+            return;
+        }
+        long fromDay = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long toDay = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        LedgerScanner.scan(PurchaseManager.getLedgerFile(), range[0], range[1] < 0 ? Long.MAX_VALUE : range[1], row -> {
+            long day = row.getEpochDay();
+            if (day >= fromDay && day <= toDay) {
+                action.accept(row);
+            }
+            return true;
+        });
+    }
+
+    private static void observe(long day, long offset) {
+        // Concurrent checkouts may report their lines in a different order than they were
+        // written, so keep the lowest offset per day and only check that days and offsets
+        // still rise together
+        long start = dayOffsets.merge(day, offset, Math::min);
+        Map.Entry<Long, Long> before = dayOffsets.lowerEntry(day);
+        Map.Entry<Long, Long> after = dayOffsets.higherEntry(day);
+        if ((before != null && before.getValue() > start) || (after != null && after.getValue() < offset)) {
+            ordered = false;
+        }
+    }
+
+    private static byte[] nameBytes(String medicineName) {
+        if (medicineName == null || medicineName.isBlank()) {
+            return null;
+        }
+        return medicineName.trim().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,268 @@
+package utils;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Sales report over a date range, computed in parallel straight from the purchase ledger.
+ *
+ * The part of the ledger that covers the range is cut into byte ranges that start at a line
+ * boundary ({@link LedgerScanner#parallelScan}). Each range is scanned and aggregated on its
+ * own by a fork/join task, and the partial results are merged pairwise on the way back up,
+ * so a report over a large ledger scales with the number of cores.
+ *
+ * A basket is a run of consecutive ledger lines with the same timestamp (one checkout
+ * writes all of its lines at once). A basket cut in two by a range boundary is joined
+ * again when the two ranges are merged.
+ */
+public class SalesReport {
+    // Basket sizes are counted as 1, 2, 3, 4 and 5 or more lines
+    private static final int BASKET_SIZES = 5;
+
+    private final SalesAggregates.Totals totals = new SalesAggregates.Totals();
+    private final Map<String, SalesAggregates.Totals> byMedicine = new HashMap<>();
+    private final TreeMap<Long, SalesAggregates.Totals> byDay = new TreeMap<>();
+    private final SalesAggregates.Totals[] byHour = new SalesAggregates.Totals[24];
+    // Baskets not touching either end of the scanned range
+    private final long[] basketSizes = new long[BASKET_SIZES];
+    private long baskets;
+    private long basketLines;
+    private int maxBasketLines;
+    // First and last basket of the range, may still continue in the neighbouring range
+    private Basket first;
+    private Basket last;
+    private long elapsedNanos;
+
+    private static class Basket {
+        final long epochSecond;
+        int lines;
+
+        Basket(long epochSecond) {
+            this.epochSecond = epochSecond;
+        }
+    }
+
+    private SalesReport() {
+        for (int h = 0; h < byHour.length; h++) {
+            byHour[h] = new SalesAggregates.Totals();
+        }
+    }
+
+    /**
+     * Report on the purchases between two dates (inclusive), using the common fork/join pool
+     * @param from first day, or null for the beginning of the ledger
+     * @param to last day, or null for no upper bound
+     */
+    public static SalesReport build(LocalDate from, LocalDate to) {
+        long[] range = SalesQuery.offsetsFor(from, to);
+        return build(PurchaseManager.getLedgerFile(), range[0], range[1] < 0 ? Long.MAX_VALUE : range[1],
+                from, to, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Report on the lines of a ledger file starting in [start, end) and dated between two days (inclusive)
+     * @param start offset of a line start
+     * @param pool pool that runs the range tasks
+     */
+    public static SalesReport build(String fileName, long start, long end, LocalDate from, LocalDate to, ForkJoinPool pool) {
+        long began = System.nanoTime();
+        long fromDay = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long toDay = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        SalesReport report = LedgerScanner.parallelScan(fileName, start, end, pool, SalesReport::new, (partial, row) -> {
+            long epochSecond = row.getEpochSecond();
+            long day = Math.floorDiv(epochSecond, 86400);
+            if (day >= fromDay && day <= toDay) {
+                partial.add(row.getMedicineName(), row.getQuantity(), row.getTotal(), epochSecond);
+            }
+        }, SalesReport::merge);
+        report.elapsedNanos = System.nanoTime() - began;
+        Metrics.timer("report.build").record(report.elapsedNanos);
+        return report;
+    }
+
+    private void add(String medicineName, int quantity, double total, long epochSecond) {
+        long day = Math.floorDiv(epochSecond, 86400);
+        totals.add(quantity, total);
+        byMedicine.computeIfAbsent(medicineName, k -> new SalesAggregates.Totals()).add(quantity, total);
+        byDay.computeIfAbsent(day, k -> new SalesAggregates.Totals()).add(quantity, total);
+        byHour[(int) ((epochSecond - day * 86400) / 3600)].add(quantity, total);
+
+        if (last != null && last.epochSecond == epochSecond) {
+            last.lines++;
+            return;
+        }
+        if (last != null && last != first) {
+            close(last);
+        }
+        last = new Basket(epochSecond);
+        last.lines = 1;
+        if (first == null) {
+            first = last;
+        }
+    }
+
+    // Count a basket that can no longer grow
+    private void close(Basket basket) {
+        baskets++;
+        basketLines += basket.lines;
+        maxBasketLines = Math.max(maxBasketLines, basket.lines);
+        basketSizes[Math.min(basket.lines, BASKET_SIZES) - 1]++;
+    }
+
+    /**
+     * Fold the report of the range that follows this one into this one
+     */
+    private SalesReport merge(SalesReport next) {
+        totals.add(next.totals);
+        next.byMedicine.forEach((name, t) -> byMedicine.computeIfAbsent(name, k -> new SalesAggregates.Totals()).add(t));
+        next.byDay.forEach((day, t) -> byDay.computeIfAbsent(day, k -> new SalesAggregates.Totals()).add(t));
+        for (int h = 0; h < byHour.length; h++) {
+            byHour[h].add(next.byHour[h]);
+        }
+        baskets += next.baskets;
+        basketLines += next.basketLines;
+        maxBasketLines = Math.max(maxBasketLines, next.maxBasketLines);
+        for (int i = 0; i < BASKET_SIZES; i++) {
+            basketSizes[i] += next.basketSizes[i];
+        }
+        if (next.first == null) {
+            return this;
+        }
+        if (first == null) {
+            first = next.first;
+            last = next.last;
+            return this;
+        }
+
+        // The edge baskets of both ranges in order; the ones that end up inside are closed
+        List<Basket> edges = new ArrayList<>(4);
+        edges.add(first);
+        if (last != first) {
+            edges.add(last);
+        }
+        Basket nextFirst = next.first;
+        if (last.epochSecond == nextFirst.epochSecond) {
+            last.lines += nextFirst.lines; // the same basket, cut by the range boundary
+        } else {
+            edges.add(nextFirst);
+        }
+        if (next.last != nextFirst) {
+            edges.add(next.last);
+        }
+        for (int i = 1; i < edges.size() - 1; i++) {
+            close(edges.get(i));
+        }
+        first = edges.get(0);
+        last = edges.get(edges.size() - 1);
+        return this;
+    }
+
+    public SalesAggregates.Totals getTotals() { return totals; }
+
+    /**
+     * @return totals per medicine by name (case-insensitive)
+     */
+    public SortedMap<String, SalesAggregates.Totals> getMedicineTotals() {
+        TreeMap<String, SalesAggregates.Totals> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        byMedicine.forEach((name, t) -> result.computeIfAbsent(name, k -> new SalesAggregates.Totals()).add(t));
+        return result;
+    }
+
+    /**
+     * @return totals per epoch day, in date order
+     */
+    public SortedMap<Long, SalesAggregates.Totals> getDailyTotals() {
+        return Collections.unmodifiableSortedMap(byDay);
+    }
+
+    /**
+     * @return totals of one hour of the day (0-23) over the whole range
+     */
+    public SalesAggregates.Totals getHourTotals(int hour) {
+        return byHour[hour];
+    }
+
+    public long getBasketCount() {
+        return baskets + (first == null ? 0 : first == last ? 1 : 2);
+    }
+
+    public int getMaxBasketLines() {
+        int max = maxBasketLines;
+        if (first != null) {
+            max = Math.max(max, Math.max(first.lines, last.lines));
+        }
+        return max;
+    }
+
+    /**
+     * @return number of baskets with 1, 2, 3, 4 and 5 or more lines
+     */
+    public long[] getBasketSizeCounts() {
+        long[] sizes = basketSizes.clone();
+        if (first != null) {
+            sizes[Math.min(first.lines, BASKET_SIZES) - 1]++;
+            if (last != first) {
+                sizes[Math.min(last.lines, BASKET_SIZES) - 1]++;
+            }
+        }
+        return sizes;
+    }
+
+    public double getAverageBasketLines() {
+        long count = getBasketCount();
+        return count == 0 ? 0 : (double) totals.getSales() / count;
+    }
+
+    public double getAverageBasketValue() {
+        long count = getBasketCount();
+        return count == 0 ? 0 : totals.getRevenue() / count;
+    }
+
+    public double getAverageBasketUnits() {
+        long count = getBasketCount();
+        return count == 0 ? 0 : (double) totals.getUnits() / count;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SALES: ").append(totals.getSales())
+          .append(" | UNITS SOLD: ").append(totals.getUnits())
+          .append(" | REVENUE: $").append(String.format("%.2f", totals.getRevenue())).append("\n");
+        long[] sizes = getBasketSizeCounts();
+        sb.append("BASKETS: ").append(getBasketCount())
+          .append(String.format(" | Avg lines: %.2f | Avg units: %.2f | Avg value: $%.2f | Largest: %d lines%n",
+                  getAverageBasketLines(), getAverageBasketUnits(), getAverageBasketValue(), getMaxBasketLines()));
+        sb.append(String.format("Basket sizes: 1 line: %d | 2: %d | 3: %d | 4: %d | 5+: %d%n",
+                sizes[0], sizes[1], sizes[2], sizes[3], sizes[4]));
+
+        sb.append("\n=== By medicine (by revenue) ===\n");
+        List<Map.Entry<String, SalesAggregates.Totals>> medicines = new ArrayList<>(getMedicineTotals().entrySet());
+        medicines.sort((a, b) -> Double.compare(b.getValue().getRevenue(), a.getValue().getRevenue()));
+        for (Map.Entry<String, SalesAggregates.Totals> e : medicines) {
+            sb.append(String.format("%-20s | Units: %8d | Revenue: $%12.2f%n",
+                    e.getKey(), e.getValue().getUnits(), e.getValue().getRevenue()));
+        }
+
+        sb.append("\n=== By day ===\n");
+        for (Map.Entry<Long, SalesAggregates.Totals> e : byDay.entrySet()) {
+            sb.append(String.format("%s | Sales: %6d | Units: %8d | Revenue: $%12.2f%n", LocalDate.ofEpochDay(e.getKey()),
+                    e.getValue().getSales(), e.getValue().getUnits(), e.getValue().getRevenue()));
+        }
+
+        sb.append("\n=== By hour of day ===\n");
+        for (int h = 0; h < byHour.length; h++) {
+            if (byHour[h].getSales() > 0) {
+                sb.append(String.format("%02d:00 | Sales: %8d | Units: %8d | Revenue: $%12.2f%n",
+                        h, byHour[h].getSales(), byHour[h].getUnits(), byHour[h].getRevenue()));
+            }
+        }
+        sb.append("\n(").append(getElapsedMillis()).append(" ms)");
+        return sb.toString();
+    }
+}
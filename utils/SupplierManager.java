@@ -1,36 +1,31 @@
 package utils;
 
 import models.Supplier;
-import java.io.*;
+
 import java.util.ArrayList;
+import java.util.List;
 
 public class SupplierManager {
-    private static final String FILE_NAME = "suppliers.txt";
 
     public static ArrayList<Supplier> loadSuppliers() {
-        ArrayList<Supplier> suppliers = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(FILE_NAME))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                Supplier supplier = Supplier.fromString(line);
-                if (supplier != null) {
-                    suppliers.add(supplier);
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("Error loading suppliers: " + e.getMessage());
-        }
-        return suppliers;
+        return new ArrayList<>(SupplierStore.getAll());
     }
 
+    /**
+     * Store this list as the complete set of suppliers; new ones get an ID.
+     * Only the suppliers that were added, changed or removed are written.
+     */
     public static void saveSuppliers(ArrayList<Supplier> suppliers) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(FILE_NAME))) {
-            for (Supplier s : suppliers) {
-                bw.write(s.toString());
-                bw.newLine();
-            }
-        } catch (IOException e) {
-            System.out.println("Error saving suppliers: " + e.getMessage());
+        if (!SupplierStore.saveAll(suppliers)) {
+            System.out.println("Error saving suppliers");
+            Metrics.error("suppliers.save");
         }
     }
+
+    /**
+     * @return the saved suppliers that list this medicine (case-insensitive)
+     */
+    public static List<Supplier> findByMedicine(String medicineName) {
+        return SupplierStore.suppliersOf(medicineName);
+    }
 }
@@ -0,0 +1,261 @@
+package utils;
+
+import models.Supplier;
+import storage.Repository;
+import storage.Storage;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resident copy of the supplier directory.
+ * The suppliers are read once from their {@link Repository} and kept in memory with an ID
+ * index, a case-insensitive name index and an inverted index from each medicine name in the
+ * "supplied medicines" text to the suppliers that list it, so "which suppliers carry X" is
+ * one hash lookup.
+ *
+ * Saving a whole list (the "Save All" of the supplier tab) compares it with the stored
+ * records and only writes the ones that were added, changed or dropped; with the flat backend
+ * each of those is one journal record instead of a rewrite of "suppliers.txt".
+ * This is the only class that reads or writes the supplier records.
+ */
+public class SupplierStore {
+    private static final Repository<Supplier> repository = Storage.suppliers();
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Stored copies, handed out only as copies; ID index in file order, plus the two lookups
+    private static final Map<Long, Supplier> byId = new LinkedHashMap<>();
+    private static final Map<String, List<Supplier>> byName = new HashMap<>();
+    private static final Map<String, List<Supplier>> byMedicine = new HashMap<>();
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private static long nextId = 1;
+    private static volatile boolean loaded = false;
+
+    /**
+     * Load the suppliers from the repository. Called once at startup, later calls are ignored.
+     */
+    public static void load() {
+        if (loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+            for (Supplier supplier : repository.loadAll()) {
+                index(copy(supplier));
+            }
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return copies of all suppliers in file order
+     */
+    public static List<Supplier> getAll() {
+        load();
+        lock.readLock().lock();
+        try {
+            List<Supplier> result = new ArrayList<>(byId.size());
+            for (Supplier supplier : byId.values()) {
+                result.add(copy(supplier));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the supplier with this ID, or null
+     */
+    public static Supplier get(long id) {
+        load();
+        lock.readLock().lock();
+        try {
+            Supplier supplier = byId.get(id);
+            return supplier == null ? null : copy(supplier);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the first supplier with this name (case-insensitive), or null
+     */
+    public static Supplier findByName(String name) {
+        load();
+        lock.readLock().lock();
+        try {
+            List<Supplier> found = name == null ? null : byName.get(key(name));
+            return found == null ? null : copy(found.get(0));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return copies of the suppliers that list this medicine (case-insensitive)
+     */
+    public static List<Supplier> suppliersOf(String medicineName) {
+        load();
+        lock.readLock().lock();
+        try {
+            List<Supplier> result = new ArrayList<>();
+            for (Supplier supplier : byMedicine.getOrDefault(key(medicineName), List.of())) {
+                result.add(copy(supplier));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the medicine names a supplier lists, empty if there is no such supplier
+     */
+    public static List<String> medicinesOf(long supplierId) {
+        load();
+        lock.readLock().lock();
+        try {
+            Supplier supplier = byId.get(supplierId);
+            return supplier == null ? List.of() : supplier.getMedicineNames();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Store this list as the complete set of suppliers. New suppliers (ID 0) get an ID, set on
+     * the given objects; only new, changed and dropped suppliers are written.
+     * @return false if the changes could not be saved
+     */
+    public static boolean saveAll(Collection<Supplier> suppliers) {
+        load();
+        boolean applied = false;
+        lock.writeLock().lock();
+        try {
+            for (Supplier supplier : suppliers) {
+                nextId = Math.max(nextId, supplier.getId() + 1);
+            }
+            List<Supplier> changed = new ArrayList<>();
+            Set<Long> kept = new HashSet<>();
+            for (Supplier supplier : suppliers) {
+                if (supplier.getId() == 0) {
+                    supplier.setId(nextId++);
+                }
+                kept.add(supplier.getId());
+                Supplier stored = byId.get(supplier.getId());
+                if (stored == null || !stored.toString().equals(supplier.toString())) {
+                    changed.add(copy(supplier));
+                }
+            }
+            List<Long> dropped = new ArrayList<>();
+            for (Long id : byId.keySet()) {
+                if (!kept.contains(id)) {
+                    dropped.add(id);
+                }
+            }
+            if (changed.isEmpty() && dropped.isEmpty()) {
+                return true;
+            }
+
+            if (!changed.isEmpty() && !repository.putAll(changed)) {
+                return false;
+            }
+            applied = true;
+            for (Supplier supplier : changed) {
+                Supplier stored = byId.get(supplier.getId());
+                if (stored != null) {
+                    unlink(stored);
+                }
+                index(supplier); // replaces the stored copy in place, so file order is kept
+            }
+            boolean saved = true;
+            for (Long id : dropped) {
+                if (repository.delete(id)) {
+                    unindex(id);
+                } else {
+                    saved = false;
+                }
+            }
+            return saved;
+        } finally {
+            lock.writeLock().unlock();
+            if (applied) {
+                fireChanged();
+            }
+        }
+    }
+
+    /**
+     * The listener is called after every save that changed the directory
+     */
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private static void fireChanged() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private static void index(Supplier supplier) {
+        byId.put(supplier.getId(), supplier);
+        byName.computeIfAbsent(key(supplier.getName()), k -> new ArrayList<>()).add(supplier);
+        for (String medicine : new LinkedHashSet<>(keys(supplier.getMedicineNames()))) {
+            byMedicine.computeIfAbsent(medicine, k -> new ArrayList<>()).add(supplier);
+        }
+        nextId = Math.max(nextId, supplier.getId() + 1);
+    }
+
+    private static void unindex(long id) {
+        Supplier supplier = byId.remove(id);
+        if (supplier != null) {
+            unlink(supplier);
+        }
+    }
+
+    // Drop a stored copy from the name and medicine indexes
+    private static void unlink(Supplier supplier) {
+        removeFrom(byName, key(supplier.getName()), supplier);
+        for (String medicine : keys(supplier.getMedicineNames())) {
+            removeFrom(byMedicine, medicine, supplier);
+        }
+    }
+
+    private static void removeFrom(Map<String, List<Supplier>> index, String key, Supplier supplier) {
+        List<Supplier> list = index.get(key);
+        if (list != null) {
+            list.remove(supplier);
+            if (list.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static List<String> keys(List<String> names) {
+        List<String> keys = new ArrayList<>(names.size());
+        for (String name : names) {
+            keys.add(key(name));
+        }
+        return keys;
+    }
+
+    private static Supplier copy(Supplier s) {
+        return new Supplier(s.getId(), s.getName(), s.getPhone(), s.getAddress(), s.getSuppliedMedicines());
+    }
+
+    private static String key(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+}
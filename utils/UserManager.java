@@ -1,137 +1,276 @@
 package utils;
 
-import java.io.*;
+import models.Account;
+import storage.Repository;
+import storage.Storage;
+
 import java.util.*;
 
+/**
+ * User accounts, kept in memory and stored through a {@link Repository} as
+ * {@code id,username,passwordHash,role} (users.txt with the flat backend).
+ * The directory is re-read only when the repository's stamp changes (with flat files: when
+ * another process changed them, not after our own writes or journal merges), so a login is
+ * one hash map lookup plus one password verification. Verification is deliberately slow;
+ * callers on the event thread should run it in the background.
+ */
 public class UserManager {
-    private static final String FILE = "users.txt";
+    private static final Repository<Account> repository = Storage.users();
+
+    /** Shown in place of password hashes; passing it back to {@link #updateUser} keeps the password */
+    public static final String KEEP_PASSWORD = "********";
+
+    // ID index in stored order (kept for the admin table), plus the username index
+    private static final Map<Long, Account> byId = new LinkedHashMap<>();
+    private static final Map<String, Account> byName = new HashMap<>();
+    private static long nextId = 1;
+    private static long[] loadedStamp = null;
+
+    // Verified against for unknown usernames so they take as long as wrong passwords
+    private static volatile String dummyHash;
+
+    private static final Metrics.Timer loginTime = Metrics.timer("login.check");
+    private static final Metrics.Counter loginsAccepted = Metrics.counter("login.accepted");
+    // Includes the throttled ones
+    private static final Metrics.Counter loginsRefused = Metrics.counter("login.refused");
+    private static final Metrics.Counter loginsThrottled = Metrics.counter("login.throttled");
 
     public static void bootstrap() {
-        File f = new File(FILE);
-        if (!f.exists()) {
-            saveAll(List.of("admin,admin,Admin"));   // default record
+        synchronized (UserManager.class) {
+            ensureLoaded();
+            if (byId.isEmpty()) {
+                store(new Account(nextId, "admin", PasswordHasher.hash("admin"), "Admin"));   // default record
+                return;
+            }
         }
+        migratePlaintext();
     }
-    
-    /** Get all users as a 2D array (username, password, role) */
-    public static String[][] getAllUsers() {
-        List<String> userLines = loadAll();
-        String[][] users = new String[userLines.size()][3];
-        
-        for (int i = 0; i < userLines.size(); i++) {
-            users[i] = userLines.get(i).split(",");
+
+    /** Get all users as a 2D array (id, username, password, role); passwords are masked */
+    public static synchronized String[][] getAllUsers() {
+        ensureLoaded();
+        String[][] users = new String[byId.size()][];
+        int i = 0;
+        for (Account a : byId.values()) {
+            users[i++] = new String[]{String.valueOf(a.getId()), a.getUsername(), KEEP_PASSWORD, a.getRole()};
         }
-        
         return users;
     }
 
     /** true ⇢ credentials match the single admin account */
     public static boolean checkAdmin(String username, String password) {
-        return loadAll().stream()
-                .filter(l -> l.endsWith(",Admin"))
-                .anyMatch(l -> {
-                    String[] p = l.split(",");
-                    return p[0].equals(username) && p[1].equals(password);
-                });
+        return "Admin".equals(checkCredentials(username, password));
     }
 
     /** Update admin UN or PW (pass null for the part you keep). */
-    public static void updateAdminCreds(String newUser, String newPass) {
-        List<String> all = loadAll();
-        for (int i = 0; i < all.size(); i++) {
-            if (all.get(i).endsWith(",Admin")) {
-                String[] p = all.get(i).split(",");
-                all.set(i, String.join(",",                     //
-                        newUser == null ? p[0] : newUser,      //
-                        newPass == null ? p[1] : newPass,      //
+    public static synchronized void updateAdminCreds(String newUser, String newPass) {
+        ensureLoaded();
+        for (Account a : byId.values()) {
+            if (a.getRole().equals("Admin")) {
+                store(new Account(a.getId(),
+                        newUser == null ? a.getUsername() : newUser,
+                        newPass == null ? a.getPassword() : PasswordHasher.hash(newPass),
                         "Admin"));
                 break;
             }
         }
-        saveAll(all);
     }
 
-    private static List<String> loadAll() {
-        List<String> out = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) out.add(line.trim());
-        } catch (IOException ignored) {}
-        return out;
-    }
-
-    private static void saveAll(List<String> lines) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(FILE))) {
-            for (String s : lines) pw.println(s);
-        } catch (IOException e) { e.printStackTrace(); }
+    /**
+     * @return the user's role, or null if the username or password is wrong or the username
+     * is throttled (see {@link LoginThrottle#retryAfterMillis})
+     */
+    public static String checkCredentials(String username, String password) {
+        long start = System.nanoTime();
+        String role = verify(username, password);
+        loginTime.recordSince(start);
+        (role != null ? loginsAccepted : loginsRefused).increment();
+        return role;
     }
 
-    public static String checkCredentials(String username, String password) {
-        for (String line : loadAll()) {
-            String[] parts = line.split(",");
-            if (parts.length == 3 && parts[0].equals(username) && parts[1].equals(password)) {
-                return parts[2];
+    private static String verify(String username, String password) {
+        if (username == null || password == null) {
+            return null; // nothing to check
+        }
+        if (!LoginThrottle.tryAcquire(username)) {
+            loginsThrottled.increment();
+            return null; // too many failures, not even looked up
+        }
+        Account account;
+        try {
+            synchronized (UserManager.class) {
+                ensureLoaded();
+                account = byName.get(username);
             }
+            if (account == null) {
+                PasswordHasher.verify(password, dummyHash());
+                LoginThrottle.recordFailure(username);
+                return null; // invalid
+            }
+            if (!PasswordHasher.verify(password, account.getPassword())) {
+                LoginThrottle.recordFailure(username);
+                return null; // invalid
+            }
+        } catch (RuntimeException e) {
+            LoginThrottle.release(username); // no answer, so the attempt does not count
+            throw e;
         }
-        return null; // invalid
+        LoginThrottle.recordSuccess(username);
+        if (PasswordHasher.needsRehash(account.getPassword())) {
+            rehash(account, password);
+        }
+        return account.getRole();
     }
 
     public static boolean createUser(String username, String password, String role) {
-        if (usernameExists(username)) return false;
-        List<String> users = loadAll();
-        users.add(username + "," + password + "," + role);
-        saveAll(users);
-        return true;
+        String hash = PasswordHasher.hash(password);
+        synchronized (UserManager.class) {
+            ensureLoaded();
+            if (byName.containsKey(username)) return false;
+            return store(new Account(nextId, username, hash, role));
+        }
     }
 
-    private static boolean usernameExists(String username) {
-        return loadAll().stream()
-                .anyMatch(l -> l.startsWith(username + ","));
-    }
-    
     /**
-     * Delete a user by index
-     * @param index The index of the user to delete
-     * @return true if successful, false if it was the admin or index invalid
+     * Delete a user
+     * @param id ID of the user to delete
+     * @return true if successful, false if it was the admin or there is no such user
      */
-    public static boolean deleteUser(int index) {
-        List<String> users = loadAll();
-        
+    public static synchronized boolean deleteUser(long id) {
+        ensureLoaded();
+        Account old = byId.get(id);
+
         // Don't allow deleting the admin user
-        if (index >= 0 && index < users.size() && !users.get(index).endsWith(",Admin")) {
-            users.remove(index);
-            saveAll(users);
-            return true;
+        if (old == null || old.getRole().equals("Admin")) {
+            return false;
         }
-        return false;
+        if (!repository.delete(id)) {
+            return false;
+        }
+        remove(id);
+        loadedStamp = repository.stamp();
+        return true;
     }
-    
+
     /**
      * Update a user's information
-     * @param index Index of user to update
+     * @param id ID of the user to update
      * @param username New username
-     * @param password New password
-     * @param role New role
-     * @return true if successful, false if username exists or can't update admin role
+     * @param password New password, or {@link #KEEP_PASSWORD} to keep the current one
+     * @param role New role (ignored for the admin)
+     * @return true if successful, false if the username is taken or there is no such user
      */
-    public static boolean updateUser(int index, String username, String password, String role) {
-        List<String> users = loadAll();
-        
-        if (index < 0 || index >= users.size()) {
-            return false;
+    public static boolean updateUser(long id, String username, String password, String role) {
+        String hash = password.equals(KEEP_PASSWORD) ? null : PasswordHasher.hash(password);
+        synchronized (UserManager.class) {
+            ensureLoaded();
+            Account old = byId.get(id);
+            if (old == null) {
+                return false;
+            }
+            boolean isAdmin = old.getRole().equals("Admin");
+
+            // If changing username, check it doesn't exist already
+            if (!old.getUsername().equals(username) && byName.containsKey(username)) {
+                return false;
+            }
+            return store(new Account(id, username, hash == null ? old.getPassword() : hash, isAdmin ? "Admin" : role));
         }
-        
-        String[] parts = users.get(index).split(",");
-        boolean isAdmin = parts[2].equals("Admin");
-        
-        // If changing username, check it doesn't exist already
-        if (!parts[0].equals(username) && usernameExists(username)) {
-            return false;
+    }
+
+    // Hash any passwords still stored in plaintext, once
+    private static void migratePlaintext() {
+        List<Account> plain = new ArrayList<>();
+        synchronized (UserManager.class) {
+            ensureLoaded();
+            for (Account a : byId.values()) {
+                if (!PasswordHasher.isHashed(a.getPassword())) {
+                    plain.add(a);
+                }
+            }
+        }
+        if (plain.isEmpty()) {
+            return;
         }
-        if(isAdmin) users.set(index, username + "," + password + "," + "Admin");
-        else users.set(index, username + "," + password + "," + role);
+        List<Account> hashed = plain.parallelStream()
+                .map(a -> new Account(a.getId(), a.getUsername(), PasswordHasher.hash(a.getPassword()), a.getRole()))
+                .toList();
+        synchronized (UserManager.class) {
+            ensureLoaded();
+            List<Account> unchanged = new ArrayList<>();
+            for (int i = 0; i < plain.size(); i++) {
+                Account now = byId.get(plain.get(i).getId());
+                if (now != null && now.toString().equals(plain.get(i).toString())) { // not edited meanwhile
+                    unchanged.add(hashed.get(i));
+                }
+            }
+            unchanged.forEach(UserManager::put);
+            // Rewrite everything so no copy of the plaintext is left behind
+            if (!repository.replaceAll(new ArrayList<>(byId.values()))) {
+                loadedStamp = null; // reload what is really stored
+                return;
+            }
+            loadedStamp = repository.stamp();
+        }
+    }
 
-        saveAll(users);
+    // Store a hash at the current cost after a successful login with an outdated one
+    private static void rehash(Account account, String password) {
+        String hash = PasswordHasher.hash(password);
+        synchronized (UserManager.class) {
+            ensureLoaded();
+            if (byId.get(account.getId()) == account) { // still the one we verified against
+                store(new Account(account.getId(), account.getUsername(), hash, account.getRole()));
+            }
+        }
+    }
+
+    private static String dummyHash() {
+        if (dummyHash == null) {
+            dummyHash = PasswordHasher.hash("not-a-password");
+        }
+        return dummyHash;
+    }
+
+    // Save one account and apply it
+    private static boolean store(Account account) {
+        if (!repository.put(account)) {
+            return false;
+        }
+        put(account);
+        loadedStamp = repository.stamp();
         return true;
     }
-}
\ No newline at end of file
+
+    // Add an account or replace the one with its ID, keeping its position
+    private static void put(Account account) {
+        Account old = byId.put(account.getId(), account);
+        if (old != null && byName.get(old.getUsername()) == old) {
+            byName.remove(old.getUsername());
+        }
+        byName.put(account.getUsername(), account);
+        nextId = Math.max(nextId, account.getId() + 1);
+    }
+
+    private static void remove(long id) {
+        Account old = byId.remove(id);
+        if (old != null && byName.get(old.getUsername()) == old) {
+            byName.remove(old.getUsername());
+        }
+    }
+
+    // Re-read the accounts if someone else changed them since we last read or wrote them
+    private static void ensureLoaded() {
+        long[] stamp = repository.stamp();
+        if (Arrays.equals(stamp, loadedStamp)) {
+            return;
+        }
+        byId.clear();
+        byName.clear();
+        nextId = 1;
+        for (Account account : repository.loadAll()) {
+            put(account);
+        }
+        loadedStamp = stamp;
+    }
+}